@@ -0,0 +1,123 @@
+package tud.ke.ml.project.classifier;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.converters.ArffLoader;
+
+/**
+ * Data sets of the benchmarks: the bundled ARFF files and synthetic copies of them scaled by a factor.
+ *
+ * A scaled data set holds every instance of the original once and factor - 1 perturbed copies of it: numeric values
+ * get Gaussian noise of {@link #NOISE} standard deviations of their attribute, and every nominal value is replaced by a
+ * uniformly drawn value of its attribute with probability {@link #RESAMPLING}. The class values are kept, so the class
+ * balance is the one of the original. The noise is drawn from a fixed seed, so every run benchmarks the same data.
+ */
+final class BenchmarkData {
+    static final double NOISE = 0.05;
+    static final double RESAMPLING = 0.1;
+    static final long SEED = 42;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * @param name the name of a file in the data directory without extension, e.g. credit-g
+     * @param scale the number of instances per original instance
+     * @return the instances, with the last attribute as class
+     * @throws IOException if the file cannot be read
+     */
+    static Instances load(String name, int scale) throws IOException {
+        ArffLoader loader = new ArffLoader();
+        loader.setFile(new File("data/" + name + ".arff"));
+        Instances instances = loader.getDataSet();
+        instances.setClassIndex(instances.numAttributes() - 1);
+        return scale > 1 ? scale(instances, scale) : instances;
+    }
+
+    private static Instances scale(Instances instances, int scale) {
+        double[] deviations = deviations(instances);
+        Random random = new Random(SEED);
+        Instances scaled = new Instances(instances, instances.numInstances() * scale);
+        for (int copy = 0; copy < scale; copy++) {
+            for (Instance instance : instances) {
+                scaled.add(copy > 0 ? perturb(instances, instance, deviations, random) : instance);
+            }
+        }
+        return scaled;
+    }
+
+    private static double[] deviations(Instances instances) {
+        double[] deviations = new double[instances.numAttributes()];
+        for (int i = 0; i < deviations.length; i++) {
+            if (instances.attribute(i).isNumeric())
+                deviations[i] = Math.sqrt(instances.variance(i));
+        }
+        return deviations;
+    }
+
+    /**
+     * Copies an instance with {@link #NOISE} on its numeric values and {@link #RESAMPLING} of its nominal values.
+     */
+    private static Instance perturb(Instances instances, Instance instance, double[] deviations, Random random) {
+        double[] values = instance.toDoubleArray();
+        for (int i = 0; i < values.length; i++) {
+            Attribute attribute = instances.attribute(i);
+            if (i == instances.classIndex() || instance.isMissing(i))
+                continue;
+            if (attribute.isNumeric())
+                values[i] += random.nextGaussian() * NOISE * deviations[i];
+            else if (attribute.isNominal() && random.nextDouble() < RESAMPLING)
+                values[i] = random.nextInt(attribute.numValues());
+        }
+        return new DenseInstance(instance.weight(), values);
+    }
+
+    /**
+     * Converts instances to the rows learned by {@link NearestNeighbor}: {@link Double} values for numeric attributes
+     * and the value names for nominal attributes, as {@link weka.classifiers.lazy.keNN} passes them.
+     *
+     * @param instances the instances
+     * @return one row per instance
+     */
+    static List<List<Object>> rows(Instances instances) {
+        List<List<Object>> rows = new ArrayList<List<Object>>(instances.numInstances());
+        for (Instance instance : instances) {
+            List<Object> row = new ArrayList<Object>(instance.numAttributes());
+            for (int i = 0; i < instance.numAttributes(); i++) {
+                row.add(instance.attribute(i).isNumeric() ? (Object) instance.value(i) : instance.stringValue(i));
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * Picks test instances spread over the data set and perturbs them like the copies of a scaled data set, so a query
+     * is not a training instance and its nearest neighbor is not found at distance 0. The bundled data sets are too
+     * small to hold enough test instances out of the training set. contact-lenses is the exception: its instances hold
+     * every combination of its nominal values, so every query still has a neighbor at distance 0.
+     *
+     * @param instances the training instances
+     * @param count the number of test instances
+     * @return the test instances as rows
+     */
+    static List<List<Object>> queries(Instances instances, int count) {
+        double[] deviations = deviations(instances);
+        //a seed of its own, so the noise differs from the one of the scaled copies
+        Random random = new Random(SEED + 1);
+        Instances queries = new Instances(instances, count);
+        for (int i = 0; i < count; i++) {
+            Instance instance = instances.instance(random.nextInt(instances.numInstances()));
+            queries.add(perturb(instances, instance, deviations, random));
+        }
+        return rows(queries);
+    }
+}
@@ -0,0 +1,59 @@
+package tud.ke.ml.project.classifier;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import weka.classifiers.lazy.keNN;
+import weka.core.Instances;
+import weka.core.SelectedTag;
+
+/**
+ * Time of {@link keNN#buildClassifier(Instances)}. The linear scan builds no index, so the time is the one of
+ * converting and storing the instances and computing the normalization; k and the metric do not affect it. Index
+ * construction is compared by overriding the search method, e.g. <code>-p searchMethod=0,2,6</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class BuildBenchmark {
+
+    @Param({ "credit-g", "contact-lenses" })
+    public String dataset;
+
+    @Param({ "1", "10", "100", "1000" })
+    public int scale;
+
+    @Param({ "0" })
+    public int searchMethod;
+
+    private Instances instances;
+    private keNN classifier;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        instances = BenchmarkData.load(dataset, scale);
+        classifier = new keNN();
+        classifier.setSearchMethod(new SelectedTag(searchMethod, keNN.TAGS_SEARCH));
+    }
+
+    @Benchmark
+    public keNN buildClassifier() throws Exception {
+        classifier.buildClassifier(instances);
+        return classifier;
+    }
+}
@@ -0,0 +1,84 @@
+package tud.ke.ml.project.classifier;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tud.ke.ml.project.classifier.store.EncodedInstance;
+import weka.core.Instances;
+
+/**
+ * Time of the two distance methods of {@link NearestNeighbor}, for one test instance against every stored row. The
+ * metric is fixed by the method; k does not affect a single distance.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DistanceBenchmark {
+    static final int QUERIES = 64;
+
+    @Param({ "credit-g", "contact-lenses" })
+    public String dataset;
+
+    @Param({ "1", "10", "100", "1000" })
+    public int scale;
+
+    @Param({ "false", "true" })
+    public boolean normalize;
+
+    private NearestNeighbor classifier;
+    private EncodedInstance[] queries;
+    private int size;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        classifier = new NearestNeighbor();
+        classifier.setNormalizing(normalize);
+        Instances instances = BenchmarkData.load(dataset, scale);
+        List<List<Object>> rows = BenchmarkData.rows(instances);
+        classifier.learnModel(rows, rows.get(0).size() - 1);
+        ModelSnapshot model = classifier.getSnapshot();
+        size = model.size();
+        queries = new EncodedInstance[QUERIES];
+        List<List<Object>> testRows = BenchmarkData.queries(instances, QUERIES);
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = model.encode(testRows.get(i), normalize);
+        }
+    }
+
+    @Benchmark
+    public double determineManhattanDistance() {
+        EncodedInstance query = queries[next = (next + 1) % QUERIES];
+        double sum = 0;
+        for (int row = 0; row < size; row++) {
+            sum += classifier.determineManhattanDistance(row, query);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double determineEuclideanDistance() {
+        EncodedInstance query = queries[next = (next + 1) % QUERIES];
+        double sum = 0;
+        for (int row = 0; row < size; row++) {
+            sum += classifier.determineEuclideanDistance(row, query);
+        }
+        return sum;
+    }
+}
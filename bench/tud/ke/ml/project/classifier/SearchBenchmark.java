@@ -0,0 +1,76 @@
+package tud.ke.ml.project.classifier;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tud.ke.ml.project.util.Pair;
+import weka.core.Instances;
+
+/**
+ * Time of {@link NearestNeighbor#getNearest(List)} for one test instance, for every combination of metric,
+ * normalization and k. The search method defaults to the linear scan; other engines are compared by overriding the
+ * parameter, e.g. <code>-p searchMethod=0,2,6</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SearchBenchmark {
+    static final int QUERIES = 64;
+
+    @Param({ "credit-g", "contact-lenses" })
+    public String dataset;
+
+    @Param({ "1", "10", "100", "1000" })
+    public int scale;
+
+    @Param({ "0", "1" })
+    public int metric;
+
+    @Param({ "false", "true" })
+    public boolean normalize;
+
+    @Param({ "1", "5", "20" })
+    public int k;
+
+    @Param({ "0" })
+    public int searchMethod;
+
+    private NearestNeighbor classifier;
+    private List<List<Object>> queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        classifier = new NearestNeighbor();
+        classifier.setMetric(metric);
+        classifier.setNormalizing(normalize);
+        classifier.setkNearest(k);
+        classifier.setSearchMethod(searchMethod);
+        Instances instances = BenchmarkData.load(dataset, scale);
+        List<List<Object>> rows = BenchmarkData.rows(instances);
+        classifier.learnModel(rows, rows.get(0).size() - 1);
+        queries = BenchmarkData.queries(instances, QUERIES);
+    }
+
+    @Benchmark
+    public List<Pair<List<Object>, Double>> getNearest() {
+        next = (next + 1) % QUERIES;
+        return classifier.getNearest(queries.get(next));
+    }
+}
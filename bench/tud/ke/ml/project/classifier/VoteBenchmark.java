@@ -0,0 +1,82 @@
+package tud.ke.ml.project.classifier;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tud.ke.ml.project.util.Pair;
+import weka.core.Instances;
+
+/**
+ * Time of counting the votes of the k nearest neighbors of one test instance, for every combination of metric,
+ * normalization and k. The neighbors are searched once in the setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class VoteBenchmark {
+    static final int QUERIES = 64;
+
+    @Param({ "credit-g", "contact-lenses" })
+    public String dataset;
+
+    @Param({ "1", "10", "100", "1000" })
+    public int scale;
+
+    @Param({ "0", "1" })
+    public int metric;
+
+    @Param({ "false", "true" })
+    public boolean normalize;
+
+    @Param({ "1", "5", "20" })
+    public int k;
+
+    private NearestNeighbor classifier;
+    private List<List<Pair<List<Object>, Double>>> neighbors;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        classifier = new NearestNeighbor();
+        classifier.setMetric(metric);
+        classifier.setNormalizing(normalize);
+        classifier.setkNearest(k);
+        Instances instances = BenchmarkData.load(dataset, scale);
+        List<List<Object>> rows = BenchmarkData.rows(instances);
+        classifier.learnModel(rows, rows.get(0).size() - 1);
+        neighbors = new ArrayList<List<Pair<List<Object>, Double>>>(QUERIES);
+        for (List<Object> query : BenchmarkData.queries(instances, QUERIES)) {
+            neighbors.add(classifier.getNearest(query));
+        }
+    }
+
+    @Benchmark
+    public Map<Object, Double> getUnweightedVotes() {
+        next = (next + 1) % QUERIES;
+        return classifier.getUnweightedVotes(neighbors.get(next));
+    }
+
+    @Benchmark
+    public Map<Object, Double> getWeightedVotes() {
+        next = (next + 1) % QUERIES;
+        return classifier.getWeightedVotes(neighbors.get(next));
+    }
+}
@@ -0,0 +1,315 @@
+package tud.ke.ml.project.classifier;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+
+import tud.ke.ml.project.classifier.search.NeighborHeap;
+import tud.ke.ml.project.classifier.search.RowDistance;
+import tud.ke.ml.project.classifier.store.EncodedInstance;
+import tud.ke.ml.project.classifier.store.ValueDictionary;
+
+/**
+ * Prototype selection applied to the training set before the model is built, see
+ * {@link NearestNeighbor#setCondensation(int)}, and the report of its effect.
+ *
+ * <ul>
+ * <li>Condensed NN (Hart) keeps a consistent subset: starting with the first instance, every instance misclassified by
+ * its nearest kept instance is added, in passes over the training set until no instance is added.</li>
+ * <li>Edited NN (Wilson) removes every instance whose class differs from the majority of its k nearest neighbors.</li>
+ * <li>Iterative Case Filtering (Brighton and Mellish) starts from the edited set and removes, in rounds, every instance
+ * whose local set (the instances closer than its nearest enemy, i.e. nearest instance of another class) is larger than
+ * the number of local sets it belongs to.</li>
+ * </ul>
+ *
+ * All neighbors are found with the search method of the classifier. Edited NN and ICF search the full model and skip
+ * the removed rows, Condensed NN searches a growing model of the kept instances that is updated incrementally. Local
+ * sets are cut off at {@link #LOCAL_SET_LIMIT} instances, so a round of ICF costs one bounded search per instance.
+ */
+public final class Condensation implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The largest local set considered by Iterative Case Filtering.
+     */
+    public static final int LOCAL_SET_LIMIT = 256;
+
+    private final int method;
+    private final int originalSize;
+    private final int condensedSize;
+    private final double accuracyBefore;
+    private final double accuracyAfter;
+
+    private Condensation(int method, int originalSize, int condensedSize, double accuracyBefore, double accuracyAfter) {
+        this.method = method;
+        this.originalSize = originalSize;
+        this.condensedSize = condensedSize;
+        this.accuracyBefore = accuracyBefore;
+        this.accuracyAfter = accuracyAfter;
+    }
+
+    /**
+     * Selects the rows to remove from a model.
+     *
+     * @param model the model of the full training set, not compressed
+     * @param settings the classifier whose condensation method, k, metric and normalization are used
+     * @return per row true if the row is removed; at least one row is kept
+     */
+    static boolean[] select(ModelSnapshot model, NearestNeighbor settings) {
+        boolean[] removed;
+        switch (settings.getCondensation()) {
+        case NearestNeighbor.CONDENSE_CNN:
+            removed = condensedNearestNeighbor(model, settings);
+            break;
+        case NearestNeighbor.CONDENSE_ENN:
+            removed = editedNearestNeighbor(model, settings);
+            break;
+        case NearestNeighbor.CONDENSE_ICF:
+            removed = iterativeCaseFiltering(model, settings);
+            break;
+        default:
+            removed = new boolean[model.size()];
+        }
+        for (boolean r : removed) {
+            if (!r)
+                return removed;
+        }
+        //editing removed everything, e.g. because every instance is surrounded by other classes
+        return new boolean[model.size()];
+    }
+
+    /**
+     * Compares the leave-one-out accuracy on the training set of the full and the condensed model. Both are measured
+     * with an unweighted majority vote of the k nearest neighbors; an instance kept in a model is left out of the
+     * search for itself.
+     *
+     * @param model the model of the full training set
+     * @param condensed the model of the rows that were not removed
+     * @param removed per row of the full model true if the row was removed
+     * @param settings the classifier whose condensation method, k, metric and normalization are used
+     * @return the report
+     */
+    static Condensation report(ModelSnapshot model, ModelSnapshot condensed, boolean[] removed, NearestNeighbor settings) {
+        int k = settings.getkNearest();
+        boolean normalize = settings.isNormalizing();
+        int[] classData = model.getStore().getClassData();
+        int correctBefore = 0, correctAfter = 0;
+        int kept = 0;
+        RowDistance rows = model.distance(settings.getMetric(), normalize, NearestNeighbor.KERNEL_SCALAR);
+        for (int row = 0; row < model.size(); row++) {
+            if (vote(model, neighbors(model, rows.encode(row), row, k, settings)) == classData[row])
+                correctBefore++;
+            EncodedInstance query = condensed.encode(model.row(row), normalize);
+            if (vote(condensed, neighbors(condensed, query, removed[row] ? -1 : kept, k, settings)) == classData[row])
+                correctAfter++;
+            if (!removed[row])
+                kept++;
+        }
+        return new Condensation(settings.getCondensation(), model.size(), condensed.size(),
+                (double) correctBefore / model.size(), (double) correctAfter / model.size());
+    }
+
+    private static boolean[] condensedNearestNeighbor(ModelSnapshot model, NearestNeighbor settings) {
+        int size = model.size();
+        int[] classData = model.getStore().getClassData();
+        boolean[] removed = new boolean[size];
+        Arrays.fill(removed, 1, size, true);
+        //queries and kept instances share the normalization of the full model
+        RowDistance rows = model.distance(settings.getMetric(), settings.isNormalizing(), NearestNeighbor.KERNEL_SCALAR);
+        ModelSnapshot kept = model.subset(row -> removed[row], settings);
+
+        boolean added = true;
+        while (added) {
+            added = false;
+            for (int row = 0; row < size; row++) {
+                if (!removed[row])
+                    continue;
+                if (vote(kept, neighbors(kept, rows.encode(row), -1, 1, settings)) == classData[row])
+                    continue;
+                removed[row] = false;
+                added = true;
+                kept = kept.withInstance(model.row(row));
+                if (kept.needsCompaction())
+                    kept = model.subset(r -> removed[r], settings);
+            }
+        }
+        return removed;
+    }
+
+    private static boolean[] editedNearestNeighbor(ModelSnapshot model, NearestNeighbor settings) {
+        int size = model.size();
+        int[] classData = model.getStore().getClassData();
+        boolean[] removed = new boolean[size];
+        RowDistance rows = model.distance(settings.getMetric(), settings.isNormalizing(), NearestNeighbor.KERNEL_SCALAR);
+        for (int row = 0; row < size; row++) {
+            int[] neighbors = neighbors(model, rows.encode(row), row, settings.getkNearest(), settings);
+            removed[row] = vote(model, neighbors) != classData[row];
+        }
+        return removed;
+    }
+
+    private static boolean[] iterativeCaseFiltering(ModelSnapshot model, NearestNeighbor settings) {
+        int size = model.size();
+        int[] classData = model.getStore().getClassData();
+        boolean[] removed = editedNearestNeighbor(model, settings);
+        RowDistance rows = model.distance(settings.getMetric(), settings.isNormalizing(), NearestNeighbor.KERNEL_SCALAR);
+        //the rows of the full model keep their numbers, removed rows are only skipped by the search
+        ModelSnapshot remaining = model;
+        for (int row = 0; row < size; row++) {
+            if (removed[row])
+                remaining = remaining.withoutRow(row, false);
+        }
+
+        while (true) {
+            int[] reachable = new int[size];
+            int[] coverage = new int[size];
+            for (int row = 0; row < size; row++) {
+                if (removed[row])
+                    continue;
+                int[] localSet = localSet(remaining, rows.encode(row), row, classData, settings);
+                reachable[row] = localSet.length;
+                for (int member : localSet) {
+                    coverage[member]++;
+                }
+            }
+            boolean filtered = false;
+            for (int row = 0; row < size; row++) {
+                if (!removed[row] && reachable[row] > coverage[row] && remaining.remaining() > 1) {
+                    removed[row] = true;
+                    remaining = remaining.withoutRow(row, false);
+                    filtered = true;
+                }
+            }
+            if (!filtered)
+                return removed;
+        }
+    }
+
+    /**
+     * The remaining rows closer to a row than its nearest enemy, at most {@link #LOCAL_SET_LIMIT}. The search is
+     * widened until an enemy is found, the limit is reached or all rows were seen.
+     */
+    private static int[] localSet(ModelSnapshot model, EncodedInstance query, int self, int[] classData,
+            NearestNeighbor settings) {
+        for (int k = 16;; k = Math.min(2 * k, LOCAL_SET_LIMIT)) {
+            NeighborHeap nearest = new NeighborHeap(k + 1);
+            model.search(query, settings.getMetric(), settings.isNormalizing(), NearestNeighbor.KERNEL_SCALAR,
+                    Math.max(settings.getEfSearch(), k + 1), nearest);
+            int[] rows = nearest.rows();
+            double[] distances = nearest.distances();
+            int[] members = new int[rows.length];
+            double[] memberDistances = new double[rows.length];
+            int count = 0;
+            for (int i = 0; i < rows.length; i++) {
+                if (rows[i] == self)
+                    continue;
+                if (classData[rows[i]] != classData[self]) {
+                    //members at the distance of the enemy are not closer than it
+                    int closer = 0;
+                    while (closer < count && memberDistances[closer] < distances[i]) {
+                        closer++;
+                    }
+                    return Arrays.copyOf(members, closer);
+                }
+                members[count] = rows[i];
+                memberDistances[count++] = distances[i];
+            }
+            if (rows.length < k + 1 || k >= LOCAL_SET_LIMIT)
+                return Arrays.copyOf(members, Math.min(count, LOCAL_SET_LIMIT));
+        }
+    }
+
+    /**
+     * The rows of the k nearest neighbors of a query, including ties at the k-th distance, in order of distance.
+     *
+     * @param self the row of the query, which is left out, or -1
+     */
+    private static int[] neighbors(ModelSnapshot model, EncodedInstance query, int self, int k, NearestNeighbor settings) {
+        NeighborHeap nearest = new NeighborHeap(self < 0 ? k : k + 1);
+        model.search(query, settings.getMetric(), settings.isNormalizing(), NearestNeighbor.KERNEL_SCALAR,
+                settings.getEfSearch(), nearest);
+        int[] rows = nearest.rows();
+        for (int i = 0; i < rows.length; i++) {
+            if (rows[i] == self) {
+                System.arraycopy(rows, i + 1, rows, i, rows.length - i - 1);
+                return Arrays.copyOf(rows, rows.length - 1);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * @return the class code with the most votes of the rows; of tied classes the one with the most instances in the
+     *         model, like {@link NearestNeighbor#getWinner(java.util.Map)}
+     */
+    private static int vote(ModelSnapshot model, int[] rows) {
+        int[] classData = model.getStore().getClassData();
+        ValueDictionary classes = model.getStore().getClassDictionary();
+        int[] votes = new int[classes.size()];
+        for (int row : rows) {
+            votes[classData[row]]++;
+        }
+        Map<Object, Integer> classCounts = model.getClassCounts();
+        int winner = -1, winnerCount = -1;
+        for (int classCode = 0; classCode < votes.length; classCode++) {
+            if (votes[classCode] == 0 || winner >= 0 && votes[classCode] < votes[winner])
+                continue;
+            int count = classCounts.getOrDefault(classes.decode(classCode), 0);
+            if (winner < 0 || votes[classCode] > votes[winner] || count > winnerCount) {
+                winner = classCode;
+                winnerCount = count;
+            }
+        }
+        return winner;
+    }
+
+    /**
+     * @return the condensation method, e.g. {@link NearestNeighbor#CONDENSE_ICF}
+     */
+    public int getMethod() {
+        return method;
+    }
+
+    /**
+     * @return the number of training instances before condensation
+     */
+    public int getOriginalSize() {
+        return originalSize;
+    }
+
+    /**
+     * @return the number of training instances kept in the model
+     */
+    public int getCondensedSize() {
+        return condensedSize;
+    }
+
+    /**
+     * @return the fraction of training instances removed
+     */
+    public double getReductionRatio() {
+        return 1 - (double) condensedSize / originalSize;
+    }
+
+    /**
+     * @return the leave-one-out accuracy on the training set of the model of all instances
+     */
+    public double getAccuracyBefore() {
+        return accuracyBefore;
+    }
+
+    /**
+     * @return the accuracy on the training set of the condensed model, leaving out the kept instances themselves
+     */
+    public double getAccuracyAfter() {
+        return accuracyAfter;
+    }
+
+    @Override
+    public String toString() {
+        String[] names = { "none", "Condensed NN", "Edited NN", "Iterative Case Filtering" };
+        return String.format(Locale.ROOT, "%s kept %d of %d training instances (%.1f%% removed), training accuracy %.2f%% -> %.2f%%",
+                names[method], condensedSize, originalSize, 100 * getReductionRatio(), 100 * accuracyBefore, 100 * accuracyAfter);
+    }
+}
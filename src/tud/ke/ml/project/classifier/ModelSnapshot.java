@@ -0,0 +1,660 @@
+package tud.ke.ml.project.classifier;
+
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+
+import tud.ke.ml.project.classifier.search.ClusterIndex;
+import tud.ke.ml.project.classifier.search.HNSWIndex;
+import tud.ke.ml.project.classifier.search.KDTree;
+import tud.ke.ml.project.classifier.search.LSHIndex;
+import tud.ke.ml.project.classifier.search.MappedDistance;
+import tud.ke.ml.project.classifier.search.NeighborHeap;
+import tud.ke.ml.project.classifier.search.PQIndex;
+import tud.ke.ml.project.classifier.search.RowDistance;
+import tud.ke.ml.project.classifier.search.SearchIndex;
+import tud.ke.ml.project.classifier.search.StoreDistance;
+import tud.ke.ml.project.classifier.search.VPTree;
+import tud.ke.ml.project.classifier.store.ColumnarStore;
+import tud.ke.ml.project.classifier.store.EncodedInstance;
+import tud.ke.ml.project.classifier.store.MappedStore;
+import tud.ke.ml.project.classifier.store.NominalBitset;
+import tud.ke.ml.project.classifier.store.NumericRange;
+import tud.ke.ml.project.classifier.store.RowLookup;
+
+/**
+ * The trained state of a {@link NearestNeighbor}: the stored instances, the normalization, the class counts and the
+ * search index.
+ * 
+ * A snapshot is never modified after construction, so any number of threads can classify against it without locking.
+ * Learning a new model creates a new snapshot instead of changing the current one.
+ * 
+ * A compressed snapshot keeps only the product-quantized codes of the numeric attributes. It can only be searched
+ * with the metric and normalization it was learned with, and its neighbors have no numeric values.
+ * 
+ * A mapped snapshot reads the instances from a {@link MappedStore} instead of the heap. It is searched linearly or
+ * with an index built on row distances (VP-tree, HNSW); the other search methods fall back to the linear scan.
+ * 
+ * Adding or removing a single instance derives a new snapshot that shares the blocks of this one (see
+ * {@link #withInstance(List)} and {@link #withoutRow(int, boolean)}). Added rows are searched linearly next to the
+ * index; removed rows stay in the blocks and are skipped by every search. Once these pending changes grow too large,
+ * {@link #compact(NearestNeighbor)} builds the snapshot again from the remaining rows. The minimum and maximum of every
+ * numeric column follow the remaining rows on every change, so the normalization is always the one a snapshot built
+ * from the remaining rows would have. As long as a change stays within the current range, it costs amortized O(1);
+ * otherwise only the translation and scaling are computed again, which costs O(d) in the number of numeric columns:
+ * from then on the distance kernel normalizes the raw block on access instead of reading the normalized block, and an
+ * index built on normalized values is not used until the next compaction rebuilds it. Rows to remove are found by a
+ * hash table of the row values, see {@link RowLookup}.
+ */
+public final class ModelSnapshot implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Number of queries searched together by {@link #searchBlocked(EncodedInstance[], int, boolean, int, NeighborHeap[])}.
+     */
+    public static final int QUERY_TILE = 64;
+    // bytes of training data per row tile, small enough to stay in the L2 cache
+    private static final int ROW_TILE_BYTES = 128 * 1024;
+    // pending changes are compacted once they exceed this number or one in PENDING_FRACTION remaining rows
+    private static final int MIN_PENDING = 1024;
+    private static final int PENDING_FRACTION = 8;
+    // the Vector API kernel, compiled from the optional vector source folder; null if it is not on the class path or
+    // jdk.incubator.vector is not loaded
+    private static final Constructor<? extends StoreDistance> VECTORIZED_KERNEL = vectorizedKernel();
+
+    //store and normalized block are only replaced in the constructor when the model is compressed
+    private ColumnarStore store;
+    //null for a model on the heap; otherwise store only holds the layout and the dictionaries
+    private final MappedStore mapped;
+    //the normalization is derived from the range
+    private final NumericRange range;
+    private final double[] translation;
+    private final double[] scaling;
+    //numeric block of the store with translation and scaling already applied; null once the normalization changed
+    //since the index was built, the kernel then normalizes the raw block
+    private double[] normalizedNumericData;
+    //one-hot packed nominal block of the rows up to its size; null for a mapped model or if packing does not pay off
+    private final NominalBitset nominalBits;
+    private final Map<Object, Integer> classCounts;
+    //null if the model is searched by a linear scan
+    private final SearchIndex index;
+    //rows from indexedSize on were added after the index was built and are searched linearly
+    private final int indexedSize;
+    //per row the version of the snapshot that removed it, 0 for remaining rows; null if no row was removed. Shared
+    //with the snapshots this one was derived from, which only see removals up to their own version
+    private final int[] removedIn;
+    private final int version;
+    private final int removedCount;
+    //true if the normalization changed since the index was built
+    private final boolean rescaled;
+    //finds the rows to remove; built on the first lookup and shared with the snapshots derived from this one
+    private RowLookup rowLookup;
+
+    /**
+     * Creates the snapshot of a store. The store must not be modified afterwards.
+     * 
+     * @param store the training instances
+     * @param settings the classifier whose search method, metric and normalization the index is built for
+     */
+    ModelSnapshot(ColumnarStore store, NearestNeighbor settings) {
+        this(store, settings, NumericRange.of(store), settings.isCompressed());
+    }
+
+    /**
+     * Creates the snapshot of a store with a given normalization. The store must not be modified afterwards.
+     * 
+     * @param store the training instances
+     * @param settings the classifier whose search method, metric and normalization the index is built for
+     * @param range the range of the numeric columns, normalized to 0 and 1
+     * @param compress true to drop the numeric block if the index is product-quantized and the settings ask for it
+     */
+    ModelSnapshot(ColumnarStore store, NearestNeighbor settings, NumericRange range, boolean compress) {
+        this.store = store;
+        this.mapped = null;
+        int[] classData = store.getClassData();
+        this.classCounts = countClasses(store, store.size(), row -> classData[row]);
+
+        this.range = range;
+        double[][] translationScaling = normalizationScaling(store, range.getMinimum(), range.getMaximum());
+        this.translation = translationScaling[0];
+        this.scaling = translationScaling[1];
+        this.normalizedNumericData = store.scaledNumericData(translation, scaling);
+        this.nominalBits = NominalBitset.of(store);
+        this.index = buildIndex(settings);
+        this.indexedSize = size();
+        this.removedIn = null;
+        this.version = 0;
+        this.removedCount = 0;
+        this.rescaled = false;
+
+        if (compress && index instanceof PQIndex) {
+            this.store = store.withoutNumericData();
+            this.normalizedNumericData = new double[0];
+        }
+    }
+
+    /**
+     * Creates the snapshot of a file-backed store.
+     * 
+     * @param mapped the training instances
+     * @param settings the classifier whose search method, metric and normalization the index is built for
+     */
+    ModelSnapshot(MappedStore mapped, NearestNeighbor settings) {
+        this.store = mapped.getLayout();
+        this.mapped = mapped;
+        this.classCounts = countClasses(store, mapped.size(), mapped::classCode);
+
+        double[] minimum = new double[store.getNumNumeric()];
+        double[] maximum = new double[store.getNumNumeric()];
+        for (int c = 0; c < minimum.length; c++) {
+            minimum[c] = mapped.getMinimum(c);
+            maximum[c] = mapped.getMaximum(c);
+        }
+        //the layout holds no rows, so no extremes are counted; a mapped model is never updated
+        this.range = NumericRange.of(store, minimum, maximum);
+        double[][] translationScaling = normalizationScaling(store, minimum, maximum);
+        this.translation = translationScaling[0];
+        this.scaling = translationScaling[1];
+        this.normalizedNumericData = new double[0];
+        this.nominalBits = null;
+        this.index = buildIndex(settings);
+        this.indexedSize = size();
+        this.removedIn = null;
+        this.version = 0;
+        this.removedCount = 0;
+        this.rescaled = false;
+    }
+
+    /**
+     * Restores a snapshot from its parts, e.g. when loading a saved model.
+     */
+    ModelSnapshot(ColumnarStore store, MappedStore mapped, double[] minimum, double[] maximum,
+            double[] normalizedNumericData, Map<Object, Integer> classCounts, SearchIndex index) {
+        this.store = store;
+        this.mapped = mapped;
+        this.range = NumericRange.of(store, minimum, maximum);
+        double[][] translationScaling = normalizationScaling(store, minimum, maximum);
+        this.translation = translationScaling[0];
+        this.scaling = translationScaling[1];
+        this.normalizedNumericData = normalizedNumericData;
+        this.nominalBits = mapped == null ? NominalBitset.of(store) : null;
+        this.classCounts = Collections.unmodifiableMap(classCounts);
+        this.index = index;
+        this.indexedSize = size();
+        this.removedIn = null;
+        this.version = 0;
+        this.removedCount = 0;
+        this.rescaled = false;
+    }
+
+    /**
+     * Derives a snapshot with added or removed rows from another one, sharing its index. The normalization is shared
+     * as well unless the range changed.
+     */
+    private ModelSnapshot(ModelSnapshot base, ColumnarStore store, NumericRange range, double[] normalizedNumericData,
+            Map<Object, Integer> classCounts, int[] removedIn, int version, int removedCount, RowLookup rowLookup) {
+        this.store = store;
+        this.mapped = null;
+        this.range = range;
+        boolean rescaled = !range.hasSameBounds(base.range);
+        if (rescaled) {
+            double[][] translationScaling = normalizationScaling(store, range.getMinimum(), range.getMaximum());
+            this.translation = translationScaling[0];
+            this.scaling = translationScaling[1];
+        } else {
+            this.translation = base.translation;
+            this.scaling = base.scaling;
+        }
+        this.normalizedNumericData = normalizedNumericData;
+        this.nominalBits = base.nominalBits;
+        this.classCounts = Collections.unmodifiableMap(classCounts);
+        this.index = base.index;
+        this.indexedSize = base.indexedSize;
+        this.removedIn = removedIn;
+        this.version = version;
+        this.removedCount = removedCount;
+        this.rescaled = base.rescaled || rescaled;
+        this.rowLookup = rowLookup;
+    }
+
+    private static Map<Object, Integer> countClasses(ColumnarStore store, int size, IntUnaryOperator classCode) {
+        Map<Object, Integer> classCounts = new HashMap<>();
+        for (int row = 0; row < size; row++) {
+            Object classValue = store.getClassDictionary().decode(classCode.applyAsInt(row));
+            Integer count = classCounts.get(classValue);
+            classCounts.put(classValue, count == null ? 1 : count + 1);
+        }
+        return Collections.unmodifiableMap(classCounts);
+    }
+
+    private SearchIndex buildIndex(NearestNeighbor settings) {
+        int searchMethod = settings.getSearchMethod();
+        int metric = settings.getMetric();
+        boolean normalize = settings.isNormalizing();
+        if (searchMethod == NearestNeighbor.SEARCH_VPTREE)
+            return new VPTree(size(), distance(metric, normalize, NearestNeighbor.KERNEL_SCALAR), normalize);
+        if (searchMethod == NearestNeighbor.SEARCH_HNSW)
+            return new HNSWIndex(size(), distance(metric, normalize, NearestNeighbor.KERNEL_SCALAR), normalize,
+                    settings.getMaxLinks(), settings.getEfConstruction(), settings.getEfSearch());
+        if (searchMethod == NearestNeighbor.SEARCH_CLUSTER)
+            return new ClusterIndex(size(), distance(metric, normalize, NearestNeighbor.KERNEL_SCALAR), normalize,
+                    settings.getClusters());
+        //the other indexes read the numeric block from the heap
+        if (mapped != null)
+            return null;
+        if (searchMethod == NearestNeighbor.SEARCH_KDTREE && store.getNumNominal() == 0)
+            return new KDTree(numericData(normalize), store.getNumNumeric(), store.size(), normalize);
+        if (searchMethod == NearestNeighbor.SEARCH_LSH)
+            return new LSHIndex(store, numericData(normalize), metric, normalize, settings.getHashTables(), settings.getProbes());
+        if (searchMethod == NearestNeighbor.SEARCH_PQ)
+            return new PQIndex(store, numericData(normalize), metric, normalize, settings.getSubquantizers(),
+                    settings.isCompressed() ? 0 : settings.getRerank());
+        return null;
+    }
+
+    /**
+     * Calculates the translation (minimum) and scaling (range) of every numeric attribute. Other attributes get
+     * translation 0 and scaling 1.
+     * 
+     * @param store the store describing the layout
+     * @param minimum the minimum per numeric column
+     * @param maximum the maximum per numeric column
+     * @return [[translation],[scaling]], indexed by attribute
+     */
+    static double[][] normalizationScaling(ColumnarStore store, double[] minimum, double[] maximum) {
+        double[][] translationScalation = new double[2][store.getNumAttributes()];
+        Arrays.fill(translationScalation[1], 1d);
+        for (int c = 0; c < minimum.length; c++) {
+            int attribute = store.getNumericAttribute(c);
+            translationScalation[0][attribute] = minimum[c];
+            translationScalation[1][attribute] = maximum[c] - minimum[c];
+            if (translationScalation[1][attribute] == 0d) {
+                translationScalation[1][attribute] = 1d;
+            }
+        }
+        return translationScalation;
+    }
+
+    /**
+     * Encodes a test instance, scaling its numeric values if requested.
+     * 
+     * @param instance the test instance
+     * @param normalize true if the numeric values are to be normalized
+     * @return the encoded instance
+     */
+    public EncodedInstance encode(List<Object> instance, boolean normalize) {
+        EncodedInstance encoded = store.encode(instance);
+        if (normalize) {
+            double[] numeric = encoded.getNumeric();
+            for (int c = 0; c < numeric.length; c++) {
+                int attribute = store.getNumericAttribute(c);
+                numeric[c] = (numeric[c] - translation[attribute]) / scaling[attribute];
+            }
+        }
+        return encoded;
+    }
+
+    /**
+     * Offers the nearest neighbors of the query to the heap, using the index if it supports the configuration and a
+     * linear scan otherwise.
+     * 
+     * @param query the encoded query
+     * @param metric 0 for Manhattan, 1 for Euclidean
+     * @param normalize true if the query was normalized
+     * @param kernel the distance kernel, e.g. {@link NearestNeighbor#KERNEL_VECTORIZED}
+     * @param breadth the number of candidates an approximate index keeps while searching, e.g. efSearch of HNSW
+     * @param nearest the heap collecting the nearest neighbors
+     */
+    public void search(EncodedInstance query, int metric, boolean normalize, int kernel, int breadth, NeighborHeap nearest) {
+        RowDistance distance = distance(metric, normalize, kernel);
+        nearest.setExcluded(removedCount > 0 ? this::isRemoved : null);
+        int from = 0;
+        if (isIndexed(metric, normalize)) {
+            index.search(query, distance, nearest, breadth);
+            from = indexedSize;
+        } else {
+            checkNumericData();
+        }
+        for (int row = from; row < size(); row++) {
+            nearest.offer(row, distance.distance(row, query, nearest.threshold()));
+        }
+    }
+
+    private void checkNumericData() {
+        if (!store.hasNumericData() && store.getNumNumeric() > 0)
+            throw new IllegalStateException("a compressed model can only be searched with the metric and normalization it was learned with");
+    }
+
+    /**
+     * @param metric 0 for Manhattan, 1 for Euclidean
+     * @param normalize true if the queries are normalized
+     * @return true if {@link #search(EncodedInstance, int, boolean, int, int, NeighborHeap)} uses the index
+     */
+    public boolean isIndexed(int metric, boolean normalize) {
+        return index != null && index.supports(metric, normalize) && !(normalize && rescaled);
+    }
+
+    /**
+     * Linear scan for several queries at once. The training rows are processed in tiles that fit into the cache and
+     * every tile is compared with all queries before the next one is loaded, so the training data is streamed from
+     * memory once per call instead of once per query. Pass at most about {@link #QUERY_TILE} queries so their heaps
+     * stay in the cache as well.
+     * 
+     * @param queries the encoded queries
+     * @param metric 0 for Manhattan, 1 for Euclidean
+     * @param normalize true if the queries were normalized
+     * @param kernel the distance kernel, e.g. {@link NearestNeighbor#KERNEL_VECTORIZED}
+     * @param nearest one heap per query collecting its nearest neighbors
+     */
+    public void searchBlocked(EncodedInstance[] queries, int metric, boolean normalize, int kernel, NeighborHeap[] nearest) {
+        checkNumericData();
+        RowDistance distance = distance(metric, normalize, kernel);
+        int rowBytes = 8 * store.getNumNumeric() + 4 * store.getNumNominal() + 4;
+        int rowTile = Math.max(64, ROW_TILE_BYTES / rowBytes);
+        for (NeighborHeap heap : nearest) {
+            heap.setExcluded(removedCount > 0 ? this::isRemoved : null);
+        }
+        for (int start = 0; start < size(); start += rowTile) {
+            int end = Math.min(size(), start + rowTile);
+            for (int q = 0; q < queries.length; q++) {
+                EncodedInstance query = queries[q];
+                NeighborHeap heap = nearest[q];
+                for (int row = start; row < end; row++) {
+                    heap.offer(row, distance.distance(row, query, heap.threshold()));
+                }
+            }
+        }
+    }
+
+    private void checkUpdatable() {
+        if (mapped != null || !store.hasNumericData())
+            throw new IllegalStateException("a mapped or compressed model cannot be updated");
+    }
+
+    /**
+     * Creates a snapshot holding one more training instance, without modifying this snapshot. The range of the numeric
+     * columns is extended to the values of the instance. Costs amortized O(1) in the number of training instances if
+     * the values lie within the range, see the class comment; only the most recent snapshot may be extended, see
+     * {@link ColumnarStore#append(List)}.
+     * 
+     * @param instance the instance, including its class value
+     * @return the snapshot with the added instance
+     */
+    ModelSnapshot withInstance(List<Object> instance) {
+        checkUpdatable();
+        ColumnarStore appended = store.append(instance);
+        int row = store.size();
+        int numNumeric = store.getNumNumeric();
+        double[] numericData = appended.getNumericData();
+        NumericRange range = this.range.with(appended, row);
+
+        double[] normalized = range.hasSameBounds(this.range) ? normalizedNumericData : null;
+        if (normalized != null) {
+            if (normalized.length < (row + 1) * numNumeric)
+                normalized = Arrays.copyOf(normalized, numericData.length);
+            for (int c = 0; c < numNumeric; c++) {
+                int attribute = store.getNumericAttribute(c);
+                normalized[row * numNumeric + c] = (numericData[row * numNumeric + c] - translation[attribute]) / scaling[attribute];
+            }
+        }
+
+        Map<Object, Integer> counts = new HashMap<>(classCounts);
+        counts.merge(instance.get(store.getClassAttribute()), 1, Integer::sum);
+        return new ModelSnapshot(this, appended, range, normalized, counts, removedIn, version, removedCount,
+                rowLookup == null ? null : rowLookup.append(appended));
+    }
+
+    /**
+     * Creates a snapshot without a training instance, without modifying this snapshot. The row is only marked as
+     * removed, which costs amortized O(1); only the most recent snapshot may be changed. If the row is the last one
+     * holding the minimum or maximum of a numeric column, the range of the column is computed again from the remaining
+     * rows, see {@link NumericRange}.
+     * 
+     * @param row a remaining row of this snapshot
+     * @param rescale false to keep the normalization, e.g. while selecting prototypes with the scaling of the full set
+     * @return the snapshot without the row
+     */
+    ModelSnapshot withoutRow(int row, boolean rescale) {
+        checkUpdatable();
+        int[] removed = removedIn;
+        if (removed == null || removed.length <= row)
+            removed = removed == null ? new int[store.getClassData().length] : Arrays.copyOf(removed, store.getClassData().length);
+        removed[row] = version + 1;
+
+        NumericRange range = this.range;
+        double[] normalized = normalizedNumericData;
+        if (rescale && removedCount + 1 < size()) {
+            int[] removedRows = removed;
+            range = range.without(store, row,
+                    r -> r < removedRows.length && removedRows[r] != 0 && removedRows[r] <= version + 1);
+        }
+        if (!range.hasSameBounds(this.range))
+            normalized = null;
+
+        Map<Object, Integer> counts = new HashMap<>(classCounts);
+        Object classValue = store.value(row, store.getClassAttribute());
+        if (counts.merge(classValue, -1, Integer::sum) == 0)
+            counts.remove(classValue);
+        return new ModelSnapshot(this, store, range, normalized, counts, removed, version + 1, removedCount + 1,
+                rowLookup);
+    }
+
+    /**
+     * Finds a remaining row holding exactly the given instance by a hash lookup, which costs O(1) in the number of
+     * training instances; the table is built with the first lookup and then extended with every added row.
+     * 
+     * @param instance the instance, including its class value
+     * @return the row or -1 if no remaining row holds the instance
+     */
+    int indexOf(List<Object> instance) {
+        checkUpdatable();
+        if (rowLookup == null)
+            rowLookup = RowLookup.of(store);
+        return rowLookup.find(store, instance, this::isRemoved);
+    }
+
+    /**
+     * @param row a row of the store
+     * @return true if the row was removed and is skipped by every search
+     */
+    public boolean isRemoved(int row) {
+        return removedIn != null && row < removedIn.length && removedIn[row] != 0 && removedIn[row] <= version;
+    }
+
+    /**
+     * @return the number of training instances without the removed rows
+     */
+    public int remaining() {
+        return size() - removedCount;
+    }
+
+    /**
+     * @return true if rows were added or removed since the snapshot was built
+     */
+    public boolean hasPendingChanges() {
+        return indexedSize < size() || removedCount > 0;
+    }
+
+    /**
+     * @return true if so many rows were added or removed that the snapshot should be compacted
+     */
+    public boolean needsCompaction() {
+        int pending = size() - indexedSize + removedCount;
+        return pending > Math.max(MIN_PENDING, remaining() / PENDING_FRACTION);
+    }
+
+    /**
+     * Builds the snapshot again from the remaining rows: the removed rows are dropped, the normalization is computed
+     * from the remaining rows and the index covers all of them. At least one row must remain. The compacted snapshot
+     * is not compressed, so it can still be updated.
+     * 
+     * @param settings the classifier whose search method, metric and normalization the index is built for
+     * @return the compacted snapshot
+     */
+    ModelSnapshot compact(NearestNeighbor settings) {
+        checkUpdatable();
+        ColumnarStore remaining = store.without(this::isRemoved);
+        return new ModelSnapshot(remaining, settings, NumericRange.of(remaining), false);
+    }
+
+    /**
+     * Builds a snapshot of some of the rows of this one that keeps the normalization of this snapshot, so the
+     * distances between the remaining rows do not change. The snapshot is not compressed, so it can be updated.
+     * 
+     * @param removed tells for every row whether it is left out
+     * @param settings the classifier whose search method, metric and normalization the index is built for
+     * @return the snapshot of the remaining rows
+     */
+    ModelSnapshot subset(IntPredicate removed, NearestNeighbor settings) {
+        return subset(removed, settings, false);
+    }
+
+    /**
+     * Builds a snapshot of some of the rows of this one that keeps the normalization of this snapshot.
+     * 
+     * @param removed tells for every row whether it is left out
+     * @param settings the classifier whose search method, metric and normalization the index is built for
+     * @param compress true to drop the numeric block if the index is product-quantized and the settings ask for it
+     * @return the snapshot of the remaining rows
+     */
+    ModelSnapshot subset(IntPredicate removed, NearestNeighbor settings, boolean compress) {
+        checkUpdatable();
+        ColumnarStore subset = store.without(removed);
+        NumericRange subsetRange = NumericRange.of(subset, range.getMinimum(), range.getMaximum());
+        return new ModelSnapshot(subset, settings, subsetRange, compress);
+    }
+
+    /**
+     * @param metric 0 for Manhattan, 1 for Euclidean
+     * @param normalize true for distances on normalized values
+     * @param kernel the distance kernel, e.g. {@link NearestNeighbor#KERNEL_VECTORIZED}, ignored by a mapped model
+     * @return the distance kernel
+     */
+    public RowDistance distance(int metric, boolean normalize, int kernel) {
+        if (mapped != null)
+            return normalize ? new MappedDistance(mapped, metric, translation, scaling) : new MappedDistance(mapped, metric, null, null);
+        if (normalize && normalizedNumericData == null)
+            return storeDistance(kernel, store.getNumericData(), metric, translation, scaling);
+        return storeDistance(kernel, numericData(normalize), metric, null, null);
+    }
+
+    private StoreDistance storeDistance(int kernel, double[] numericData, int metric, double[] translation,
+            double[] scaling) {
+        if (kernel == NearestNeighbor.KERNEL_VECTORIZED && VECTORIZED_KERNEL != null) {
+            try {
+                return VECTORIZED_KERNEL.newInstance(store, numericData, metric, nominalBits, translation, scaling);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("cannot create the vectorized distance kernel", e);
+            }
+        }
+        return new StoreDistance(store, numericData, metric, nominalBits, translation, scaling);
+    }
+
+    private static Constructor<? extends StoreDistance> vectorizedKernel() {
+        try {
+            //initializing the class fails if jdk.incubator.vector is not loaded
+            Class<?> kernel = Class.forName("tud.ke.ml.project.classifier.search.VectorizedStoreDistance", true,
+                    ModelSnapshot.class.getClassLoader());
+            return kernel.asSubclass(StoreDistance.class).getConstructor(ColumnarStore.class, double[].class,
+                    int.class, NominalBitset.class, double[].class, double[].class);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the Vector API kernel is available, otherwise {@link NearestNeighbor#KERNEL_VECTORIZED} falls
+     *         back to the scalar kernel
+     */
+    public static boolean hasVectorizedKernel() {
+        return VECTORIZED_KERNEL != null;
+    }
+
+    /**
+     * @param normalize true for the normalized block
+     * @return the raw or normalized numeric block; the normalized block of a snapshot whose normalization changed is
+     *         computed on every call
+     */
+    public double[] numericData(boolean normalize) {
+        if (!normalize)
+            return store.getNumericData();
+        return normalizedNumericData != null ? normalizedNumericData : store.scaledNumericData(translation, scaling);
+    }
+
+    /**
+     * @return the number of training instances
+     */
+    public int size() {
+        return mapped != null ? mapped.size() : store.size();
+    }
+
+    /**
+     * @param row the row of a training instance
+     * @return a read-only view of the instance
+     */
+    public List<Object> row(int row) {
+        return mapped != null ? mapped.row(row) : store.row(row);
+    }
+
+    /**
+     * @return the store holding the training instances; for a mapped model only the layout and the dictionaries
+     */
+    public ColumnarStore getStore() {
+        return store;
+    }
+
+    /**
+     * @return the file-backed store or null if the model is held on the heap
+     */
+    public MappedStore getMappedStore() {
+        return mapped;
+    }
+
+    /**
+     * @return minimum per numeric column
+     */
+    public double[] getMinimum() {
+        return range.getMinimum();
+    }
+
+    /**
+     * @return maximum per numeric column
+     */
+    public double[] getMaximum() {
+        return range.getMaximum();
+    }
+
+    /**
+     * @return translation per attribute index
+     */
+    public double[] getTranslation() {
+        return translation.clone();
+    }
+
+    /**
+     * @return scaling per attribute index
+     */
+    public double[] getScaling() {
+        return scaling.clone();
+    }
+
+    /**
+     * @return number of training instances per class value
+     */
+    public Map<Object, Integer> getClassCounts() {
+        return classCounts;
+    }
+
+    /**
+     * @return the search index or null if the model is searched linearly
+     */
+    public SearchIndex getIndex() {
+        return index;
+    }
+}
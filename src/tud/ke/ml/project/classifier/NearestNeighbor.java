@@ -1,267 +1,801 @@
-package tud.ke.ml.project.classifier;
-
-import java.io.Serializable;
-import java.util.*;
-
-import tud.ke.ml.project.util.Pair;
-
-/**
- * This implementation assumes the class attribute is always available (but probably not set).
- */
-public class NearestNeighbor extends INearestNeighbor implements Serializable {
-    private static final long serialVersionUID = 1L;
-
-    private List<List<Object>> model;
-    private Map<Object, Integer> classCountMap;
-
-
-    protected double[] scaling;
-    protected double[] translation;
-
-    @Override
-    public String getMatrikelNumbers() {
-        return "2879718,2594213,2753711";
-    }
-
-    @Override
-    protected void learnModel(List<List<Object>> data) {
-        this.model = data;
-        this.classCountMap = new HashMap<>();
-        for (List<Object> innerlist : data) {
-            Object classAttribute = innerlist.get(this.getClassAttribute());
-            Integer count = this.classCountMap.get(classAttribute);
-            if (count == null)
-                this.classCountMap.put(classAttribute, 0);
-            else
-                this.classCountMap.put(classAttribute, ++count);
-        }
-    }
-
-    @Override
-    protected Map<Object, Double> getUnweightedVotes(List<Pair<List<Object>, Double>> subset) {
-        Map<Object, Double> unweightedVotes = new HashMap<>();
-        //initialize unweightedVotes with all possible class attributes
-        for (Pair<List<Object>, Double> nearestN : subset) {
-            unweightedVotes.put(nearestN.getA().get(this.getClassAttribute()), 0.0D);
-        }
-        //Count the number of each class attribute in the nearestN
-        for (Pair<List<Object>, Double> nearestN : subset) {
-            double count = unweightedVotes.get(nearestN.getA().get(this.getClassAttribute()));
-            count++;
-            unweightedVotes.put(nearestN.getA().get(this.getClassAttribute()), count);
-        }
-        return unweightedVotes;
-    }
-
-    @Override
-    protected Map<Object, Double> getWeightedVotes(List<Pair<List<Object>, Double>> subset) {
-        Map<Object, Double> weightedVotes = new HashMap<>();
-        //initialize weightedVotes with all possible class attributes
-        for (Pair<List<Object>, Double> nearestN : subset) {
-            weightedVotes.put(nearestN.getA().get(this.getClassAttribute()), 0.0D);
-        }
-        //Count the number of each class attribute in the nearestN
-        for (Pair<List<Object>, Double> nearestN : subset) {
-            double count = weightedVotes.get(nearestN.getA().get(this.getClassAttribute()));
-            //Votes are the sum of the inverted distances
-            count = count + (1 / nearestN.getB());
-            weightedVotes.put(nearestN.getA().get(this.getClassAttribute()), count);
-        }
-        return weightedVotes;
-    }
-
-    @Override
-    protected Object getWinner(Map<Object, Double> votes) {
-        double max = -Double.MAX_VALUE;
-        List<Object> maxClasses = new ArrayList<>();
-        for (Double d : votes.values()) {
-            if (max < d)
-                max = d;
-        }
-        for (Object okey : votes.keySet()) {
-            if (votes.get(okey) == max)
-                maxClasses.add(okey);
-        }
-
-        max = -Double.MAX_VALUE;
-        Object chosenOne = null;
-        for (Object o : maxClasses) {
-            if (this.classCountMap.get(o) > max) {
-                max = this.classCountMap.get(o);
-                chosenOne = o;
-            }
-        }
-        return chosenOne;
-    }
-
-    @Override
-    protected Object vote(List<Pair<List<Object>, Double>> subset) {
-        return this.isInverseWeighting() ? this.getWinner(this.getWeightedVotes(subset)) :
-                this.getWinner(this.getUnweightedVotes(subset));
-    }
-
-    @Override
-    protected List<Pair<List<Object>, Double>> getNearest(List<Object> originalInput) {
-        ArrayList<Pair<List<Object>, Double>> distances = new ArrayList<>();
-
-        List<Object> workingInput = this.copyData(originalInput);
-
-        if (isNormalizing()) {
-            double[][] translationScaling = this.normalizationScaling();
-            translation = translationScaling[0];
-            scaling = translationScaling[1];
-            scaleTranslate(workingInput);
-        }
-
-        List<List<Object>> data = this.deepCopyData(this.model);
-
-        for (List<Object> instance : data) {
-            if (isNormalizing()) {
-                scaleTranslate(instance);
-            }
-
-            if (this.getMetric() == 0)
-                distances.add(new Pair<>(instance, this.determineManhattanDistance(instance, workingInput)));
-            else
-                distances.add(new Pair<>(instance, this.determineEuclideanDistance(instance, workingInput)));
-        }
-        distances.sort((x, y) -> (int) (x.getB() * 1000000000000L - y.getB() * 1000000000000L));
-        if (!distances.get(getkNearest()-1).getB().equals(distances.get(getkNearest()).getB()))
-            return distances.subList(0, super.getkNearest());
-        else {
-            int upperLimit = getkNearest();
-            int lowerLimit = getkNearest();
-            //get upperLimit
-            while(upperLimit < distances.size() - 1 && distances.get(upperLimit).getB().equals(distances.get(upperLimit + 1).getB())) {
-                upperLimit++;
-            }
-            //get lowerLimit
-            while ( lowerLimit > 1 && distances.get(lowerLimit).getB().equals(distances.get(lowerLimit - 1 ).getB())) {
-                lowerLimit--;
-            }
-
-            int numberOfElements = getkNearest() - lowerLimit;
-            int randNumb;
-            Random random = new Random();
-            HashSet<Integer> index = new HashSet<>();
-            for (int i = 0; i < numberOfElements; i++) {
-                while(index.size() != numberOfElements) {
-                    randNumb = random.nextInt(upperLimit - lowerLimit + 1) + lowerLimit;
-                    if (!index.contains(randNumb))
-                        index.add(randNumb);
-                }
-            }
-
-            ArrayList<Pair<List<Object>, Double>> result = new ArrayList<>();
-            for (int i = 0; i < lowerLimit; i++) {
-                result.add(distances.get(i));
-            }
-            for (Integer i: index) {
-                result.add(distances.get(i));
-            }
-            return result;
-        }
-
-    }
-
-    private List<List<Object>> deepCopyData(List<List<Object>> toCopy) {
-        List<List<Object>> data = new ArrayList<>();
-        for (List<Object> innerlist : toCopy) {
-            data.add(this.copyData(innerlist));
-        }
-        return data;
-    }
-
-    private List<Object> copyData(List<Object> toCopy) {
-        List<Object> data = new ArrayList<>();
-        for (Object o : toCopy) {
-            if (o instanceof String) {
-                data.add(o);
-            } else if (o instanceof Double) {
-                data.add(o);
-            }
-        }
-        return data;
-    }
-
-    private void scaleTranslate(List<Object> instance) {
-        for (int i = 0; i < instance.size(); i++) {
-            Object o = instance.get(i);
-            if (o instanceof Double) {
-                Double d = (Double) o;
-                d -= translation[i];
-                d /= scaling[i];
-                instance.set(i, d);
-            }
-        }
-    }
-
-    private List<Double> getPlainDistances(List<Object> instance1, List<Object> instance2) {
-        List<Double> plainDistances = new ArrayList<>();
-
-        for (int i = 0; i < instance1.size(); i++) {
-            if (i == this.getClassAttribute())
-                continue;
-
-            Object attr1 = instance1.get(i);
-            Object attr2 = instance2.get(i);
-
-            if (attr1 instanceof String) {
-                plainDistances.add(attr1.equals(attr2) ? 0d : 1d);
-            } else if (attr1 instanceof Double) {
-                plainDistances.add(Math.abs((Double) attr1 - (Double) attr2));
-            }
-        }
-
-        return plainDistances;
-    }
-
-    @Override
-    protected double determineManhattanDistance(List<Object> instance1, List<Object> instance2) {
-        List<Double> plainDinstances = this.getPlainDistances(instance1, instance2);
-        return plainDinstances.stream().mapToDouble(d -> d).sum();
-    }
-
-    @Override
-    protected double determineEuclideanDistance(List<Object> instance1, List<Object> instance2) {
-        List<Double> plainDinstances = this.getPlainDistances(instance1, instance2);
-        return Math.sqrt(plainDinstances.stream().mapToDouble(d -> d * d).sum());
-    }
-
-    @Override
-    protected double[][] normalizationScaling() {
-        double[][] translationScalation = new double[2][this.model.get(1).size()];
-        double[][] minMax = new double[2][translationScalation[0].length];
-
-        for (int i = 0; i < minMax[0].length; i++) {
-            minMax[0][i] = Double.MAX_VALUE;
-            minMax[1][i] = -Double.MAX_VALUE;
-        }
-
-        for (List<Object> innerList : model) {
-            int index = 0;
-            for (Object o : innerList) {
-                if (o instanceof Double) {
-                    double min = minMax[0][index];
-                    double max = minMax[1][index];
-                    Double d = (Double) o;
-                    if (d < min)
-                        minMax[0][index] = d;
-                    if (d > max)
-                        minMax[1][index] = d;
-                }
-                index++;
-            }
-        }
-
-        translationScalation[0] = minMax[0];
-        for (int i = 0; i < minMax[0].length; i++) {
-            translationScalation[1][i] = minMax[1][i] - minMax[0][i];
-            if (translationScalation[1][i] == 0d) {
-                translationScalation[1][i] = 1d;
-            }
-        }
-        return translationScalation;
-    }
-
-}
+package tud.ke.ml.project.classifier;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import tud.ke.ml.project.classifier.search.NeighborHeap;
+import tud.ke.ml.project.classifier.store.ColumnarStore;
+import tud.ke.ml.project.classifier.store.EncodedInstance;
+import tud.ke.ml.project.classifier.store.MappedStore;
+import tud.ke.ml.project.classifier.store.NumericRange;
+import tud.ke.ml.project.util.Pair;
+
+/**
+ * This implementation assumes the class attribute is always available (but probably not set).
+ * 
+ * The trained state is held in an immutable {@link ModelSnapshot}. Learning publishes a new snapshot atomically and
+ * every classification works on the snapshot it started with, so a shared instance can classify from many threads
+ * while a new model is learned.
+ */
+public class NearestNeighbor extends INearestNeighbor implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final int SEARCH_LINEAR = 0;
+    public static final int SEARCH_KDTREE = 1;
+    public static final int SEARCH_VPTREE = 2;
+    public static final int SEARCH_LSH = 3;
+    public static final int SEARCH_HNSW = 4;
+    public static final int SEARCH_PQ = 5;
+    public static final int SEARCH_CLUSTER = 6;
+
+    public static final int KERNEL_SCALAR = 0;
+    public static final int KERNEL_VECTORIZED = 1;
+
+    public static final int CONDENSE_NONE = 0;
+    public static final int CONDENSE_CNN = 1;
+    public static final int CONDENSE_ENN = 2;
+    public static final int CONDENSE_ICF = 3;
+
+    public static final int WINDOW_SLIDING = 0;
+    public static final int WINDOW_RESERVOIR = 1;
+
+    private volatile ModelSnapshot snapshot;
+    private int searchMethod = SEARCH_LINEAR;
+    private int parallelism = 0;
+    private int kernel = KERNEL_SCALAR;
+    private boolean blocked = false;
+    private int hashTables = 10;
+    private int probes = 2;
+    private int maxLinks = 16;
+    private int efConstruction = 100;
+    private int efSearch = 50;
+    private int subquantizers = 0;
+    private int rerank = 100;
+    private int clusters = 0;
+    private boolean compressed = false;
+    private File storeDirectory = null;
+    private int condensation = CONDENSE_NONE;
+    private Condensation condensationReport;
+    private int windowSize = 0;
+    private int windowPolicy = WINDOW_SLIDING;
+    //bounds the model as instances are added, only valid for the snapshot it last changed
+    private transient StreamWindow window;
+    private transient ModelSnapshot windowModel;
+    //the pool of a positive parallelism, created on first use and replaced when the parallelism changes
+    private transient volatile ForkJoinPool pool;
+
+    /**
+     * @return the search method used to find the nearest neighbors, e.g. {@link #SEARCH_VPTREE}
+     */
+    public int getSearchMethod() {
+        return searchMethod;
+    }
+
+    /**
+     * Sets the search method, takes effect when the next model is learned. An index is only used for the metric and
+     * normalization it was learned with, otherwise the model is searched linearly.
+     * <ul>
+     * <li>{@link #SEARCH_LINEAR}: exact, compares the query with every instance.</li>
+     * <li>{@link #SEARCH_KDTREE}: exact, only built if all non-class attributes are numeric.</li>
+     * <li>{@link #SEARCH_VPTREE}: exact, for all attributes.</li>
+     * <li>{@link #SEARCH_LSH}: approximate, see {@link #setHashTables(int)}.</li>
+     * <li>{@link #SEARCH_HNSW}: approximate, see {@link #setEfSearch(int)}.</li>
+     * <li>{@link #SEARCH_PQ}: approximate on compressed numeric values, see {@link #setSubquantizers(int)}.</li>
+     * <li>{@link #SEARCH_CLUSTER}: exact, skips cells around medoids, see {@link #setClusters(int)}.</li>
+     * </ul>
+     *
+     * @param searchMethod the search method, e.g. {@link #SEARCH_VPTREE}
+     */
+    public void setSearchMethod(int searchMethod) {
+        this.searchMethod = searchMethod;
+    }
+
+    /**
+     * @return the number of threads used by {@link #classifyInstances(List)}, 0 for the common fork/join pool
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @param parallelism the number of threads used by {@link #classifyInstances(List)}, 0 for the common fork/join
+     *            pool, which has about one thread per available processor
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @return the distance kernel, {@link #KERNEL_SCALAR} or {@link #KERNEL_VECTORIZED}
+     */
+    public int getKernel() {
+        return kernel;
+    }
+
+    /**
+     * Selects the distance kernel. The vectorized kernel uses the Vector API and is only available if the optional
+     * <code>vector</code> source folder is on the class path and <code>jdk.incubator.vector</code> is loaded, see
+     * {@link ModelSnapshot#hasVectorizedKernel()}; otherwise the scalar kernel is used. Its distances can differ from
+     * the scalar kernel by rounding.
+     *
+     * @param kernel {@link #KERNEL_SCALAR} or {@link #KERNEL_VECTORIZED}
+     */
+    public void setKernel(int kernel) {
+        this.kernel = kernel;
+    }
+
+    /**
+     * @return true if batches searched by a linear scan compare tiles of queries with tiles of training rows
+     */
+    public boolean isBlocked() {
+        return blocked;
+    }
+
+    /**
+     * Enables the cache-blocked linear scan for {@link #classifyInstances(List)}. Batches searched by an index are not
+     * affected.
+     *
+     * @param blocked true to compare tiles of queries with tiles of training rows
+     */
+    public void setBlocked(boolean blocked) {
+        this.blocked = blocked;
+    }
+
+    /**
+     * @return the number of hash tables of the locality-sensitive hashing search
+     */
+    public int getHashTables() {
+        return hashTables;
+    }
+
+    /**
+     * Sets the number of hash tables of the locality-sensitive hashing search, takes effect when the next model is
+     * learned. More tables find more of the true neighbors but compare the query with more rows.
+     *
+     * @param hashTables the number of hash tables, at least 1
+     */
+    public void setHashTables(int hashTables) {
+        this.hashTables = hashTables;
+    }
+
+    /**
+     * @return the number of neighboring buckets probed per hash table
+     */
+    public int getProbes() {
+        return probes;
+    }
+
+    /**
+     * Sets the number of neighboring buckets the locality-sensitive hashing search visits per table in addition to the
+     * bucket of the query, takes effect when the next model is learned.
+     *
+     * @param probes the number of additional buckets per table
+     */
+    public void setProbes(int probes) {
+        this.probes = probes;
+    }
+
+    /**
+     * @return the number of links per node and level of the HNSW graph (M)
+     */
+    public int getMaxLinks() {
+        return maxLinks;
+    }
+
+    /**
+     * Sets the number of links per node and level of the HNSW graph, takes effect when the next model is learned. More
+     * links give a higher recall but a larger graph and slower queries.
+     *
+     * @param maxLinks the number of links (M), at least 2
+     */
+    public void setMaxLinks(int maxLinks) {
+        this.maxLinks = maxLinks;
+    }
+
+    /**
+     * @return the number of candidates kept while building the HNSW graph
+     */
+    public int getEfConstruction() {
+        return efConstruction;
+    }
+
+    /**
+     * Sets the number of candidates kept while searching the links of a new node of the HNSW graph, takes effect when
+     * the next model is learned. Larger values build a better graph more slowly.
+     *
+     * @param efConstruction the number of candidates, at least M
+     */
+    public void setEfConstruction(int efConstruction) {
+        this.efConstruction = efConstruction;
+    }
+
+    /**
+     * @return the number of candidates kept while searching the HNSW graph
+     */
+    public int getEfSearch() {
+        return efSearch;
+    }
+
+    /**
+     * Sets the number of candidates kept while searching the HNSW graph, takes effect immediately. Larger values find
+     * more of the true neighbors but visit more nodes; at least k candidates are always kept.
+     *
+     * @param efSearch the number of candidates
+     */
+    public void setEfSearch(int efSearch) {
+        this.efSearch = efSearch;
+    }
+
+    /**
+     * @return the number of subquantizers of the product quantization, 0 for one per two numeric attributes
+     */
+    public int getSubquantizers() {
+        return subquantizers;
+    }
+
+    /**
+     * Sets the number of subquantizers of the product quantization, takes effect when the next model is learned. Every
+     * subquantizer stores one byte per training instance; more subquantizers approximate the distances better.
+     *
+     * @param subquantizers the number of subquantizers, 0 for one per two numeric attributes
+     */
+    public void setSubquantizers(int subquantizers) {
+        this.subquantizers = subquantizers;
+    }
+
+    /**
+     * @return the number of product quantization candidates compared again on the original values
+     */
+    public int getRerank() {
+        return rerank;
+    }
+
+    /**
+     * Sets the number of candidates with the smallest approximate distances that the product quantization search
+     * compares again on the original values, takes effect when the next model is learned. Ignored for a compressed
+     * model.
+     *
+     * @param rerank the number of candidates, 0 to use the approximate distances
+     */
+    public void setRerank(int rerank) {
+        this.rerank = rerank;
+    }
+
+    /**
+     * @return the number of cells of the cluster-pruned search, 0 for the square root of the number of training instances
+     */
+    public int getClusters() {
+        return clusters;
+    }
+
+    /**
+     * Sets the number of cells of the cluster-pruned search, takes effect when the next model is learned. A query is
+     * compared with the medoid of every cell, so more cells prune more finely but cost more per query.
+     *
+     * @param clusters the number of cells, 0 for the square root of the number of training instances
+     */
+    public void setClusters(int clusters) {
+        this.clusters = clusters;
+    }
+
+    /**
+     * @return true if a product-quantized model drops the original numeric values
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * Lets a product-quantized model drop the original numeric values after encoding them, takes effect when the next
+     * model is learned. The model then needs one byte per training instance and subquantizer instead of 16 bytes per
+     * training instance and numeric attribute (raw and normalized values), but its distances are approximate and it
+     * can only be used with the metric and normalization it was learned with.
+     *
+     * @param compressed true to drop the original numeric values
+     */
+    public void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+
+    /**
+     * @return the directory the training instances are written to, null if they are held on the heap
+     */
+    public File getStoreDirectory() {
+        return storeDirectory;
+    }
+
+    /**
+     * Lets the next models be learned into files in the given directory, which are mapped into memory instead of being
+     * held on the heap. Every model gets a new file, so classifications running on an older model are not affected;
+     * the files are not deleted automatically.
+     *
+     * @param storeDirectory the directory for the model files, null to hold the training instances on the heap
+     */
+    public void setStoreDirectory(File storeDirectory) {
+        this.storeDirectory = storeDirectory;
+    }
+
+    /**
+     * @return the prototype selection applied before a model is built, e.g. {@link #CONDENSE_ICF}
+     */
+    public int getCondensation() {
+        return condensation;
+    }
+
+    /**
+     * Selects prototypes from the training set before the model is built, takes effect when the next model is
+     * learned: {@link #CONDENSE_CNN} keeps a subset that classifies the training set consistently,
+     * {@link #CONDENSE_ENN} removes noisy instances and {@link #CONDENSE_ICF} removes noisy and redundant instances,
+     * see {@link Condensation}. Smaller models are searched faster. The selection uses the search method, k, metric and
+     * normalization of this classifier. Models learned into a store directory are not condensed.
+     *
+     * @param condensation {@link #CONDENSE_NONE}, {@link #CONDENSE_CNN}, {@link #CONDENSE_ENN} or {@link #CONDENSE_ICF}
+     */
+    public void setCondensation(int condensation) {
+        this.condensation = condensation;
+    }
+
+    /**
+     * @return the reduction and the change of the training accuracy of the last condensed model, null if the last
+     *         model was not condensed
+     */
+    public Condensation getCondensationReport() {
+        return condensationReport;
+    }
+
+    /**
+     * @return the largest number of training instances kept by {@link #addInstance(List, int)}, 0 for no limit
+     */
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Bounds the model for learning from a stream: once it holds this many instances, every instance passed to
+     * {@link #addInstance(List, int)} evicts one according to the window policy, so memory and query time stay flat
+     * however long the stream runs. A learned model larger than the window shrinks to it as instances are added.
+     *
+     * @param windowSize the largest number of training instances, 0 for no limit
+     */
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * @return the policy choosing the instances kept in the window, e.g. {@link #WINDOW_SLIDING}
+     */
+    public int getWindowPolicy() {
+        return windowPolicy;
+    }
+
+    /**
+     * Sets the policy choosing the instances kept in the window: {@link #WINDOW_SLIDING} keeps the most recent
+     * instances, {@link #WINDOW_RESERVOIR} keeps a random sample of equal size per class.
+     *
+     * @param windowPolicy {@link #WINDOW_SLIDING} or {@link #WINDOW_RESERVOIR}
+     */
+    public void setWindowPolicy(int windowPolicy) {
+        this.windowPolicy = windowPolicy;
+    }
+
+    @Override
+    public String getMatrikelNumbers() {
+        return "2879718,2594213,2753711";
+    }
+
+    @Override
+    protected synchronized void learnModel(List<List<Object>> data) {
+        if (data.isEmpty()) {
+            //an empty model is filled by addInstance
+            this.snapshot = null;
+            this.condensationReport = null;
+            return;
+        }
+        if (storeDirectory != null) {
+            learnMappedModel(data);
+            return;
+        }
+        ColumnarStore store = ColumnarStore.of(data, this.getClassAttribute());
+        this.snapshot = build(store);
+    }
+
+    /**
+     * Learns a model from a stream of training instances, e.g. rows read one by one from a file. Every instance is
+     * added to the store as soon as it is read and not referenced afterwards, so the training data is never held in
+     * memory next to the model.
+     *
+     * @param data the training instances, read once, in order; without instances the model is empty, like one learned
+     *            from an empty list
+     * @param classAttribute the index of the class attribute
+     */
+    public synchronized void learnModel(Iterator<List<Object>> data, int classAttribute) {
+        this.setClassAttribute(classAttribute);
+        if (!data.hasNext()) {
+            //an empty model is filled by addInstance
+            this.snapshot = null;
+            this.condensationReport = null;
+            return;
+        }
+        if (storeDirectory != null) {
+            learnMappedModel(() -> data);
+            return;
+        }
+        ColumnarStore store = ColumnarStore.of(data, classAttribute);
+        this.snapshot = build(store);
+    }
+
+    private ModelSnapshot build(ColumnarStore store) {
+        if (condensation == CONDENSE_NONE) {
+            this.condensationReport = null;
+            return new ModelSnapshot(store, this);
+        }
+        //selecting prototypes searches and updates the full model, so it is never compressed
+        ModelSnapshot model = new ModelSnapshot(store, this, NumericRange.of(store), false);
+        boolean[] removed = Condensation.select(model, this);
+        //the condensed model keeps the normalization of the full training set, on which the prototypes were selected
+        ModelSnapshot condensed = model.subset(row -> removed[row], this, this.isCompressed());
+        this.condensationReport = Condensation.report(model, condensed, removed, this);
+        return condensed;
+    }
+
+    private void learnMappedModel(Iterable<List<Object>> data) {
+        this.condensationReport = null;
+        try {
+            File file = File.createTempFile("model", ".knn", storeDirectory);
+            this.snapshot = new ModelSnapshot(MappedStore.write(file, data, this.getClassAttribute()), this);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Adds a training instance to the current model without learning it again. The instance is searched linearly next
+     * to the index and normalized with the current scaling until enough instances were added or removed; then the model
+     * is compacted: the index and the normalization are built again from all remaining instances. So adding costs
+     * amortized O(1) besides the compactions, whose cost is spread over a fixed fraction of the model size. A mapped
+     * or compressed model cannot be updated. See {@link #setWindowSize(int)} to bound the model.
+     *
+     * @param instance the instance, including its class value
+     * @param classAttribute the index of the class attribute
+     */
+    public synchronized void addInstance(List<Object> instance, int classAttribute) {
+        if (this.snapshot == null) {
+            this.learnModel(Collections.singletonList(instance), classAttribute);
+            return;
+        }
+        if (windowSize <= 0) {
+            this.publish(this.snapshot.withInstance(instance));
+            return;
+        }
+        if (window == null || windowModel != this.snapshot || !window.matches(windowPolicy, windowSize)) {
+            window = new StreamWindow(windowPolicy, windowSize, this.snapshot);
+            windowModel = this.snapshot;
+        }
+        this.publish(window.add(this.snapshot, instance));
+    }
+
+    /**
+     * Removes a training instance from the current model without learning it again. One row holding exactly the values
+     * of the instance is removed; it is found by a hash lookup, so removing costs amortized O(1) besides the
+     * compactions. The row is skipped by every search until the next compaction, see {@link #addInstance(List, int)}.
+     *
+     * @param instance the instance, including its class value
+     * @return true if the instance was found and removed
+     */
+    public synchronized boolean removeInstance(List<Object> instance) {
+        ModelSnapshot model = this.snapshot;
+        if (model == null)
+            return false;
+        int row = model.indexOf(instance);
+        if (row < 0)
+            return false;
+        model = model.withoutRow(row, true);
+        this.publish(model.remaining() == 0 ? null : model);
+        return true;
+    }
+
+    private void publish(ModelSnapshot model) {
+        publish(model, model != null && model.needsCompaction());
+    }
+
+    private void publish(ModelSnapshot model, boolean compact) {
+        boolean windowValid = window != null && windowModel == this.snapshot;
+        if (compact) {
+            model = model.compact(this);
+            if (windowValid)
+                window.reset(model);
+        }
+        this.snapshot = model;
+        this.windowModel = windowValid ? model : null;
+    }
+
+    /**
+     * @return the current trained state, null if no model was learned yet
+     */
+    public ModelSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Writes the current model in the binary snapshot format. A mapped model only refers to its record file, which
+     * must still exist when the snapshot is loaded.
+     *
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized void saveSnapshot(File file) throws IOException {
+        if (this.snapshot == null)
+            throw new IllegalStateException("no model learned");
+        if (this.snapshot.hasPendingChanges())
+            this.publish(this.snapshot, true);
+        SnapshotFormat.write(this.snapshot, file);
+    }
+
+    /**
+     * Replaces the current model with one written by {@link #saveSnapshot(File)}, including its search index. The
+     * settings of this instance are kept, the model is searched as it was learned.
+     *
+     * @param file the file to read
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    public synchronized void loadSnapshot(File file) throws IOException {
+        ModelSnapshot loaded = SnapshotFormat.read(file);
+        this.setClassAttribute(loaded.getStore().getClassAttribute());
+        this.snapshot = loaded;
+    }
+
+    @Override
+    protected Map<Object, Double> getUnweightedVotes(List<Pair<List<Object>, Double>> subset) {
+        Map<Object, Double> unweightedVotes = new HashMap<>();
+        //initialize unweightedVotes with all possible class attributes
+        for (Pair<List<Object>, Double> nearestN : subset) {
+            unweightedVotes.put(nearestN.getA().get(this.getClassAttribute()), 0.0D);
+        }
+        //Count the number of each class attribute in the nearestN
+        for (Pair<List<Object>, Double> nearestN : subset) {
+            double count = unweightedVotes.get(nearestN.getA().get(this.getClassAttribute()));
+            count++;
+            unweightedVotes.put(nearestN.getA().get(this.getClassAttribute()), count);
+        }
+        return unweightedVotes;
+    }
+
+    @Override
+    protected Map<Object, Double> getWeightedVotes(List<Pair<List<Object>, Double>> subset) {
+        Map<Object, Double> weightedVotes = new HashMap<>();
+        //initialize weightedVotes with all possible class attributes
+        for (Pair<List<Object>, Double> nearestN : subset) {
+            weightedVotes.put(nearestN.getA().get(this.getClassAttribute()), 0.0D);
+        }
+        //Count the number of each class attribute in the nearestN
+        for (Pair<List<Object>, Double> nearestN : subset) {
+            double count = weightedVotes.get(nearestN.getA().get(this.getClassAttribute()));
+            //Votes are the sum of the inverted distances
+            count = count + (1 / nearestN.getB());
+            weightedVotes.put(nearestN.getA().get(this.getClassAttribute()), count);
+        }
+        return weightedVotes;
+    }
+
+    @Override
+    protected Object getWinner(Map<Object, Double> votes) {
+        return this.getWinner(this.snapshot, votes);
+    }
+
+    private Object getWinner(ModelSnapshot model, Map<Object, Double> votes) {
+        Map<Object, Integer> classCountMap = model.getClassCounts();
+        double max = -Double.MAX_VALUE;
+        List<Object> maxClasses = new ArrayList<>();
+        for (Double d : votes.values()) {
+            if (max < d)
+                max = d;
+        }
+        for (Object okey : votes.keySet()) {
+            if (votes.get(okey) == max)
+                maxClasses.add(okey);
+        }
+
+        max = -Double.MAX_VALUE;
+        Object chosenOne = null;
+        for (Object o : maxClasses) {
+            if (classCountMap.get(o) > max) {
+                max = classCountMap.get(o);
+                chosenOne = o;
+            }
+        }
+        return chosenOne;
+    }
+
+    @Override
+    protected Object vote(List<Pair<List<Object>, Double>> subset) {
+        return this.vote(this.snapshot, subset);
+    }
+
+    private Object vote(ModelSnapshot model, List<Pair<List<Object>, Double>> subset) {
+        return this.isInverseWeighting() ? this.getWinner(model, this.getWeightedVotes(subset)) :
+                this.getWinner(model, this.getUnweightedVotes(subset));
+    }
+
+    @Override
+    public Object classifyInstance(List<Object> testdata, int classAttribute) {
+        //search and vote on the same snapshot even if a new model is published in between
+        ModelSnapshot model = this.snapshot;
+        return this.vote(model, this.getNearest(model, testdata));
+    }
+
+    /**
+     * Classifies a batch of test instances on a fork/join pool with {@link #getParallelism()} threads, the common pool
+     * by default; the pool of a positive parallelism is kept for the next batches. Every instance is classified
+     * independently against the same snapshot, so the result is the same as calling
+     * {@link #classifyInstance(List, int)} for each of them.
+     *
+     * @param testdata the test instances
+     * @return the winning class of every test instance, in input order
+     */
+    public List<Object> classifyInstances(List<List<Object>> testdata) {
+        //random access is needed to split the batch
+        List<List<Object>> instances = testdata instanceof RandomAccess ? testdata : new ArrayList<>(testdata);
+        Object[] classValues = new Object[instances.size()];
+        pool().invoke(new BatchClassification(this.snapshot, instances, classValues, 0, classValues.length));
+        return Arrays.asList(classValues);
+    }
+
+    private ForkJoinPool pool() {
+        int parallelism = this.parallelism;
+        if (parallelism <= 0)
+            return ForkJoinPool.commonPool();
+        ForkJoinPool pool = this.pool;
+        if (pool != null && pool.getParallelism() == parallelism)
+            return pool;
+        //only locked to create the pool, classifying does not wait for learning otherwise
+        synchronized (this) {
+            if (this.pool == null || this.pool.getParallelism() != parallelism) {
+                //batches still running on the old pool are completed before its threads end
+                if (this.pool != null)
+                    this.pool.shutdown();
+                this.pool = new ForkJoinPool(parallelism);
+            }
+            return this.pool;
+        }
+    }
+
+    /**
+     * Classifies a range of a batch, splitting it in halves until it is small enough. Ranges searched with the blocked
+     * linear scan are split down to one query tile.
+     */
+    private class BatchClassification extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private static final int THRESHOLD = 16;
+
+        private final ModelSnapshot model;
+        private final List<List<Object>> instances;
+        private final Object[] classValues;
+        private final int from, to;
+
+        BatchClassification(ModelSnapshot model, List<List<Object>> instances, Object[] classValues, int from, int to) {
+            this.model = model;
+            this.instances = instances;
+            this.classValues = classValues;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            boolean tiled = blocked && !model.isIndexed(getMetric(), isNormalizing());
+            if (tiled && to - from <= ModelSnapshot.QUERY_TILE) {
+                EncodedInstance[] queries = new EncodedInstance[to - from];
+                NeighborHeap[] nearest = new NeighborHeap[queries.length];
+                for (int i = 0; i < queries.length; i++) {
+                    queries[i] = model.encode(instances.get(from + i), isNormalizing());
+                    nearest[i] = new NeighborHeap(getkNearest());
+                }
+                model.searchBlocked(queries, getMetric(), isNormalizing(), kernel, nearest);
+                for (int i = 0; i < queries.length; i++) {
+                    classValues[from + i] = vote(model, toPairs(model, nearest[i]));
+                }
+            } else if (!tiled && to - from <= THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    classValues[i] = vote(model, getNearest(model, instances.get(i)));
+                }
+            } else {
+                int middle = (from + to) >>> 1;
+                invokeAll(new BatchClassification(model, instances, classValues, from, middle),
+                        new BatchClassification(model, instances, classValues, middle, to));
+            }
+        }
+    }
+
+    @Override
+    protected List<Pair<List<Object>, Double>> getNearest(List<Object> originalInput) {
+        return this.getNearest(this.snapshot, originalInput);
+    }
+
+    private List<Pair<List<Object>, Double>> getNearest(ModelSnapshot model, List<Object> originalInput) {
+        EncodedInstance input = model.encode(originalInput, isNormalizing());
+
+        NeighborHeap nearest = new NeighborHeap(getkNearest());
+        model.search(input, getMetric(), isNormalizing(), this.kernel, this.efSearch, nearest);
+        return toPairs(model, nearest);
+    }
+
+    private List<Pair<List<Object>, Double>> toPairs(ModelSnapshot model, NeighborHeap nearest) {
+        //only the k nearest (plus ties at the k-th distance) are materialized
+        int[] rows = nearest.rows();
+        double[] distances = nearest.distances();
+        List<Pair<List<Object>, Double>> result = new ArrayList<>(rows.length);
+        for (int i = 0; i < rows.length; i++) {
+            result.add(new Pair<>(model.row(rows[i]), distances[i]));
+        }
+        return result;
+    }
+
+    /**
+     * Calculates the Manhattan distance between a stored instance and an encoded test instance
+     *
+     * @param row the row of the stored instance
+     * @param input the encoded test instance
+     * @return the distance
+     */
+    protected double determineManhattanDistance(int row, EncodedInstance input) {
+        return this.snapshot.distance(0, isNormalizing(), this.kernel).distance(row, input);
+    }
+
+    /**
+     * Calculates the Euclidean distance between a stored instance and an encoded test instance
+     *
+     * @param row the row of the stored instance
+     * @param input the encoded test instance
+     * @return the distance
+     */
+    protected double determineEuclideanDistance(int row, EncodedInstance input) {
+        return this.snapshot.distance(1, isNormalizing(), this.kernel).distance(row, input);
+    }
+
+    /**
+     * Difference of a single attribute: 0/1 for nominal values, the absolute difference for numeric values.
+     */
+    private static double attributeDistance(Object attr1, Object attr2) {
+        if (attr1 instanceof Double)
+            return Math.abs((Double) attr1 - (Double) attr2);
+        return attr1.equals(attr2) ? 0d : 1d;
+    }
+
+    @Override
+    protected double determineManhattanDistance(List<Object> instance1, List<Object> instance2) {
+        double sum = 0;
+        Iterator<Object> it1 = instance1.iterator(), it2 = instance2.iterator();
+        for (int i = 0; it1.hasNext(); i++) {
+            Object attr1 = it1.next(), attr2 = it2.next();
+            if (i != this.getClassAttribute())
+                sum += attributeDistance(attr1, attr2);
+        }
+        return sum;
+    }
+
+    @Override
+    protected double determineEuclideanDistance(List<Object> instance1, List<Object> instance2) {
+        double sum = 0;
+        Iterator<Object> it1 = instance1.iterator(), it2 = instance2.iterator();
+        for (int i = 0; it1.hasNext(); i++) {
+            Object attr1 = it1.next(), attr2 = it2.next();
+            if (i != this.getClassAttribute()) {
+                double d = attributeDistance(attr1, attr2);
+                sum += d * d;
+            }
+        }
+        return Math.sqrt(sum);
+    }
+
+    @Override
+    protected double[][] normalizationScaling() {
+        ModelSnapshot model = this.snapshot;
+        return new double[][] { model.getTranslation(), model.getScaling() };
+    }
+
+}
@@ -0,0 +1,290 @@
+package tud.ke.ml.project.classifier;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import tud.ke.ml.project.classifier.search.NeighborHeap;
+import tud.ke.ml.project.classifier.search.RowDistance;
+
+/**
+ * Accuracy of a {@link NearestNeighbor} for every k from 1 to a maximum, with unweighted and inverse distance weighted
+ * voting, estimated by leave-one-out or cross-validation on its training set.
+ *
+ * Every held-out instance is searched once for its maximum number of neighbors. Its sorted neighbor list is then
+ * voted on for every k in one pass: the neighbors of k are those of k - 1 plus the k-th one, plus any ties at the k-th
+ * distance, exactly as the classifier finds them, so the votes are updated incrementally. Selecting k therefore costs
+ * about as much as a single evaluation instead of one per candidate.
+ *
+ * The votes are counted like the classifier counts them: tied classes are decided by the larger class count of the
+ * training set the instance was held out of, and if those tie as well by the class that was seen first in the
+ * training data. The distances use the metric and normalization of the classifier, with the normalization of the full
+ * training set, and the neighbors are found with its search method.
+ */
+public final class NeighborEvaluation implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int maxK;
+    private final int folds;
+    private final int size;
+    // number of correctly classified instances, [0] unweighted, [1] weighted, indexed by k - 1
+    private final int[][] correct;
+
+    NeighborEvaluation(int maxK, int folds, int size, int[][] correct) {
+        this.maxK = maxK;
+        this.folds = folds;
+        this.size = size;
+        this.correct = correct;
+    }
+
+    /**
+     * Evaluates every k by leaving out one training instance at a time. The model is searched as it is, the held-out
+     * instance is only skipped among its own neighbors.
+     *
+     * @param classifier a classifier with a learned model
+     * @param maxK the largest k to evaluate
+     * @return the accuracy table
+     */
+    public static NeighborEvaluation leaveOneOut(NearestNeighbor classifier, int maxK) {
+        ModelSnapshot model = model(classifier);
+        int[] classData = model.getStore().getClassData();
+        int[] classCounts = classCounts(model);
+        Votes votes = new Votes(maxK, classCounts.length);
+        RowDistance rows = model.distance(classifier.getMetric(), classifier.isNormalizing(), classifier.getKernel());
+        for (int row = 0; row < model.size(); row++) {
+            if (model.isRemoved(row))
+                continue;
+            NeighborHeap nearest = new NeighborHeap(maxK + 1);
+            model.search(rows.encode(row), classifier.getMetric(), classifier.isNormalizing(), classifier.getKernel(),
+                    Math.max(classifier.getEfSearch(), maxK + 1), nearest);
+            int[] neighbors = nearest.rows();
+            double[] distances = nearest.distances();
+            int count = 0;
+            for (int i = 0; i < neighbors.length; i++) {
+                if (neighbors[i] == row)
+                    continue;
+                neighbors[count] = neighbors[i];
+                distances[count++] = distances[i];
+            }
+            //the class counts of the training set without the held-out instance
+            classCounts[classData[row]]--;
+            votes.score(neighbors, distances, count, classData, classCounts, classData[row]);
+            classCounts[classData[row]]++;
+        }
+        return new NeighborEvaluation(maxK, 0, model.remaining(), votes.correct);
+    }
+
+    /**
+     * Evaluates every k by cross-validation. The remaining training instances are shuffled and split into folds; for
+     * every fold a model of the other folds is built with the search method of the classifier and searched for the
+     * instances of the fold. A mapped or compressed model cannot be split and only supports
+     * {@link #leaveOneOut(NearestNeighbor, int)}.
+     *
+     * @param classifier a classifier with a learned model
+     * @param maxK the largest k to evaluate
+     * @param folds the number of folds, at least 2
+     * @param seed the seed of the shuffle
+     * @return the accuracy table
+     */
+    public static NeighborEvaluation crossValidate(NearestNeighbor classifier, int maxK, int folds, long seed) {
+        ModelSnapshot model = model(classifier);
+        int[] classData = model.getStore().getClassData();
+        int[] fold = assignFolds(model, folds, seed);
+        Votes votes = new Votes(maxK, model.getStore().getClassDictionary().size());
+        RowDistance rows = model.distance(classifier.getMetric(), classifier.isNormalizing(), classifier.getKernel());
+        for (int f = 0; f < folds; f++) {
+            int heldOut = f;
+            ModelSnapshot training = model.subset(row -> fold[row] == heldOut || fold[row] < 0, classifier);
+            if (training.size() == 0)
+                continue;
+            int[] trainingClasses = training.getStore().getClassData();
+            int[] classCounts = classCounts(training);
+            for (int row = 0; row < model.size(); row++) {
+                if (fold[row] != heldOut)
+                    continue;
+                NeighborHeap nearest = new NeighborHeap(maxK);
+                training.search(rows.encode(row), classifier.getMetric(), classifier.isNormalizing(),
+                        classifier.getKernel(), Math.max(classifier.getEfSearch(), maxK), nearest);
+                int[] neighbors = nearest.rows();
+                votes.score(neighbors, nearest.distances(), neighbors.length, trainingClasses, classCounts,
+                        classData[row]);
+            }
+        }
+        return new NeighborEvaluation(maxK, folds, model.remaining(), votes.correct);
+    }
+
+    private static ModelSnapshot model(NearestNeighbor classifier) {
+        ModelSnapshot model = classifier.getSnapshot();
+        if (model == null || model.remaining() == 0)
+            throw new IllegalStateException("the classifier has no training instances to evaluate");
+        return model;
+    }
+
+    /**
+     * @return the fold of every remaining row, -1 for removed rows
+     */
+    private static int[] assignFolds(ModelSnapshot model, int folds, long seed) {
+        int[] remaining = new int[model.remaining()];
+        int count = 0;
+        for (int row = 0; row < model.size(); row++) {
+            if (!model.isRemoved(row))
+                remaining[count++] = row;
+        }
+        Random random = new Random(seed);
+        for (int i = remaining.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int row = remaining[i];
+            remaining[i] = remaining[j];
+            remaining[j] = row;
+        }
+        int[] fold = new int[model.size()];
+        Arrays.fill(fold, -1);
+        for (int i = 0; i < remaining.length; i++) {
+            fold[remaining[i]] = i % folds;
+        }
+        return fold;
+    }
+
+    /**
+     * @return the number of remaining training instances per class code
+     */
+    private static int[] classCounts(ModelSnapshot model) {
+        int[] classData = model.getStore().getClassData();
+        int[] counts = new int[model.getStore().getClassDictionary().size()];
+        for (int row = 0; row < model.size(); row++) {
+            if (!model.isRemoved(row))
+                counts[classData[row]]++;
+        }
+        return counts;
+    }
+
+    /**
+     * Scores the sorted neighbor lists of held-out instances for every k and both voting schemes.
+     */
+    static final class Votes {
+        final int maxK;
+        // [0] unweighted, [1] weighted, indexed by k - 1
+        final int[][] correct;
+        private final double[][] votes;
+
+        Votes(int maxK, int numClasses) {
+            this.maxK = maxK;
+            this.correct = new int[2][maxK];
+            this.votes = new double[2][numClasses];
+        }
+
+        /**
+         * Adds the predictions for one held-out instance to the counts of correct predictions.
+         *
+         * @param neighbors the rows of the neighbors in order of distance, at least maxK unless there are fewer rows
+         * @param distances the distances of the neighbors
+         * @param count the number of neighbors
+         * @param classData the class code of every row
+         * @param classCounts the number of training instances per class code, to break ties
+         * @param actual the class code of the held-out instance
+         */
+        void score(int[] neighbors, double[] distances, int count, int[] classData, int[] classCounts, int actual) {
+            Arrays.fill(votes[0], 0);
+            Arrays.fill(votes[1], 0);
+            int k = 1;
+            int i = 0;
+            while (k <= maxK && i < count) {
+                //the neighbors of k are all neighbors up to the k-th one and its ties
+                double boundary = distances[i];
+                do {
+                    int classCode = classData[neighbors[i]];
+                    votes[0][classCode]++;
+                    votes[1][classCode] += 1 / distances[i];
+                    i++;
+                } while (i < count && distances[i] == boundary);
+                boolean unweighted = winner(votes[0], classCounts) == actual;
+                boolean weighted = winner(votes[1], classCounts) == actual;
+                for (; k <= Math.min(i, maxK); k++) {
+                    if (unweighted)
+                        correct[0][k - 1]++;
+                    if (weighted)
+                        correct[1][k - 1]++;
+                }
+            }
+            //with fewer neighbors than k every larger k votes on all of them
+            if (k <= maxK && count > 0) {
+                boolean unweighted = winner(votes[0], classCounts) == actual;
+                boolean weighted = winner(votes[1], classCounts) == actual;
+                for (; k <= maxK; k++) {
+                    if (unweighted)
+                        correct[0][k - 1]++;
+                    if (weighted)
+                        correct[1][k - 1]++;
+                }
+            }
+        }
+
+        private static int winner(double[] votes, int[] classCounts) {
+            int winner = -1;
+            for (int c = 0; c < votes.length; c++) {
+                if (winner < 0 || votes[c] > votes[winner]
+                        || votes[c] == votes[winner] && classCounts[c] > classCounts[winner])
+                    winner = c;
+            }
+            return winner;
+        }
+    }
+
+    /**
+     * @return the largest k evaluated
+     */
+    public int getMaxK() {
+        return maxK;
+    }
+
+    /**
+     * @return the number of folds, 0 for leave-one-out
+     */
+    public int getFolds() {
+        return folds;
+    }
+
+    /**
+     * @return the number of instances evaluated
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @param k the number of neighbors, from 1 to {@link #getMaxK()}
+     * @param weighted true for inverse distance weighted voting
+     * @return the fraction of instances classified correctly
+     */
+    public double getAccuracy(int k, boolean weighted) {
+        return (double) correct[weighted ? 1 : 0][k - 1] / size;
+    }
+
+    /**
+     * @param weighted true for inverse distance weighted voting
+     * @return the smallest k with the highest accuracy
+     */
+    public int getBestK(boolean weighted) {
+        int[] counts = correct[weighted ? 1 : 0];
+        int best = 0;
+        for (int k = 1; k < maxK; k++) {
+            if (counts[k] > counts[best])
+                best = k;
+        }
+        return best + 1;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder table = new StringBuilder();
+        table.append(folds == 0 ? "Leave-one-out" : folds + "-fold cross-validation")
+                .append(" accuracy of ").append(size).append(" instances\n");
+        table.append(String.format(Locale.ROOT, "%4s %11s %11s%n", "k", "unweighted", "weighted"));
+        for (int k = 1; k <= maxK; k++) {
+            table.append(String.format(Locale.ROOT, "%4d %10.2f%% %10.2f%%%n", k, 100 * getAccuracy(k, false),
+                    100 * getAccuracy(k, true)));
+        }
+        return table.toString();
+    }
+}
@@ -0,0 +1,261 @@
+package tud.ke.ml.project.classifier;
+
+import java.io.Serializable;
+import java.util.Locale;
+
+import tud.ke.ml.project.classifier.search.NeighborHeap;
+import tud.ke.ml.project.classifier.search.RowDistance;
+import tud.ke.ml.project.classifier.store.ColumnarStore;
+
+/**
+ * Leave-one-out accuracy of a {@link NearestNeighbor} on its training set for the whole grid of metric, normalization,
+ * k from 1 to a maximum and voting scheme, computed with shared work instead of one scan per combination.
+ *
+ * Every training instance is compared with all others in a single pass. Per row the nominal mismatches are counted
+ * once, and the differences of the numeric attributes are computed once on the raw and once on the normalized block;
+ * each difference feeds the Manhattan and the Euclidean sum of its normalization. The four resulting neighbor lists
+ * are then scored for every k and both voting schemes like {@link NeighborEvaluation}, so the whole grid costs about
+ * one leave-one-out scan. The distances are the ones the classifier computes with the scalar kernel.
+ *
+ * For comparison, the sweep also estimates the time of tuning by separate evaluations. The estimate is not measured:
+ * it times the leave-one-out search of at most {@link #BASELINE_SAMPLE} instances per metric and normalization and
+ * extrapolates it to all instances and to one separate evaluation per k and voting scheme.
+ */
+public final class ParameterSweep implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // largest number of instances timed to estimate the cost of separate evaluations
+    static final int BASELINE_SAMPLE = 200;
+    // relative tolerance for rounding of the thresholds
+    private static final double SLACK = 1e-9;
+
+    private final int maxK;
+    // indexed by 2 * metric + (normalize ? 1 : 0)
+    private final NeighborEvaluation[] evaluations;
+    private final long elapsedNanos;
+    private final long estimatedSeparateNanos;
+
+    private ParameterSweep(int maxK, NeighborEvaluation[] evaluations, long elapsedNanos, long estimatedSeparateNanos) {
+        this.maxK = maxK;
+        this.evaluations = evaluations;
+        this.elapsedNanos = elapsedNanos;
+        this.estimatedSeparateNanos = estimatedSeparateNanos;
+    }
+
+    /**
+     * Sweeps the grid on the training set of a classifier. The model must be held on the heap and keep its numeric
+     * values, i.e. not be mapped or compressed.
+     *
+     * @param classifier a classifier with a learned model; its own settings are not changed
+     * @param maxK the largest k to evaluate
+     * @return the accuracy of every combination
+     */
+    public static ParameterSweep run(NearestNeighbor classifier, int maxK) {
+        ModelSnapshot model = classifier.getSnapshot();
+        if (model == null || model.remaining() == 0)
+            throw new IllegalStateException("the classifier has no training instances to evaluate");
+        if (model.getMappedStore() != null || !model.getStore().hasNumericData())
+            throw new IllegalStateException("a mapped or compressed model cannot be swept");
+
+        long start = System.nanoTime();
+        ColumnarStore store = model.getStore();
+        int size = model.size();
+        int numNumeric = store.getNumNumeric(), numNominal = store.getNumNominal();
+        double[][] numericData = { model.numericData(false), model.numericData(true) };
+        int[] nominalData = store.getNominalData();
+        int[] classData = store.getClassData();
+        int[] classCounts = new int[store.getClassDictionary().size()];
+        for (int row = 0; row < size; row++) {
+            if (!model.isRemoved(row))
+                classCounts[classData[row]]++;
+        }
+
+        NeighborEvaluation.Votes[] votes = new NeighborEvaluation.Votes[4];
+        NeighborHeap[] nearest = new NeighborHeap[4];
+        for (int i = 0; i < 4; i++) {
+            votes[i] = new NeighborEvaluation.Votes(maxK, classCounts.length);
+            nearest[i] = new NeighborHeap(maxK);
+        }
+        boolean removals = model.remaining() < size;
+        for (int query = 0; query < size; query++) {
+            if (model.isRemoved(query))
+                continue;
+            for (NeighborHeap heap : nearest) {
+                heap.clear();
+            }
+            int queryNumeric = query * numNumeric, queryNominal = query * numNominal;
+            for (int row = 0; row < size; row++) {
+                if (row == query || removals && model.isRemoved(row))
+                    continue;
+                int mismatches = 0;
+                for (int c = 0; c < numNominal; c++) {
+                    if (nominalData[row * numNominal + c] != nominalData[queryNominal + c])
+                        mismatches++;
+                }
+                for (int n = 0; n < 2; n++) {
+                    NeighborHeap manhattan = nearest[n], euclidean = nearest[2 + n];
+                    //the partial sums only grow, so the row is dropped once it is too far for both metrics; the limits
+                    //are slightly enlarged so rounding never drops a row at the threshold
+                    double manhattanLimit = manhattan.threshold() * (1 + SLACK) - mismatches;
+                    double euclideanLimit = euclidean.threshold() * euclidean.threshold() * (1 + SLACK) - mismatches;
+                    double[] numeric = numericData[n];
+                    double sum = 0, sumOfSquares = 0;
+                    int c = 0;
+                    for (; c < numNumeric; c++) {
+                        double d = numeric[row * numNumeric + c] - numeric[queryNumeric + c];
+                        sum += Math.abs(d);
+                        sumOfSquares += d * d;
+                        if (sum > manhattanLimit && sumOfSquares > euclideanLimit)
+                            break;
+                    }
+                    if (c == numNumeric) {
+                        manhattan.offer(row, sum + mismatches);
+                        euclidean.offer(row, Math.sqrt(sumOfSquares + mismatches));
+                    }
+                }
+            }
+            //the class counts of the training set without the held-out instance
+            classCounts[classData[query]]--;
+            for (int i = 0; i < 4; i++) {
+                int[] rows = nearest[i].rows();
+                votes[i].score(rows, nearest[i].distances(), rows.length, classData, classCounts, classData[query]);
+            }
+            classCounts[classData[query]]++;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        NeighborEvaluation[] evaluations = new NeighborEvaluation[4];
+        for (int i = 0; i < 4; i++) {
+            evaluations[i] = new NeighborEvaluation(maxK, 0, model.remaining(), votes[i].correct);
+        }
+        return new ParameterSweep(maxK, evaluations, elapsed, estimateSeparateNanos(model, classifier, maxK));
+    }
+
+    /**
+     * Estimates the time of evaluating every combination separately: one leave-one-out search per instance with the
+     * search method of the classifier, for every k and voting scheme of every metric and normalization. Only the
+     * searches of at most {@link #BASELINE_SAMPLE} evenly spaced instances are timed; their mean time is multiplied by
+     * the number of instances and by the 2 * maxK combinations of k and voting scheme.
+     */
+    private static long estimateSeparateNanos(ModelSnapshot model, NearestNeighbor classifier, int maxK) {
+        int step = Math.max(1, (model.size() + BASELINE_SAMPLE - 1) / BASELINE_SAMPLE);
+        long total = 0;
+        for (int metric = 0; metric < 2; metric++) {
+            for (boolean normalize : new boolean[] { false, true }) {
+                RowDistance rows = model.distance(metric, normalize, NearestNeighbor.KERNEL_SCALAR);
+                int sampled = 0;
+                long start = System.nanoTime();
+                for (int query = 0; query < model.size(); query += step) {
+                    NeighborHeap nearest = new NeighborHeap(maxK + 1);
+                    model.search(rows.encode(query), metric, normalize, NearestNeighbor.KERNEL_SCALAR,
+                            classifier.getEfSearch(), nearest);
+                    sampled++;
+                }
+                total += (System.nanoTime() - start) / sampled * model.remaining();
+            }
+        }
+        return total * maxK * 2;
+    }
+
+    /**
+     * @param metric 0 for Manhattan, 1 for Euclidean
+     * @param normalize true for normalized attributes
+     * @return the accuracy of every k and voting scheme for the metric and normalization
+     */
+    public NeighborEvaluation getEvaluation(int metric, boolean normalize) {
+        return evaluations[2 * metric + (normalize ? 1 : 0)];
+    }
+
+    /**
+     * @param metric 0 for Manhattan, 1 for Euclidean
+     * @param normalize true for normalized attributes
+     * @param k the number of neighbors, from 1 to {@link #getMaxK()}
+     * @param weighted true for inverse distance weighted voting
+     * @return the leave-one-out accuracy of the combination
+     */
+    public double getAccuracy(int metric, boolean normalize, int k, boolean weighted) {
+        return getEvaluation(metric, normalize).getAccuracy(k, weighted);
+    }
+
+    /**
+     * Sets the most accurate combination on a classifier; of equally accurate ones the first in the order Manhattan
+     * before Euclidean, raw before normalized, unweighted before weighted and smaller k before larger k.
+     *
+     * @param classifier the classifier to configure, takes effect for the metric and normalization when the next
+     *            model is learned
+     */
+    public void applyBest(NearestNeighbor classifier) {
+        double best = -1;
+        for (int metric = 0; metric < 2; metric++) {
+            for (boolean normalize : new boolean[] { false, true }) {
+                for (boolean weighted : new boolean[] { false, true }) {
+                    NeighborEvaluation evaluation = getEvaluation(metric, normalize);
+                    int k = evaluation.getBestK(weighted);
+                    if (evaluation.getAccuracy(k, weighted) > best) {
+                        best = evaluation.getAccuracy(k, weighted);
+                        classifier.setMetric(metric);
+                        classifier.setNormalizing(normalize);
+                        classifier.setInverseWeighting(weighted);
+                        classifier.setkNearest(k);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the largest k evaluated
+     */
+    public int getMaxK() {
+        return maxK;
+    }
+
+    /**
+     * @return the wall-clock time of the sweep in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return the estimated, not measured, wall-clock time of evaluating every combination separately in nanoseconds:
+     *         the mean time of a sampled leave-one-out search, times the number of instances, times 2 * maxK for
+     *         every metric and normalization
+     */
+    public long getEstimatedSeparateNanos() {
+        return estimatedSeparateNanos;
+    }
+
+    @Override
+    public String toString() {
+        String[] metrics = { "Man", "Euc" };
+        StringBuilder table = new StringBuilder();
+        table.append(String.format(Locale.ROOT, "Leave-one-out accuracy of %d instances "
+                + "(Man/Euc = Manhattan/Euclidean, n = normalized, w = weighted)%n", evaluations[0].getSize()));
+        table.append(String.format(Locale.ROOT, "%4s", "k"));
+        for (int metric = 0; metric < 2; metric++) {
+            for (String normalization : new String[] { "", " n" }) {
+                for (String voting : new String[] { "", " w" }) {
+                    table.append(String.format(Locale.ROOT, " %8s", metrics[metric] + normalization + voting));
+                }
+            }
+        }
+        table.append(String.format("%n"));
+        for (int k = 1; k <= maxK; k++) {
+            table.append(String.format(Locale.ROOT, "%4d", k));
+            for (int metric = 0; metric < 2; metric++) {
+                for (boolean normalize : new boolean[] { false, true }) {
+                    for (boolean weighted : new boolean[] { false, true }) {
+                        table.append(String.format(Locale.ROOT, " %7.2f%%", 100 * getAccuracy(metric, normalize, k, weighted)));
+                    }
+                }
+            }
+            table.append(String.format("%n"));
+        }
+        table.append(String.format(Locale.ROOT, "%d combinations in %.1f ms (measured)%n", 8 * maxK, elapsedNanos / 1e6));
+        table.append(String.format(Locale.ROOT, "Separate evaluations estimated at %.1f ms (%.1fx), extrapolated from "
+                + "timing the searches of up to %d instances per metric and normalization%n",
+                estimatedSeparateNanos / 1e6, (double) estimatedSeparateNanos / elapsedNanos, BASELINE_SAMPLE));
+        return table.toString();
+    }
+}
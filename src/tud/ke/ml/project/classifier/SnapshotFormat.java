@@ -0,0 +1,521 @@
+package tud.ke.ml.project.classifier;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import tud.ke.ml.project.classifier.search.ClusterIndex;
+import tud.ke.ml.project.classifier.search.HNSWIndex;
+import tud.ke.ml.project.classifier.search.IndexInput;
+import tud.ke.ml.project.classifier.search.IndexOutput;
+import tud.ke.ml.project.classifier.search.KDTree;
+import tud.ke.ml.project.classifier.search.LSHIndex;
+import tud.ke.ml.project.classifier.search.PQIndex;
+import tud.ke.ml.project.classifier.search.SearchIndex;
+import tud.ke.ml.project.classifier.search.VPTree;
+import tud.ke.ml.project.classifier.store.ColumnarStore;
+import tud.ke.ml.project.classifier.store.MappedStore;
+import tud.ke.ml.project.classifier.store.ValueDictionary;
+
+/**
+ * Versioned binary file format of a {@link ModelSnapshot}.
+ *
+ * The file starts with a magic number and the format version, followed by the layout of the store, the values of all
+ * dictionaries in code order, the blocks of the store, the minimum and maximum of the numeric columns, the class counts
+ * and the index. The blocks are written and read as whole arrays in little-endian order through a direct buffer, so
+ * loading a model costs about as much as copying the file into memory. A mapped model only stores the path of its
+ * record file, which is mapped again on loading. The normalization and the normalized block are computed again on
+ * loading instead of being stored.
+ *
+ * The index is written as a type tag followed by its parameters and arrays, see {@link SearchIndex#write(IndexOutput)};
+ * the blocks of the store it refers to are not written again but passed to the loaded index, so it shares them again.
+ * Dictionary values and class values are written with a type tag as well, so a snapshot never holds Java serialized
+ * objects.
+ */
+final class SnapshotFormat {
+
+    private static final int MAGIC = 0x534E4E4B; // "KNNS"
+    static final int VERSION = 3;
+
+    private static final byte KIND_HEAP = 0;
+    private static final byte KIND_MAPPED = 1;
+
+    private static final byte VALUE_STRING = 0;
+    private static final byte VALUE_DOUBLE = 1;
+    private static final byte VALUE_INTEGER = 2;
+    private static final byte VALUE_LONG = 3;
+
+    private static final byte INDEX_NONE = 0;
+    private static final byte INDEX_KDTREE = 1;
+    private static final byte INDEX_VPTREE = 2;
+    private static final byte INDEX_LSH = 3;
+    private static final byte INDEX_HNSW = 4;
+    private static final byte INDEX_PQ = 5;
+    private static final byte INDEX_CLUSTER = 6;
+
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private SnapshotFormat() {
+    }
+
+    /**
+     * Writes a snapshot to a file, replacing its content.
+     *
+     * @param snapshot the snapshot
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     */
+    static void write(ModelSnapshot snapshot, File file) throws IOException {
+        if (snapshot.hasPendingChanges())
+            throw new IllegalStateException("a snapshot with added or removed rows must be compacted before writing");
+        ColumnarStore store = snapshot.getStore();
+        MappedStore mapped = snapshot.getMappedStore();
+        int numAttributes = store.getNumAttributes();
+
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(0);
+            Writer writer = new Writer(out.getChannel());
+            writer.putInt(MAGIC);
+            writer.putInt(VERSION);
+            writer.put(mapped == null ? KIND_HEAP : KIND_MAPPED);
+
+            writer.putInt(numAttributes);
+            writer.putInt(store.getClassAttribute());
+            for (int attribute = 0; attribute < numAttributes; attribute++) {
+                writer.put((byte) (store.isNumeric(attribute) ? 1 : 0));
+            }
+            for (int c = 0; c < store.getNumNominal(); c++) {
+                writeDictionary(writer, store.getDictionary(c));
+            }
+            writeDictionary(writer, store.getClassDictionary());
+
+            int size = snapshot.size();
+            writer.putInt(size);
+            if (mapped == null) {
+                writer.put((byte) (store.hasNumericData() ? 1 : 0));
+                if (store.hasNumericData())
+                    writer.putDoubles(store.getNumericData(), size * store.getNumNumeric());
+                writer.putInts(store.getNominalData(), size * store.getNumNominal());
+                writer.putInts(store.getClassData(), size);
+            } else {
+                writer.putString(mapped.getFile().getAbsolutePath());
+            }
+            double[] minimum = snapshot.getMinimum();
+            double[] maximum = snapshot.getMaximum();
+            for (int c = 0; c < store.getNumNumeric(); c++) {
+                writer.putDouble(minimum[c]);
+                writer.putDouble(maximum[c]);
+            }
+
+            Map<Object, Integer> classCounts = snapshot.getClassCounts();
+            writer.putInt(classCounts.size());
+            for (Map.Entry<Object, Integer> entry : classCounts.entrySet()) {
+                writeValue(writer, entry.getKey());
+                writer.putInt(entry.getValue());
+            }
+
+            SearchIndex index = snapshot.getIndex();
+            writer.put(indexType(index));
+            if (index != null)
+                index.write(writer);
+            writer.flush();
+        }
+    }
+
+    /**
+     * Reads a snapshot written by {@link #write(ModelSnapshot, File)}.
+     *
+     * @param file the file to read
+     * @return the snapshot
+     * @throws IOException if the file cannot be read or is not a snapshot of a supported version
+     */
+    static ModelSnapshot read(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            Reader reader = new Reader(in.getChannel());
+            if (reader.getInt() != MAGIC)
+                throw new IOException(file + " is not a model snapshot");
+            int version = reader.getInt();
+            if (version != VERSION)
+                throw new IOException("unsupported snapshot version " + version + " in " + file);
+            byte kind = reader.get();
+
+            int numAttributes = reader.getInt();
+            int classAttribute = reader.getInt();
+            boolean[] numeric = new boolean[numAttributes];
+            for (int attribute = 0; attribute < numAttributes; attribute++) {
+                numeric[attribute] = reader.get() != 0;
+            }
+            ColumnarStore layout = new ColumnarStore(numeric, classAttribute);
+            for (int c = 0; c < layout.getNumNominal(); c++) {
+                readDictionary(reader, layout.getDictionary(c));
+            }
+            readDictionary(reader, layout.getClassDictionary());
+
+            int size = reader.getInt();
+            double[] numericData = null;
+            int[] nominalData = null;
+            int[] classData = null;
+            File storeFile = null;
+            if (kind == KIND_HEAP) {
+                numericData = reader.get() != 0 ? reader.getDoubles(size * layout.getNumNumeric()) : null;
+                nominalData = reader.getInts(size * layout.getNumNominal());
+                classData = reader.getInts(size);
+            } else {
+                storeFile = new File(reader.getString());
+            }
+            double[] minimum = new double[layout.getNumNumeric()];
+            double[] maximum = new double[layout.getNumNumeric()];
+            for (int c = 0; c < minimum.length; c++) {
+                minimum[c] = reader.getDouble();
+                maximum[c] = reader.getDouble();
+            }
+            ColumnarStore store;
+            MappedStore mapped = null;
+            if (kind == KIND_HEAP) {
+                store = ColumnarStore.of(layout, numericData, nominalData, classData, size);
+            } else {
+                store = layout;
+                mapped = MappedStore.open(storeFile, layout, size, minimum, maximum);
+            }
+
+            double[][] translationScaling = ModelSnapshot.normalizationScaling(store, minimum, maximum);
+            double[] normalizedNumericData = mapped == null && store.hasNumericData()
+                    ? store.scaledNumericData(translationScaling[0], translationScaling[1]) : new double[0];
+
+            Map<Object, Integer> classCounts = new HashMap<>();
+            int numClasses = reader.getInt();
+            for (int i = 0; i < numClasses; i++) {
+                Object value = readValue(reader);
+                classCounts.put(value, reader.getInt());
+            }
+
+            SearchIndex index = readIndex(reader, store, normalizedNumericData);
+            return new ModelSnapshot(store, mapped, minimum, maximum, normalizedNumericData, classCounts, index);
+        }
+    }
+
+    private static void writeDictionary(Writer writer, ValueDictionary dictionary) throws IOException {
+        writer.putInt(dictionary.size());
+        for (int code = 0; code < dictionary.size(); code++) {
+            writeValue(writer, dictionary.decode(code));
+        }
+    }
+
+    private static void readDictionary(Reader reader, ValueDictionary dictionary) throws IOException {
+        int size = reader.getInt();
+        for (int code = 0; code < size; code++) {
+            //codes are assigned in order of first appearance, so encoding in code order restores them
+            dictionary.encode(readValue(reader));
+        }
+    }
+
+    private static void writeValue(Writer writer, Object value) throws IOException {
+        if (value instanceof String) {
+            writer.put(VALUE_STRING);
+            writer.putString((String) value);
+        } else if (value instanceof Double) {
+            writer.put(VALUE_DOUBLE);
+            writer.putDouble((Double) value);
+        } else if (value instanceof Integer) {
+            writer.put(VALUE_INTEGER);
+            writer.putInt((Integer) value);
+        } else if (value instanceof Long) {
+            writer.put(VALUE_LONG);
+            writer.putLong((Long) value);
+        } else {
+            throw new IOException("cannot write a value of type " + (value == null ? null : value.getClass().getName()));
+        }
+    }
+
+    private static Object readValue(Reader reader) throws IOException {
+        byte type = reader.get();
+        if (type == VALUE_STRING)
+            return reader.getString();
+        if (type == VALUE_DOUBLE)
+            return reader.getDouble();
+        if (type == VALUE_INTEGER)
+            return reader.getInt();
+        if (type == VALUE_LONG)
+            return reader.getLong();
+        throw new IOException("unknown value type " + type);
+    }
+
+    private static byte indexType(SearchIndex index) {
+        if (index == null)
+            return INDEX_NONE;
+        if (index instanceof KDTree)
+            return INDEX_KDTREE;
+        if (index instanceof VPTree)
+            return INDEX_VPTREE;
+        if (index instanceof LSHIndex)
+            return INDEX_LSH;
+        if (index instanceof HNSWIndex)
+            return INDEX_HNSW;
+        if (index instanceof PQIndex)
+            return INDEX_PQ;
+        if (index instanceof ClusterIndex)
+            return INDEX_CLUSTER;
+        throw new IllegalArgumentException("cannot write an index of type " + index.getClass().getName());
+    }
+
+    private static SearchIndex readIndex(Reader reader, ColumnarStore store, double[] normalized) throws IOException {
+        byte type = reader.get();
+        switch (type) {
+        case INDEX_NONE:
+            return null;
+        case INDEX_KDTREE:
+            return KDTree.read(reader, store.getNumericData(), normalized);
+        case INDEX_VPTREE:
+            return VPTree.read(reader);
+        case INDEX_LSH:
+            return LSHIndex.read(reader);
+        case INDEX_HNSW:
+            return HNSWIndex.read(reader);
+        case INDEX_PQ:
+            return PQIndex.read(reader, store.getNominalData());
+        case INDEX_CLUSTER:
+            return ClusterIndex.read(reader);
+        default:
+            throw new IOException("unknown index type " + type);
+        }
+    }
+
+    /**
+     * Buffered little-endian output to a channel with bulk transfer of arrays.
+     */
+    private static final class Writer implements IndexOutput {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        Writer(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes)
+                flush();
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        void put(byte value) throws IOException {
+            ensure(1);
+            buffer.put(value);
+        }
+
+        @Override
+        public void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        @Override
+        public void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+        }
+
+        @Override
+        public void putDouble(double value) throws IOException {
+            ensure(8);
+            buffer.putDouble(value);
+        }
+
+        void putBytes(byte[] values) throws IOException {
+            putInt(values.length);
+            for (int from = 0; from < values.length;) {
+                ensure(1);
+                int n = Math.min(values.length - from, buffer.remaining());
+                buffer.put(values, from, n);
+                from += n;
+            }
+        }
+
+        void putString(String value) throws IOException {
+            putBytes(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void putInts(int[] values, int length) throws IOException {
+            for (int from = 0; from < length;) {
+                ensure(4);
+                int n = Math.min(length - from, buffer.remaining() / 4);
+                buffer.asIntBuffer().put(values, from, n);
+                buffer.position(buffer.position() + 4 * n);
+                from += n;
+            }
+        }
+
+        void putDoubles(double[] values, int length) throws IOException {
+            for (int from = 0; from < length;) {
+                ensure(8);
+                int n = Math.min(length - from, buffer.remaining() / 8);
+                buffer.asDoubleBuffer().put(values, from, n);
+                buffer.position(buffer.position() + 8 * n);
+                from += n;
+            }
+        }
+
+        void putLongs(long[] values, int length) throws IOException {
+            for (int from = 0; from < length;) {
+                ensure(8);
+                int n = Math.min(length - from, buffer.remaining() / 8);
+                buffer.asLongBuffer().put(values, from, n);
+                buffer.position(buffer.position() + 8 * n);
+                from += n;
+            }
+        }
+
+        @Override
+        public void putIntArray(int[] values) throws IOException {
+            putInt(values.length);
+            putInts(values, values.length);
+        }
+
+        @Override
+        public void putLongArray(long[] values) throws IOException {
+            putInt(values.length);
+            putLongs(values, values.length);
+        }
+
+        @Override
+        public void putDoubleArray(double[] values) throws IOException {
+            putInt(values.length);
+            putDoubles(values, values.length);
+        }
+
+        @Override
+        public void putByteArray(byte[] values) throws IOException {
+            putBytes(values);
+        }
+    }
+
+    /**
+     * Buffered little-endian input from a channel with bulk transfer of arrays.
+     */
+    private static final class Reader implements IndexInput {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        Reader(FileChannel channel) {
+            this.channel = channel;
+            buffer.limit(0);
+        }
+
+        private void require(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes)
+                return;
+            buffer.compact();
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) < 0)
+                    throw new IOException("unexpected end of snapshot");
+            }
+            buffer.flip();
+        }
+
+        byte get() throws IOException {
+            require(1);
+            return buffer.get();
+        }
+
+        @Override
+        public int getInt() throws IOException {
+            require(4);
+            return buffer.getInt();
+        }
+
+        @Override
+        public long getLong() throws IOException {
+            require(8);
+            return buffer.getLong();
+        }
+
+        @Override
+        public double getDouble() throws IOException {
+            require(8);
+            return buffer.getDouble();
+        }
+
+        byte[] getBytes() throws IOException {
+            byte[] values = new byte[getInt()];
+            for (int from = 0; from < values.length;) {
+                require(1);
+                int n = Math.min(values.length - from, buffer.remaining());
+                buffer.get(values, from, n);
+                from += n;
+            }
+            return values;
+        }
+
+        String getString() throws IOException {
+            return new String(getBytes(), StandardCharsets.UTF_8);
+        }
+
+        int[] getInts(int length) throws IOException {
+            int[] values = new int[length];
+            for (int from = 0; from < length;) {
+                require(4);
+                int n = Math.min(length - from, buffer.remaining() / 4);
+                buffer.asIntBuffer().get(values, from, n);
+                buffer.position(buffer.position() + 4 * n);
+                from += n;
+            }
+            return values;
+        }
+
+        double[] getDoubles(int length) throws IOException {
+            double[] values = new double[length];
+            for (int from = 0; from < length;) {
+                require(8);
+                int n = Math.min(length - from, buffer.remaining() / 8);
+                buffer.asDoubleBuffer().get(values, from, n);
+                buffer.position(buffer.position() + 8 * n);
+                from += n;
+            }
+            return values;
+        }
+
+        long[] getLongs(int length) throws IOException {
+            long[] values = new long[length];
+            for (int from = 0; from < length;) {
+                require(8);
+                int n = Math.min(length - from, buffer.remaining() / 8);
+                buffer.asLongBuffer().get(values, from, n);
+                buffer.position(buffer.position() + 8 * n);
+                from += n;
+            }
+            return values;
+        }
+
+        @Override
+        public int[] getIntArray() throws IOException {
+            return getInts(getInt());
+        }
+
+        @Override
+        public long[] getLongArray() throws IOException {
+            return getLongs(getInt());
+        }
+
+        @Override
+        public double[] getDoubleArray() throws IOException {
+            return getDoubles(getInt());
+        }
+
+        @Override
+        public byte[] getByteArray() throws IOException {
+            return getBytes();
+        }
+    }
+}
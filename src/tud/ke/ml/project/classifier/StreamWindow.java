@@ -0,0 +1,170 @@
+package tud.ke.ml.project.classifier;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Keeps the model of a {@link NearestNeighbor} learning from a stream at a bounded size, see
+ * {@link NearestNeighbor#setWindowSize(int)}.
+ *
+ * The sliding window evicts the oldest remaining row. Rows are appended in their order of arrival and compaction keeps
+ * that order, so the oldest row is found by moving a cursor over the rows removed in between.
+ *
+ * The reservoir gives every class seen so far an equal share of the window. An instance of a class below its share is
+ * always added, evicting a random row of the largest class if the window is full. Once a class has filled its share,
+ * its n-th instance replaces a random row of the class with probability share / n, so the rows of the class are a
+ * uniform sample of all its instances (reservoir sampling per class).
+ *
+ * Evicting a row costs O(1). The rows of every class are listed again whenever the model was compacted, which is
+ * already O(n) and happens after a fixed fraction of the window was replaced.
+ */
+final class StreamWindow implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int policy;
+    private final int size;
+    private final Random random;
+
+    // sliding window: no remaining row lies before this one
+    private int oldest;
+
+    // reservoir: the rows of every class, may contain rows removed by NearestNeighbor#removeInstance
+    private final Map<Object, RowList> classRows = new HashMap<>();
+    // reservoir: the number of instances seen per class
+    private final Map<Object, Long> seen = new HashMap<>();
+
+    /**
+     * @param policy {@link NearestNeighbor#WINDOW_SLIDING} or {@link NearestNeighbor#WINDOW_RESERVOIR}
+     * @param size the largest number of training instances
+     * @param model the current model, whose instances count as seen
+     */
+    StreamWindow(int policy, int size, ModelSnapshot model) {
+        this.policy = policy;
+        this.size = size;
+        this.random = new Random(size);
+        for (Map.Entry<Object, Integer> entry : model.getClassCounts().entrySet()) {
+            seen.put(entry.getKey(), (long) entry.getValue());
+        }
+        reset(model);
+    }
+
+    boolean matches(int policy, int size) {
+        return this.policy == policy && this.size == size;
+    }
+
+    /**
+     * Lists the rows again after the model was compacted or replaced.
+     *
+     * @param model the model without pending changes
+     */
+    void reset(ModelSnapshot model) {
+        oldest = 0;
+        if (policy != NearestNeighbor.WINDOW_RESERVOIR)
+            return;
+        classRows.clear();
+        int classAttribute = model.getStore().getClassAttribute();
+        for (int row = 0; row < model.size(); row++) {
+            if (!model.isRemoved(row))
+                rows(model.getStore().value(row, classAttribute)).add(row);
+        }
+    }
+
+    private RowList rows(Object classValue) {
+        RowList rows = classRows.get(classValue);
+        if (rows == null) {
+            rows = new RowList();
+            classRows.put(classValue, rows);
+        }
+        return rows;
+    }
+
+    /**
+     * Adds an instance to the model, evicting rows to stay within the window.
+     *
+     * @param model the current model
+     * @param instance the instance, including its class value
+     * @return the changed model, the given model if the reservoir drops the instance
+     */
+    ModelSnapshot add(ModelSnapshot model, List<Object> instance) {
+        if (policy == NearestNeighbor.WINDOW_RESERVOIR)
+            return sample(model, instance);
+        model = model.withInstance(instance);
+        while (model.remaining() > size) {
+            while (model.isRemoved(oldest)) {
+                oldest++;
+            }
+            model = model.withoutRow(oldest++, true);
+        }
+        return model;
+    }
+
+    private ModelSnapshot sample(ModelSnapshot model, List<Object> instance) {
+        Object classValue = instance.get(model.getStore().getClassAttribute());
+        long count = seen.merge(classValue, 1L, Long::sum);
+        RowList rows = rows(classValue);
+        int share = Math.max(1, size / classRows.size());
+        //the appended instance gets the next row, removing rows does not change the row count
+        int row = model.size();
+
+        Integer remaining = model.getClassCounts().get(classValue);
+        if (remaining == null || remaining < share) {
+            model = model.withInstance(instance);
+            rows.add(row);
+            while (model.remaining() > size) {
+                model = model.withoutRow(classRows.get(largestClass(model)).removeRandom(model, random), true);
+            }
+            return model;
+        }
+        if ((long) (random.nextDouble() * count) >= share)
+            return model;
+        model = model.withoutRow(rows.removeRandom(model, random), true).withInstance(instance);
+        rows.add(row);
+        return model;
+    }
+
+    private static Object largestClass(ModelSnapshot model) {
+        Object largest = null;
+        int largestCount = 0;
+        for (Map.Entry<Object, Integer> entry : model.getClassCounts().entrySet()) {
+            if (entry.getValue() > largestCount) {
+                largest = entry.getKey();
+                largestCount = entry.getValue();
+            }
+        }
+        return largest;
+    }
+
+    /**
+     * Unordered list of rows with constant-time removal at random.
+     */
+    private static final class RowList implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private int[] rows = new int[16];
+        private int count;
+
+        void add(int row) {
+            if (count == rows.length)
+                rows = Arrays.copyOf(rows, count * 2);
+            rows[count++] = row;
+        }
+
+        /**
+         * Removes a random remaining row from the list. Rows removed from the model in the meantime are dropped on the
+         * way. The list must contain a remaining row.
+         */
+        int removeRandom(ModelSnapshot model, Random random) {
+            while (true) {
+                int i = random.nextInt(count);
+                int row = rows[i];
+                rows[i] = rows[--count];
+                if (!model.isRemoved(row))
+                    return row;
+            }
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package tud.ke.ml.project.classifier.search;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import tud.ke.ml.project.classifier.store.EncodedInstance;
+
+/**
+ * Coarse partitioning of the rows into cells around medoids, usable for any mix of nominal and numeric attributes.
+ *
+ * The cells are found with k-medoids: the medoids are seeded like k-means++ (every further medoid is drawn with
+ * probability proportional to the squared distance to the nearest medoid so far), then every row is assigned to its
+ * nearest medoid and every cell picks the member with the smallest sum of distances to a sample of the cell as its new
+ * medoid. Medoids are rows, so the index compares them with the query through the same distance as any other row and
+ * also works for nominal attributes, which have no mean.
+ *
+ * Every cell keeps its radius, the largest distance of a member to the medoid, and its members sorted by that
+ * distance. A query is compared with all medoids and visits the cells in order of medoid distance d. By the triangle
+ * inequality no member of a cell is closer than d - radius, so the cell is skipped if that bound exceeds the current
+ * k-th distance t. Within a cell only the members with a distance to the medoid in [d - t, d + t] can be closer than t.
+ * As for the {@link VPTree}, the index only answers queries for the metric and normalization it was built with.
+ */
+public class ClusterIndex implements SearchIndex {
+    private static final long serialVersionUID = 1L;
+
+    // rounds of assigning rows and moving the medoids
+    static final int ROUNDS = 3;
+    // members of a cell that are tried as its new medoid
+    static final int MEDOID_CANDIDATES = 16;
+    // members of a cell that the candidates are compared with
+    static final int MEDOID_SAMPLE = 64;
+
+    // relative tolerance for rounding differences in the triangle inequality
+    private static final double SLACK = 1e-9;
+
+    private final int metric;
+    private final boolean normalized;
+    private final int[] medoids;
+    private final double[] radii;
+    // members of cell c are rows[offsets[c]..offsets[c + 1]), sorted by their distance to the medoid
+    private final int[] offsets;
+    private final int[] rows;
+    private final double[] medoidDistances;
+
+    /**
+     * Partitions all rows into cells.
+     *
+     * @param size the number of rows
+     * @param distance the distance between the rows, defining the metric of the index
+     * @param normalized true if the distance is computed on normalized values
+     * @param cells the number of cells, 0 for the square root of the number of rows
+     */
+    public ClusterIndex(int size, RowDistance distance, boolean normalized, int cells) {
+        this.metric = distance.getMetric();
+        this.normalized = normalized;
+        if (cells <= 0)
+            cells = (int) Math.ceil(Math.sqrt(size));
+        cells = Math.max(1, Math.min(cells, size));
+        Random random = new Random(size);
+
+        int[] centers = seed(size, cells, distance, random);
+        int[] cell = new int[size];
+        double[] toCenter = new double[size];
+        assign(centers, cell, toCenter, distance);
+        for (int round = 0; round < ROUNDS && moveMedoids(centers, cell, distance, random); round++) {
+            assign(centers, cell, toCenter, distance);
+        }
+
+        //group the rows by cell, dropping cells that lost all members
+        int[] counts = new int[centers.length];
+        for (int row = 0; row < size; row++) {
+            counts[cell[row]]++;
+        }
+        int[] renumbered = new int[centers.length];
+        int used = 0;
+        for (int c = 0; c < centers.length; c++) {
+            renumbered[c] = counts[c] > 0 ? used++ : -1;
+        }
+        this.medoids = new int[used];
+        this.radii = new double[used];
+        this.offsets = new int[used + 1];
+        for (int c = 0; c < centers.length; c++) {
+            if (renumbered[c] >= 0) {
+                medoids[renumbered[c]] = centers[c];
+                offsets[renumbered[c] + 1] = counts[c];
+            }
+        }
+        for (int c = 0; c < used; c++) {
+            offsets[c + 1] += offsets[c];
+        }
+        this.rows = new int[size];
+        this.medoidDistances = new double[size];
+        int[] next = Arrays.copyOf(offsets, used);
+        for (int row = 0; row < size; row++) {
+            int c = renumbered[cell[row]];
+            rows[next[c]] = row;
+            medoidDistances[next[c]++] = toCenter[row];
+        }
+        for (int c = 0; c < used; c++) {
+            sort(rows, medoidDistances, offsets[c], offsets[c + 1]);
+            radii[c] = medoidDistances[offsets[c + 1] - 1];
+        }
+    }
+
+    private ClusterIndex(int metric, boolean normalized, int[] medoids, double[] radii, int[] offsets, int[] rows,
+            double[] medoidDistances) {
+        this.metric = metric;
+        this.normalized = normalized;
+        this.medoids = medoids;
+        this.radii = radii;
+        this.offsets = offsets;
+        this.rows = rows;
+        this.medoidDistances = medoidDistances;
+    }
+
+    /**
+     * k-means++ seeding: the first medoid is random, every further one is drawn with probability proportional to the
+     * squared distance to the nearest medoid so far.
+     */
+    private static int[] seed(int size, int cells, RowDistance distance, Random random) {
+        if (size == 0)
+            return new int[0];
+        int[] centers = new int[cells];
+        double[] nearest = new double[size];
+        Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+        centers[0] = random.nextInt(size);
+        for (int c = 1; c < cells; c++) {
+            EncodedInstance center = distance.encode(centers[c - 1]);
+            double total = 0;
+            for (int row = 0; row < size; row++) {
+                double d = distance.distance(row, center);
+                nearest[row] = Math.min(nearest[row], d * d);
+                total += nearest[row];
+            }
+            if (total == 0) {
+                //fewer distinct rows than cells
+                return Arrays.copyOf(centers, c);
+            }
+            double target = random.nextDouble() * total;
+            int row = 0;
+            while (row < size - 1 && (target -= nearest[row]) >= 0) {
+                row++;
+            }
+            //rounding may end the walk on a row that is already a medoid
+            while (nearest[row] == 0) {
+                row = (row + 1) % size;
+            }
+            centers[c] = row;
+        }
+        return centers;
+    }
+
+    private static void assign(int[] centers, int[] cell, double[] toCenter, RowDistance distance) {
+        Arrays.fill(toCenter, Double.POSITIVE_INFINITY);
+        for (int c = 0; c < centers.length; c++) {
+            EncodedInstance center = distance.encode(centers[c]);
+            for (int row = 0; row < cell.length; row++) {
+                double d = distance.distance(row, center, toCenter[row]);
+                if (d < toCenter[row]) {
+                    toCenter[row] = d;
+                    cell[row] = c;
+                }
+            }
+        }
+        //a medoid stays in its own cell even if it is a duplicate of another medoid
+        for (int c = 0; c < centers.length; c++) {
+            cell[centers[c]] = c;
+            toCenter[centers[c]] = 0;
+        }
+    }
+
+    /**
+     * Replaces every medoid by the member of its cell with the smallest sum of distances to the other members. Large
+     * cells only try and compare with random samples of their members.
+     *
+     * @return true if a medoid moved
+     */
+    private static boolean moveMedoids(int[] centers, int[] cell, RowDistance distance, Random random) {
+        int[][] members = new int[centers.length][];
+        int[] counts = new int[centers.length];
+        for (int c : cell) {
+            counts[c]++;
+        }
+        for (int c = 0; c < centers.length; c++) {
+            members[c] = new int[counts[c]];
+            counts[c] = 0;
+        }
+        for (int row = 0; row < cell.length; row++) {
+            members[cell[row]][counts[cell[row]]++] = row;
+        }
+
+        boolean moved = false;
+        for (int c = 0; c < centers.length; c++) {
+            int[] sample = sample(members[c], MEDOID_SAMPLE, random);
+            int[] candidates = sample(members[c], MEDOID_CANDIDATES, random);
+            int best = centers[c];
+            double bestCost = cost(best, sample, distance, Double.POSITIVE_INFINITY);
+            for (int candidate : candidates) {
+                double cost = cost(candidate, sample, distance, bestCost);
+                if (cost < bestCost) {
+                    best = candidate;
+                    bestCost = cost;
+                }
+            }
+            moved |= best != centers[c];
+            centers[c] = best;
+        }
+        return moved;
+    }
+
+    private static double cost(int candidate, int[] sample, RowDistance distance, double limit) {
+        EncodedInstance center = distance.encode(candidate);
+        double sum = 0;
+        for (int row : sample) {
+            sum += distance.distance(row, center);
+            if (sum >= limit)
+                return sum;
+        }
+        return sum;
+    }
+
+    private static int[] sample(int[] members, int size, Random random) {
+        if (members.length <= size)
+            return members;
+        int[] sample = members.clone();
+        for (int i = 0; i < size; i++) {
+            int j = i + random.nextInt(sample.length - i);
+            int row = sample[i];
+            sample[i] = sample[j];
+            sample[j] = row;
+        }
+        return Arrays.copyOf(sample, size);
+    }
+
+    /**
+     * Sorts ids[from..to) by their keys, keeping both arrays aligned.
+     */
+    private static void sort(int[] ids, double[] keys, int from, int to) {
+        while (to - from > 16) {
+            double pivot = keys[(from + to - 1) >>> 1];
+            int i = from, j = to - 1;
+            while (i <= j) {
+                while (keys[i] < pivot)
+                    i++;
+                while (keys[j] > pivot)
+                    j--;
+                if (i <= j)
+                    swap(ids, keys, i++, j--);
+            }
+            //recurse into the smaller part
+            if (j + 1 - from < to - i) {
+                sort(ids, keys, from, j + 1);
+                from = i;
+            } else {
+                sort(ids, keys, i, to);
+                to = j + 1;
+            }
+        }
+        for (int i = from + 1; i < to; i++) {
+            for (int j = i; j > from && keys[j - 1] > keys[j]; j--) {
+                swap(ids, keys, j - 1, j);
+            }
+        }
+    }
+
+    private static void swap(int[] ids, double[] keys, int i, int j) {
+        int id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+        double key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+    }
+
+    /**
+     * @return the number of cells
+     */
+    public int getCells() {
+        return medoids.length;
+    }
+
+    @Override
+    public boolean supports(int metric, boolean normalized) {
+        return this.metric == metric && this.normalized == normalized;
+    }
+
+    @Override
+    public void search(EncodedInstance query, RowDistance distance, NeighborHeap nearest) {
+        int cells = medoids.length;
+        double[] toMedoid = new double[cells];
+        int[] order = new int[cells];
+        for (int c = 0; c < cells; c++) {
+            toMedoid[c] = distance.distance(medoids[c], query);
+            order[c] = c;
+        }
+        sort(order, toMedoid, 0, cells);
+
+        for (int i = 0; i < cells; i++) {
+            int c = order[i];
+            double d = toMedoid[i];
+            if (pruned(d - radii[c], d + radii[c], nearest))
+                continue;
+            //members closer to the medoid than d - t cannot be within t of the query
+            int from = lowerBound(offsets[c], offsets[c + 1], d - nearest.threshold() - 2 * SLACK * d);
+            for (int m = from; m < offsets[c + 1]; m++) {
+                double r = medoidDistances[m];
+                if (pruned(r - d, r + d, nearest))
+                    break;
+                if (pruned(d - r, d + r, nearest))
+                    continue;
+                int row = rows[m];
+                nearest.offer(row, row == medoids[c] ? d : distance.distance(row, query, nearest.threshold()));
+            }
+        }
+    }
+
+    /**
+     * @return the first position in [from, to) whose distance to the medoid is at least the given one
+     */
+    private int lowerBound(int from, int to, double distance) {
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            if (medoidDistances[middle] < distance)
+                from = middle + 1;
+            else
+                to = middle;
+        }
+        return from;
+    }
+
+    /**
+     * @param bound a lower bound of the distance to the query
+     * @param scale the magnitude of the distances the bound was computed from, for the rounding tolerance
+     */
+    private static boolean pruned(double bound, double scale, NeighborHeap nearest) {
+        return bound - SLACK * scale > nearest.threshold();
+    }
+
+    @Override
+    public void write(IndexOutput out) throws IOException {
+        out.putInt(metric);
+        out.putInt(normalized ? 1 : 0);
+        out.putIntArray(medoids);
+        out.putDoubleArray(radii);
+        out.putIntArray(offsets);
+        out.putIntArray(rows);
+        out.putDoubleArray(medoidDistances);
+    }
+
+    /**
+     * Reads an index written by {@link #write(IndexOutput)}.
+     *
+     * @param in the snapshot
+     * @return the index
+     * @throws IOException if the snapshot cannot be read
+     */
+    public static ClusterIndex read(IndexInput in) throws IOException {
+        int metric = in.getInt();
+        boolean normalized = in.getInt() != 0;
+        return new ClusterIndex(metric, normalized, in.getIntArray(), in.getDoubleArray(), in.getIntArray(),
+                in.getIntArray(), in.getDoubleArray());
+    }
+}
@@ -0,0 +1,456 @@
+package tud.ke.ml.project.classifier.search;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.IntPredicate;
+
+import tud.ke.ml.project.classifier.store.EncodedInstance;
+
+/**
+ * Hierarchical navigable small world graph over the rows of a store, an approximate index for any mix of nominal and
+ * numeric attributes.
+ *
+ * Every row is a node on level 0 and, with exponentially falling probability, on the levels above. On each level a
+ * node is linked to at most M nearby nodes (2M on level 0), chosen by the heuristic of Malkov and Yashunin so the links
+ * point in different directions. A query descends greedily from the single node of the top level and then runs a
+ * best-first search on level 0 that keeps the efSearch closest nodes found so far. Queries take about logarithmic
+ * time, but a true neighbor is missed if the search does not reach it. Like the VP-tree, the graph only answers
+ * queries for the metric and normalization it was built with.
+ */
+public class HNSWIndex implements SearchIndex {
+    private static final long serialVersionUID = 1L;
+
+    private final int metric;
+    private final boolean normalized;
+    private final int maxLinks;
+    private final int efConstruction;
+    private final int efSearch;
+
+    // links[node][level] holds the number of links followed by the linked nodes
+    private final int[][][] links;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    /**
+     * Inserts all rows into the graph.
+     *
+     * @param size the number of rows
+     * @param distance the distance between the rows, defining the metric of the graph
+     * @param normalized true if the distance is computed on normalized values
+     * @param maxLinks the number of links per node and level (M), at least 2
+     * @param efConstruction the number of candidates kept while searching the links of a new node
+     * @param efSearch the number of candidates kept by {@link #search(EncodedInstance, RowDistance, NeighborHeap)}
+     */
+    public HNSWIndex(int size, RowDistance distance, boolean normalized, int maxLinks, int efConstruction, int efSearch) {
+        this.metric = distance.getMetric();
+        this.normalized = normalized;
+        this.maxLinks = Math.max(2, maxLinks);
+        this.efConstruction = Math.max(this.maxLinks, efConstruction);
+        this.efSearch = Math.max(1, efSearch);
+        this.links = new int[size][][];
+
+        Random random = new Random(size);
+        double levelMultiplier = 1 / Math.log(this.maxLinks);
+        for (int row = 0; row < size; row++) {
+            int level = (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+            insert(row, level, distance);
+        }
+    }
+
+    private HNSWIndex(int metric, boolean normalized, int maxLinks, int efConstruction, int efSearch, int[][][] links) {
+        this.metric = metric;
+        this.normalized = normalized;
+        this.maxLinks = maxLinks;
+        this.efConstruction = efConstruction;
+        this.efSearch = efSearch;
+        this.links = links;
+    }
+
+    private int capacity(int level) {
+        return level == 0 ? 2 * maxLinks : maxLinks;
+    }
+
+    private void insert(int row, int level, RowDistance distance) {
+        links[row] = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            links[row][l] = new int[1 + capacity(l)];
+        }
+        if (entryPoint < 0) {
+            entryPoint = row;
+            maxLevel = level;
+            return;
+        }
+
+        EncodedInstance query = distance.encode(row);
+        int nearest = entryPoint;
+        for (int l = maxLevel; l > level; l--) {
+            nearest = greedy(query, nearest, l, distance);
+        }
+        double nearestDistance = distance.distance(nearest, query);
+
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            Candidates found = searchLevel(query, nearest, nearestDistance, efConstruction, l, distance, null);
+            found.sort();
+            int[] selected = selectNeighbors(found.rows, found.distances, found.size, maxLinks, distance);
+            int[] rowLinks = links[row][l];
+            rowLinks[0] = selected.length;
+            System.arraycopy(selected, 0, rowLinks, 1, selected.length);
+            for (int neighbor : selected) {
+                link(neighbor, row, l, distance);
+            }
+            nearest = found.rows[0];
+            nearestDistance = found.distances[0];
+        }
+
+        if (level > maxLevel) {
+            entryPoint = row;
+            maxLevel = level;
+        }
+    }
+
+    /**
+     * Adds a link from a node to a new node, choosing the best links again if the node has too many.
+     */
+    private void link(int node, int newNode, int level, RowDistance distance) {
+        int[] nodeLinks = links[node][level];
+        int count = nodeLinks[0];
+        if (count < nodeLinks.length - 1) {
+            nodeLinks[++nodeLinks[0]] = newNode;
+            return;
+        }
+
+        EncodedInstance encoded = distance.encode(node);
+        Candidates candidates = new Candidates(count + 1);
+        for (int i = 1; i <= count; i++) {
+            candidates.add(nodeLinks[i], distance.distance(nodeLinks[i], encoded));
+        }
+        candidates.add(newNode, distance.distance(newNode, encoded));
+        candidates.sort();
+        int[] selected = selectNeighbors(candidates.rows, candidates.distances, candidates.size, capacity(level), distance);
+        nodeLinks[0] = selected.length;
+        System.arraycopy(selected, 0, nodeLinks, 1, selected.length);
+    }
+
+    /**
+     * Picks up to max candidates (sorted by their distance to the base) that are closer to the base than to every
+     * candidate picked before, then fills up with the closest of the remaining ones.
+     */
+    private static int[] selectNeighbors(int[] rows, double[] distances, int size, int max, RowDistance distance) {
+        int[] selected = new int[Math.min(size, max)];
+        EncodedInstance[] encoded = new EncodedInstance[selected.length];
+        boolean[] taken = new boolean[size];
+        int count = 0;
+        for (int i = 0; i < size && count < selected.length; i++) {
+            boolean diverse = true;
+            for (int j = 0; j < count && diverse; j++) {
+                diverse = distance.distance(rows[i], encoded[j]) >= distances[i];
+            }
+            if (diverse) {
+                taken[i] = true;
+                selected[count] = rows[i];
+                encoded[count++] = distance.encode(rows[i]);
+            }
+        }
+        for (int i = 0; i < size && count < selected.length; i++) {
+            if (!taken[i])
+                selected[count++] = rows[i];
+        }
+        return selected;
+    }
+
+    /**
+     * Follows the links of one level to the node nearest to the query, as long as the distance decreases.
+     */
+    private int greedy(EncodedInstance query, int start, int level, RowDistance distance) {
+        int current = start;
+        double currentDistance = distance.distance(current, query);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[] currentLinks = links[current][level];
+            for (int i = 1; i <= currentLinks[0]; i++) {
+                double d = distance.distance(currentLinks[i], query, currentDistance);
+                if (d < currentDistance) {
+                    current = currentLinks[i];
+                    currentDistance = d;
+                    changed = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Best-first search on one level that keeps the ef nodes nearest to the query, leaving out the excluded ones.
+     */
+    private Candidates searchLevel(EncodedInstance query, int start, double startDistance, int ef, int level,
+            RowDistance distance, IntPredicate excluded) {
+        RowSet visited = new RowSet();
+        visited.add(start);
+        Candidates candidates = new Candidates(ef);
+        Candidates found = new Candidates(ef);
+        candidates.pushMin(start, startDistance);
+        if (excluded == null || !excluded.test(start))
+            found.pushMax(start, startDistance);
+
+        while (candidates.size > 0) {
+            double candidateDistance = candidates.distances[0];
+            int candidate = candidates.popMin();
+            if (found.size >= ef && candidateDistance > found.distances[0])
+                break;
+
+            int[] candidateLinks = links[candidate][level];
+            for (int i = 1; i <= candidateLinks[0]; i++) {
+                int neighbor = candidateLinks[i];
+                if (!visited.add(neighbor))
+                    continue;
+                double bound = found.size < ef ? Double.POSITIVE_INFINITY : found.distances[0];
+                double d = distance.distance(neighbor, query, bound);
+                if (d < bound) {
+                    //removed rows take no place among the found nodes, but their links are still followed
+                    candidates.pushMin(neighbor, d);
+                    if (excluded != null && excluded.test(neighbor))
+                        continue;
+                    found.pushMax(neighbor, d);
+                    if (found.size > ef)
+                        found.popMax();
+                }
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public boolean supports(int metric, boolean normalized) {
+        return this.metric == metric && this.normalized == normalized;
+    }
+
+    @Override
+    public void search(EncodedInstance query, RowDistance distance, NeighborHeap nearest) {
+        search(query, distance, nearest, efSearch);
+    }
+
+    /**
+     * Offers the nodes found by the search on level 0 to the heap.
+     *
+     * @param breadth the number of candidates kept on level 0 (efSearch), at least k are kept
+     */
+    @Override
+    public void search(EncodedInstance query, RowDistance distance, NeighborHeap nearest, int breadth) {
+        if (entryPoint < 0)
+            return;
+        int start = entryPoint;
+        for (int l = maxLevel; l > 0; l--) {
+            start = greedy(query, start, l, distance);
+        }
+        Candidates found = searchLevel(query, start, distance.distance(start, query), Math.max(breadth, nearest.getK()), 0, distance,
+                nearest.getExcluded());
+        for (int i = 0; i < found.size; i++) {
+            nearest.offer(found.rows[i], found.distances[i]);
+        }
+    }
+
+    @Override
+    public void write(IndexOutput out) throws IOException {
+        out.putInt(metric);
+        out.putInt(normalized ? 1 : 0);
+        out.putInt(maxLinks);
+        out.putInt(efConstruction);
+        out.putInt(efSearch);
+        out.putInt(entryPoint);
+        out.putInt(maxLevel);
+        //the number of levels of every node, then the link arrays of all nodes and levels, whose length follows from
+        //the level
+        int[] levels = new int[links.length];
+        int total = 0;
+        for (int row = 0; row < links.length; row++) {
+            levels[row] = links[row].length;
+            for (int[] levelLinks : links[row]) {
+                total += levelLinks.length;
+            }
+        }
+        int[] flat = new int[total];
+        int position = 0;
+        for (int[][] rowLinks : links) {
+            for (int[] levelLinks : rowLinks) {
+                System.arraycopy(levelLinks, 0, flat, position, levelLinks.length);
+                position += levelLinks.length;
+            }
+        }
+        out.putIntArray(levels);
+        out.putIntArray(flat);
+    }
+
+    /**
+     * Reads a graph written by {@link #write(IndexOutput)}.
+     *
+     * @param in the snapshot
+     * @return the graph
+     * @throws IOException if the snapshot cannot be read
+     */
+    public static HNSWIndex read(IndexInput in) throws IOException {
+        int metric = in.getInt();
+        boolean normalized = in.getInt() != 0;
+        int maxLinks = in.getInt();
+        int efConstruction = in.getInt();
+        int efSearch = in.getInt();
+        int entryPoint = in.getInt();
+        int maxLevel = in.getInt();
+        int[] levels = in.getIntArray();
+        int[] flat = in.getIntArray();
+        HNSWIndex index = new HNSWIndex(metric, normalized, maxLinks, efConstruction, efSearch, new int[levels.length][][]);
+        int position = 0;
+        for (int row = 0; row < levels.length; row++) {
+            index.links[row] = new int[levels[row]][];
+            for (int l = 0; l < levels[row]; l++) {
+                int length = 1 + index.capacity(l);
+                index.links[row][l] = Arrays.copyOfRange(flat, position, position + length);
+                position += length;
+            }
+        }
+        index.entryPoint = entryPoint;
+        index.maxLevel = maxLevel;
+        return index;
+    }
+
+    /**
+     * Binary heap of rows and their distances, used as min-heap or max-heap by pushing and popping consistently.
+     */
+    private static final class Candidates {
+        int[] rows;
+        double[] distances;
+        int size;
+
+        Candidates(int capacity) {
+            rows = new int[Math.max(1, capacity + 1)];
+            distances = new double[rows.length];
+        }
+
+        void add(int row, double distance) {
+            if (size == rows.length) {
+                rows = Arrays.copyOf(rows, 2 * size);
+                distances = Arrays.copyOf(distances, 2 * size);
+            }
+            rows[size] = row;
+            distances[size++] = distance;
+        }
+
+        void pushMin(int row, double distance) {
+            add(row, distance);
+            siftUp(size - 1, 1);
+        }
+
+        void pushMax(int row, double distance) {
+            add(row, distance);
+            siftUp(size - 1, -1);
+        }
+
+        int popMin() {
+            return pop(1);
+        }
+
+        int popMax() {
+            return pop(-1);
+        }
+
+        private int pop(int sign) {
+            int top = rows[0];
+            size--;
+            rows[0] = rows[size];
+            distances[0] = distances[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size)
+                    break;
+                if (child + 1 < size && sign * distances[child + 1] < sign * distances[child])
+                    child++;
+                if (sign * distances[child] >= sign * distances[i])
+                    break;
+                swap(i, child);
+                i = child;
+            }
+            return top;
+        }
+
+        private void siftUp(int i, int sign) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (sign * distances[i] >= sign * distances[parent])
+                    break;
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void swap(int i, int j) {
+            int row = rows[i];
+            rows[i] = rows[j];
+            rows[j] = row;
+            double d = distances[i];
+            distances[i] = distances[j];
+            distances[j] = d;
+        }
+
+        /**
+         * Sorts the entries by distance, which destroys the heap order.
+         */
+        void sort() {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Double.compare(distances[a], distances[b]));
+            int[] sortedRows = new int[size];
+            double[] sortedDistances = new double[size];
+            for (int i = 0; i < size; i++) {
+                sortedRows[i] = rows[order[i]];
+                sortedDistances[i] = distances[order[i]];
+            }
+            rows = sortedRows;
+            distances = sortedDistances;
+        }
+    }
+
+    /**
+     * Open addressing hash set of rows, so a search only allocates in proportion to the nodes it visits.
+     */
+    private static final class RowSet {
+        private int[] slots = new int[256];
+        private int size;
+
+        RowSet() {
+            Arrays.fill(slots, -1);
+        }
+
+        /**
+         * @return true if the row was not in the set yet
+         */
+        boolean add(int row) {
+            if (2 * (size + 1) > slots.length)
+                grow();
+            int mask = slots.length - 1;
+            int i = (row * 0x9E3779B9) >>> 1 & mask;
+            while (slots[i] >= 0) {
+                if (slots[i] == row)
+                    return false;
+                i = (i + 1) & mask;
+            }
+            slots[i] = row;
+            size++;
+            return true;
+        }
+
+        private void grow() {
+            int[] old = slots;
+            slots = new int[2 * old.length];
+            Arrays.fill(slots, -1);
+            size = 0;
+            for (int row : old) {
+                if (row >= 0)
+                    add(row);
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package tud.ke.ml.project.classifier.search;
+
+import java.io.IOException;
+
+/**
+ * Source of the parameters and arrays of a {@link SearchIndex} read from a model snapshot, in the order they were
+ * written to an {@link IndexOutput}.
+ */
+public interface IndexInput {
+
+    /**
+     * @return the next value
+     * @throws IOException if the snapshot cannot be read
+     */
+    int getInt() throws IOException;
+
+    /**
+     * @return the next value
+     * @throws IOException if the snapshot cannot be read
+     */
+    long getLong() throws IOException;
+
+    /**
+     * @return the next value
+     * @throws IOException if the snapshot cannot be read
+     */
+    double getDouble() throws IOException;
+
+    /**
+     * @return the next array
+     * @throws IOException if the snapshot cannot be read
+     */
+    int[] getIntArray() throws IOException;
+
+    /**
+     * @return the next array
+     * @throws IOException if the snapshot cannot be read
+     */
+    long[] getLongArray() throws IOException;
+
+    /**
+     * @return the next array
+     * @throws IOException if the snapshot cannot be read
+     */
+    double[] getDoubleArray() throws IOException;
+
+    /**
+     * @return the next array
+     * @throws IOException if the snapshot cannot be read
+     */
+    byte[] getByteArray() throws IOException;
+}
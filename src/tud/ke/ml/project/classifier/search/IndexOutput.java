@@ -0,0 +1,52 @@
+package tud.ke.ml.project.classifier.search;
+
+import java.io.IOException;
+
+/**
+ * Destination of the parameters and arrays of a {@link SearchIndex} written to a model snapshot. Arrays are written
+ * with their length and transferred in bulk.
+ */
+public interface IndexOutput {
+
+    /**
+     * @param value the value
+     * @throws IOException if the snapshot cannot be written
+     */
+    void putInt(int value) throws IOException;
+
+    /**
+     * @param value the value
+     * @throws IOException if the snapshot cannot be written
+     */
+    void putLong(long value) throws IOException;
+
+    /**
+     * @param value the value
+     * @throws IOException if the snapshot cannot be written
+     */
+    void putDouble(double value) throws IOException;
+
+    /**
+     * @param values the array
+     * @throws IOException if the snapshot cannot be written
+     */
+    void putIntArray(int[] values) throws IOException;
+
+    /**
+     * @param values the array
+     * @throws IOException if the snapshot cannot be written
+     */
+    void putLongArray(long[] values) throws IOException;
+
+    /**
+     * @param values the array
+     * @throws IOException if the snapshot cannot be written
+     */
+    void putDoubleArray(double[] values) throws IOException;
+
+    /**
+     * @param values the array
+     * @throws IOException if the snapshot cannot be written
+     */
+    void putByteArray(byte[] values) throws IOException;
+}
@@ -0,0 +1,233 @@
+package tud.ke.ml.project.classifier.search;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import tud.ke.ml.project.classifier.store.EncodedInstance;
+
+/**
+ * KD-tree over the numeric block of a store without nominal attributes.
+ * 
+ * Inner nodes split at the median of the dimension with the largest spread, leaves hold up to {@link #LEAF_SIZE} rows.
+ * A search descends to the leaf of the query first and then visits the far side of a split only if the lower bound of
+ * the distance to that side does not exceed the current k-th distance. The bound is the incremental distance of Arya
+ * and Mount, so it works for both Manhattan and Euclidean distances.
+ */
+public class KDTree implements SearchIndex {
+    private static final long serialVersionUID = 1L;
+
+    static final int LEAF_SIZE = 16;
+
+    // relative tolerance for rounding differences between the bound and the distance kernel
+    private static final double SLACK = 1e-9;
+
+    private static class Node implements java.io.Serializable {
+        private static final long serialVersionUID = 1L;
+
+        int dimension;
+        double split;
+        Node left, right;
+        // only set for leaves
+        int[] rows;
+    }
+
+    private final double[] data;
+    private final int dimensions;
+    private final boolean normalized;
+    private final Node root;
+
+    /**
+     * Builds the tree over the given rows of a numeric block.
+     * 
+     * @param data the numeric block, row-major
+     * @param dimensions the number of values per row
+     * @param size the number of rows
+     * @param normalized true if the block holds normalized values
+     */
+    public KDTree(double[] data, int dimensions, int size, boolean normalized) {
+        this.data = data;
+        this.dimensions = dimensions;
+        this.normalized = normalized;
+        int[] rows = new int[size];
+        for (int i = 0; i < size; i++) {
+            rows[i] = i;
+        }
+        this.root = build(rows, 0, size);
+    }
+
+    private KDTree(double[] data, int dimensions, boolean normalized, Node root) {
+        this.data = data;
+        this.dimensions = dimensions;
+        this.normalized = normalized;
+        this.root = root;
+    }
+
+    private Node build(int[] rows, int from, int to) {
+        Node node = new Node();
+        int dimension = widestDimension(rows, from, to);
+        if (to - from <= LEAF_SIZE || dimension < 0) {
+            node.rows = Arrays.copyOfRange(rows, from, to);
+            return node;
+        }
+
+        int median = (from + to) / 2;
+        select(rows, from, to - 1, median, dimension);
+        node.dimension = dimension;
+        node.split = value(rows[median], dimension);
+        node.left = build(rows, from, median);
+        node.right = build(rows, median, to);
+        return node;
+    }
+
+    /**
+     * @return the dimension with the largest spread or -1 if all rows are equal
+     */
+    private int widestDimension(int[] rows, int from, int to) {
+        int widest = -1;
+        double widestSpread = 0;
+        for (int d = 0; d < dimensions; d++) {
+            double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+            for (int i = from; i < to; i++) {
+                double v = value(rows[i], d);
+                if (v < min)
+                    min = v;
+                if (v > max)
+                    max = v;
+            }
+            if (max - min > widestSpread) {
+                widestSpread = max - min;
+                widest = d;
+            }
+        }
+        return widest;
+    }
+
+    /**
+     * Reorders rows[left..right] so the row at position n has its final sorted position in the given dimension, with
+     * no larger values before and no smaller values after it.
+     */
+    private void select(int[] rows, int left, int right, int n, int dimension) {
+        while (left < right) {
+            double pivot = value(rows[(left + right) >>> 1], dimension);
+            int i = left, j = right;
+            while (i <= j) {
+                while (value(rows[i], dimension) < pivot)
+                    i++;
+                while (value(rows[j], dimension) > pivot)
+                    j--;
+                if (i <= j) {
+                    int tmp = rows[i];
+                    rows[i] = rows[j];
+                    rows[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if (n <= j)
+                right = j;
+            else if (n >= i)
+                left = i;
+            else
+                return;
+        }
+    }
+
+    private double value(int row, int dimension) {
+        return data[row * dimensions + dimension];
+    }
+
+    @Override
+    public boolean supports(int metric, boolean normalized) {
+        return this.normalized == normalized;
+    }
+
+    @Override
+    public void search(EncodedInstance query, RowDistance distance, NeighborHeap nearest) {
+        search(root, query, distance, nearest, 0, new double[dimensions]);
+    }
+
+    /**
+     * @param reduced the lower bound of the distance to the node's region, squared for Euclidean distance
+     * @param offsets the per dimension offsets of the query to the node's region
+     */
+    private void search(Node node, EncodedInstance query, RowDistance distance, NeighborHeap nearest, double reduced, double[] offsets) {
+        if (node.rows != null) {
+            for (int row : node.rows) {
+                nearest.offer(row, distance.distance(row, query, nearest.threshold()));
+            }
+            return;
+        }
+
+        double diff = query.getNumeric()[node.dimension] - node.split;
+        Node near = diff < 0 ? node.left : node.right;
+        Node far = diff < 0 ? node.right : node.left;
+        search(near, query, distance, nearest, reduced, offsets);
+
+        double oldOffset = offsets[node.dimension];
+        double newOffset = Math.abs(diff);
+        double farReduced;
+        double bound;
+        if (distance.getMetric() == 0) {
+            farReduced = reduced - oldOffset + newOffset;
+            bound = farReduced;
+        } else {
+            farReduced = reduced - oldOffset * oldOffset + newOffset * newOffset;
+            bound = Math.sqrt(Math.max(0, farReduced));
+        }
+        if (bound - bound * SLACK > nearest.threshold())
+            return;
+
+        offsets[node.dimension] = newOffset;
+        search(far, query, distance, nearest, farReduced, offsets);
+        offsets[node.dimension] = oldOffset;
+    }
+
+    @Override
+    public void write(IndexOutput out) throws IOException {
+        out.putInt(dimensions);
+        out.putInt(normalized ? 1 : 0);
+        write(root, out);
+    }
+
+    //the nodes in preorder: -1 and the rows of a leaf, or the dimension and value of a split followed by the children
+    private static void write(Node node, IndexOutput out) throws IOException {
+        if (node.rows != null) {
+            out.putInt(-1);
+            out.putIntArray(node.rows);
+            return;
+        }
+        out.putInt(node.dimension);
+        out.putDouble(node.split);
+        write(node.left, out);
+        write(node.right, out);
+    }
+
+    /**
+     * Reads a tree written by {@link #write(IndexOutput)}.
+     * 
+     * @param in the snapshot
+     * @param numericData the raw numeric block the tree was built over if it is not normalized
+     * @param normalizedData the normalized numeric block the tree was built over if it is normalized
+     * @return the tree
+     * @throws IOException if the snapshot cannot be read
+     */
+    public static KDTree read(IndexInput in, double[] numericData, double[] normalizedData) throws IOException {
+        int dimensions = in.getInt();
+        boolean normalized = in.getInt() != 0;
+        return new KDTree(normalized ? normalizedData : numericData, dimensions, normalized, readNode(in));
+    }
+
+    private static Node readNode(IndexInput in) throws IOException {
+        Node node = new Node();
+        int dimension = in.getInt();
+        if (dimension < 0) {
+            node.rows = in.getIntArray();
+            return node;
+        }
+        node.dimension = dimension;
+        node.split = in.getDouble();
+        node.left = readNode(in);
+        node.right = readNode(in);
+        return node;
+    }
+}
@@ -0,0 +1,344 @@
+package tud.ke.ml.project.classifier.search;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.IntPredicate;
+
+import tud.ke.ml.project.classifier.store.ColumnarStore;
+import tud.ke.ml.project.classifier.store.EncodedInstance;
+
+/**
+ * Locality-sensitive hashing over the rows of a store. Unlike the trees this index is approximate: it only compares
+ * the query with the rows sharing a bucket with it, so a true neighbor is missed if it falls into other buckets in
+ * every table.
+ *
+ * Every table hashes the numeric attributes with p-stable projections, h(x) = floor((a * x + b) / w), where a is drawn
+ * from a Cauchy distribution for the Manhattan and from a normal distribution for the Euclidean distance. The nominal
+ * attributes are hashed with MinHash over the set of (attribute, value) pairs, whose Jaccard similarity falls with the
+ * number of mismatching attributes. A bucket is identified by the combined hashes of a table.
+ *
+ * More tables increase the recall. Multi-probing also looks at the buckets next to the one of the query, first those
+ * whose projection is closest to a bucket border, then those a MinHash would change to with its second smallest value.
+ * If fewer than k candidates are found the query falls back to a linear scan.
+ */
+public class LSHIndex implements SearchIndex {
+    private static final long serialVersionUID = 1L;
+
+    static final int NUMERIC_HASHES = 4;
+    static final int NOMINAL_HASHES = 2;
+    // rows used to estimate the bucket widths
+    private static final int SAMPLE_SIZE = 1000;
+
+    private final int metric;
+    private final boolean normalized;
+    private final int size;
+    private final int numNumeric;
+    private final int numNominal;
+    private final int probes;
+
+    // per table: projection vectors [h * numNumeric + c], offsets and widths [h], MinHash seeds [h]
+    private final double[][] projections;
+    private final double[][] offsets;
+    private final double[][] widths;
+    private final long[][] seeds;
+
+    // per table: bucket keys in ascending order and the row of each entry
+    private final long[][] keys;
+    private final int[][] rows;
+
+    /**
+     * Hashes all rows of the store.
+     *
+     * @param store the store holding the nominal block
+     * @param numericData the numeric block to hash, laid out like {@link ColumnarStore#getNumericData()}
+     * @param metric 0 for Manhattan, 1 for Euclidean
+     * @param normalized true if the numeric block is normalized
+     * @param tables the number of hash tables, at least 1
+     * @param probes the number of neighboring buckets visited per table in addition to the bucket of the query
+     */
+    public LSHIndex(ColumnarStore store, double[] numericData, int metric, boolean normalized, int tables, int probes) {
+        this.metric = metric;
+        this.normalized = normalized;
+        this.size = store.size();
+        this.numNumeric = store.getNumNumeric();
+        this.numNominal = store.getNumNominal();
+        this.probes = Math.max(0, probes);
+        tables = Math.max(1, tables);
+
+        Random random = new Random(size);
+        projections = new double[tables][];
+        offsets = new double[tables][];
+        widths = new double[tables][];
+        seeds = new long[tables][];
+        keys = new long[tables][];
+        rows = new int[tables][];
+
+        int[] nominalData = store.getNominalData();
+        int numericHashes = numNumeric == 0 ? 0 : NUMERIC_HASHES;
+        int nominalHashes = numNominal == 0 ? 0 : NOMINAL_HASHES;
+        int[] hashes = new int[numericHashes + nominalHashes];
+        for (int t = 0; t < tables; t++) {
+            projections[t] = new double[numericHashes * numNumeric];
+            for (int i = 0; i < projections[t].length; i++) {
+                projections[t][i] = metric == 0 ? Math.tan(Math.PI * (random.nextDouble() - 0.5)) : random.nextGaussian();
+            }
+            widths[t] = estimateWidths(projections[t], numericData);
+            offsets[t] = new double[numericHashes];
+            for (int h = 0; h < numericHashes; h++) {
+                offsets[t][h] = random.nextDouble() * widths[t][h];
+            }
+            seeds[t] = new long[nominalHashes];
+            for (int h = 0; h < nominalHashes; h++) {
+                seeds[t][h] = random.nextLong();
+            }
+
+            long[] rowKeys = new long[size];
+            for (int row = 0; row < size; row++) {
+                hash(t, numericData, row * numNumeric, nominalData, row * numNominal, hashes, null, null);
+                rowKeys[row] = key(hashes);
+            }
+            sortByKey(t, rowKeys);
+        }
+    }
+
+    private LSHIndex(int metric, boolean normalized, int size, int numNumeric, int numNominal, int probes, int tables) {
+        this.metric = metric;
+        this.normalized = normalized;
+        this.size = size;
+        this.numNumeric = numNumeric;
+        this.numNominal = numNominal;
+        this.probes = probes;
+        projections = new double[tables][];
+        offsets = new double[tables][];
+        widths = new double[tables][];
+        seeds = new long[tables][];
+        keys = new long[tables][];
+        rows = new int[tables][];
+    }
+
+    /**
+     * Chooses the width of every projection as the interquartile range of the projected values of a sample of rows,
+     * so each projection splits the bulk of the data into a few buckets.
+     */
+    private double[] estimateWidths(double[] projection, double[] numericData) {
+        int numHashes = numNumeric == 0 ? 0 : projection.length / numNumeric;
+        int sample = Math.min(size, SAMPLE_SIZE);
+        int step = Math.max(1, size / Math.max(1, sample));
+        double[] values = new double[sample];
+        double[] widths = new double[numHashes];
+        for (int h = 0; h < numHashes; h++) {
+            for (int i = 0; i < sample; i++) {
+                values[i] = project(projection, h, numericData, i * step * numNumeric);
+            }
+            Arrays.sort(values);
+            double width = sample == 0 ? 0 : values[sample * 3 / 4] - values[sample / 4];
+            widths[h] = width > 0 && !Double.isInfinite(width) ? width : 1d;
+        }
+        return widths;
+    }
+
+    private double project(double[] projection, int h, double[] numeric, int offset) {
+        double sum = 0;
+        for (int c = 0; c < numNumeric; c++) {
+            sum += projection[h * numNumeric + c] * numeric[offset + c];
+        }
+        return sum;
+    }
+
+    /**
+     * Computes the hashes of one instance in one table. If the probe arrays are given, they receive for every hash the
+     * priority of its neighboring bucket (lower is visited first) and the hash identifying that bucket.
+     */
+    private void hash(int table, double[] numeric, int numericOffset, int[] nominal, int nominalOffset, int[] hashes,
+            double[] probePriorities, int[] probeHashes) {
+        int numericHashes = offsets[table].length;
+        for (int h = 0; h < numericHashes; h++) {
+            double position = (project(projections[table], h, numeric, numericOffset) + offsets[table][h]) / widths[table][h];
+            double bucket = Math.floor(position);
+            hashes[h] = (int) bucket;
+            if (probePriorities != null) {
+                double fraction = position - bucket;
+                probePriorities[h] = Math.min(fraction, 1 - fraction);
+                probeHashes[h] = fraction < 0.5 ? hashes[h] - 1 : hashes[h] + 1;
+            }
+        }
+        for (int h = 0; h < seeds[table].length; h++) {
+            long min = Long.MAX_VALUE, second = Long.MAX_VALUE;
+            for (int c = 0; c < numNominal; c++) {
+                long value = mix(seeds[table][h] + (((long) c << 32) | (nominal[nominalOffset + c] & 0xFFFFFFFFL)));
+                if (value < min) {
+                    second = min;
+                    min = value;
+                } else if (value < second) {
+                    second = value;
+                }
+            }
+            hashes[numericHashes + h] = (int) (min ^ (min >>> 32));
+            if (probePriorities != null) {
+                //every border of a projection is at most half a bucket away, so these come last
+                probePriorities[numericHashes + h] = 0.5;
+                probeHashes[numericHashes + h] = (int) (second ^ (second >>> 32));
+            }
+        }
+    }
+
+    private static long key(int[] hashes) {
+        long key = 0;
+        for (int hash : hashes) {
+            key = mix(key + hash);
+        }
+        return key;
+    }
+
+    /**
+     * The finalizer of SplitMix64, a cheap hash with good avalanche behavior.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private void sortByKey(int table, long[] rowKeys) {
+        Integer[] order = new Integer[size];
+        for (int row = 0; row < size; row++) {
+            order[row] = row;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(rowKeys[a], rowKeys[b]));
+        keys[table] = new long[size];
+        rows[table] = new int[size];
+        for (int i = 0; i < size; i++) {
+            keys[table][i] = rowKeys[order[i]];
+            rows[table][i] = order[i];
+        }
+    }
+
+    @Override
+    public boolean supports(int metric, boolean normalized) {
+        return this.metric == metric && this.normalized == normalized;
+    }
+
+    /**
+     * Offers the rows sharing a probed bucket with the query to the heap. Rows in other buckets are never offered.
+     */
+    @Override
+    public void search(EncodedInstance query, RowDistance distance, NeighborHeap nearest) {
+        int numHashes = offsets[0].length + seeds[0].length;
+        int[] hashes = new int[numHashes];
+        double[] probePriorities = new double[numHashes];
+        int[] probeHashes = new int[numHashes];
+        Integer[] order = new Integer[numHashes];
+        int probed = Math.min(probes, numHashes);
+
+        int[] candidates = new int[64];
+        int numCandidates = 0;
+        for (int t = 0; t < keys.length; t++) {
+            hash(t, query.getNumeric(), 0, query.getNominal(), 0, hashes, probePriorities, probeHashes);
+            for (int h = 0; h < numHashes; h++) {
+                order[h] = h;
+            }
+            Arrays.sort(order, (a, b) -> Double.compare(probePriorities[a], probePriorities[b]));
+
+            for (int probe = -1; probe < probed; probe++) {
+                long key;
+                if (probe < 0) {
+                    key = key(hashes);
+                } else {
+                    int h = order[probe];
+                    int hash = hashes[h];
+                    hashes[h] = probeHashes[h];
+                    key = key(hashes);
+                    hashes[h] = hash;
+                }
+
+                int from = lowerBound(keys[t], key);
+                int to = from;
+                while (to < size && keys[t][to] == key)
+                    to++;
+                if (numCandidates + to - from > candidates.length)
+                    candidates = Arrays.copyOf(candidates, Math.max(2 * candidates.length, numCandidates + to - from));
+                System.arraycopy(rows[t], from, candidates, numCandidates, to - from);
+                numCandidates += to - from;
+            }
+        }
+
+        //a row found in several tables is only offered once, removed rows are not counted as candidates
+        Arrays.sort(candidates, 0, numCandidates);
+        IntPredicate excluded = nearest.getExcluded();
+        int unique = 0, previous = -1;
+        for (int i = 0; i < numCandidates; i++) {
+            int row = candidates[i];
+            if (row != previous && (excluded == null || !excluded.test(row)))
+                candidates[unique++] = row;
+            previous = row;
+        }
+
+        if (unique < nearest.getK()) {
+            for (int row = 0; row < size; row++) {
+                nearest.offer(row, distance.distance(row, query, nearest.threshold()));
+            }
+            return;
+        }
+        for (int i = 0; i < unique; i++) {
+            nearest.offer(candidates[i], distance.distance(candidates[i], query, nearest.threshold()));
+        }
+    }
+
+    private static int lowerBound(long[] keys, long key) {
+        int low = 0, high = keys.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle] < key)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    @Override
+    public void write(IndexOutput out) throws IOException {
+        out.putInt(metric);
+        out.putInt(normalized ? 1 : 0);
+        out.putInt(size);
+        out.putInt(numNumeric);
+        out.putInt(numNominal);
+        out.putInt(probes);
+        out.putInt(keys.length);
+        for (int t = 0; t < keys.length; t++) {
+            out.putDoubleArray(projections[t]);
+            out.putDoubleArray(offsets[t]);
+            out.putDoubleArray(widths[t]);
+            out.putLongArray(seeds[t]);
+            out.putLongArray(keys[t]);
+            out.putIntArray(rows[t]);
+        }
+    }
+
+    /**
+     * Reads an index written by {@link #write(IndexOutput)}.
+     *
+     * @param in the snapshot
+     * @return the index
+     * @throws IOException if the snapshot cannot be read
+     */
+    public static LSHIndex read(IndexInput in) throws IOException {
+        int metric = in.getInt();
+        boolean normalized = in.getInt() != 0;
+        int size = in.getInt();
+        int numNumeric = in.getInt();
+        int numNominal = in.getInt();
+        int probes = in.getInt();
+        LSHIndex index = new LSHIndex(metric, normalized, size, numNumeric, numNominal, probes, in.getInt());
+        for (int t = 0; t < index.keys.length; t++) {
+            index.projections[t] = in.getDoubleArray();
+            index.offsets[t] = in.getDoubleArray();
+            index.widths[t] = in.getDoubleArray();
+            index.seeds[t] = in.getLongArray();
+            index.keys[t] = in.getLongArray();
+            index.rows[t] = in.getIntArray();
+        }
+        return index;
+    }
+}
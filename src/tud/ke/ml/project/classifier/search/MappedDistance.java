@@ -0,0 +1,114 @@
+package tud.ke.ml.project.classifier.search;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+import tud.ke.ml.project.classifier.store.EncodedInstance;
+import tud.ke.ml.project.classifier.store.MappedStore;
+
+/**
+ * The distances of {@link StoreDistance} on the records of a {@link MappedStore}.
+ *
+ * Normalized values are computed on access as <code>(x - translation) / scaling</code>, exactly like the normalized
+ * block of an in-heap model, so both models find the same neighbors.
+ */
+public class MappedDistance implements RowDistance, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // relative tolerance for rounding of the squared threshold
+    private static final double SLACK = 1e-9;
+
+    private final MappedStore store;
+    private final int metric;
+    private final int numNumeric;
+    private final int numNominal;
+    // per numeric column, null for raw values
+    private final double[] translation;
+    private final double[] scaling;
+
+    /**
+     * @param store the store to read the records from
+     * @param metric 0 for Manhattan, 1 for Euclidean
+     * @param translation the translation per attribute index, null for raw values
+     * @param scaling the scaling per attribute index, null for raw values
+     */
+    public MappedDistance(MappedStore store, int metric, double[] translation, double[] scaling) {
+        this.store = store;
+        this.metric = metric;
+        this.numNumeric = store.getLayout().getNumNumeric();
+        this.numNominal = store.getLayout().getNumNominal();
+        if (translation == null) {
+            this.translation = null;
+            this.scaling = null;
+        } else {
+            this.translation = new double[numNumeric];
+            this.scaling = new double[numNumeric];
+            for (int c = 0; c < numNumeric; c++) {
+                this.translation[c] = translation[store.getLayout().getNumericAttribute(c)];
+                this.scaling[c] = scaling[store.getLayout().getNumericAttribute(c)];
+            }
+        }
+    }
+
+    @Override
+    public int getMetric() {
+        return metric;
+    }
+
+    private double value(ByteBuffer buffer, int position, int column) {
+        double x = buffer.getDouble(position + 8 * column);
+        return translation == null ? x : (x - translation[column]) / scaling[column];
+    }
+
+    @Override
+    public EncodedInstance encode(int row) {
+        ByteBuffer buffer = store.buffer(row);
+        int position = store.position(row);
+        double[] numeric = new double[numNumeric];
+        int[] nominal = new int[numNominal];
+        for (int c = 0; c < numNumeric; c++) {
+            numeric[c] = value(buffer, position, c);
+        }
+        for (int c = 0; c < numNominal; c++) {
+            nominal[c] = buffer.getInt(position + 8 * numNumeric + 4 * c);
+        }
+        return new EncodedInstance(numeric, nominal);
+    }
+
+    @Override
+    public double distance(int row, EncodedInstance query) {
+        return distance(row, query, Double.POSITIVE_INFINITY);
+    }
+
+    @Override
+    public double distance(int row, int other) {
+        return distance(row, encode(other));
+    }
+
+    @Override
+    public double distance(int row, EncodedInstance query, double threshold) {
+        double[] numeric = query.getNumeric();
+        int[] nominal = query.getNominal();
+        ByteBuffer buffer = store.buffer(row);
+        int position = store.position(row);
+        int nominalPosition = position + 8 * numNumeric;
+        //compared with the sum of squares for the Euclidean distance, slightly enlarged against rounding
+        double limit = metric == 0 ? threshold : threshold * threshold * (1 + SLACK);
+
+        double sum = 0;
+        for (int c = 0; c < numNumeric; c++) {
+            double d = value(buffer, position, c) - numeric[c];
+            sum += metric == 0 ? Math.abs(d) : d * d;
+            if (sum > limit)
+                return metric == 0 ? sum : Double.POSITIVE_INFINITY;
+        }
+        for (int c = 0; c < numNominal; c++) {
+            if (buffer.getInt(nominalPosition + 4 * c) != nominal[c]) {
+                sum++;
+                if (sum > limit)
+                    return metric == 0 ? sum : Double.POSITIVE_INFINITY;
+            }
+        }
+        return metric == 0 ? sum : Math.sqrt(sum);
+    }
+}
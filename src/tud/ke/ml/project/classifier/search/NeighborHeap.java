@@ -0,0 +1,211 @@
+package tud.ke.ml.project.classifier.search;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Bounded selection of the k nearest neighbors.
+ * 
+ * Keeps the k smallest distances offered so far in a max-heap, plus every further candidate whose distance equals the
+ * current k-th distance, so ties at the boundary are never dropped. Offering a candidate costs O(log k) and nothing is
+ * allocated per candidate once the tie buffer has grown to its working size.
+ */
+public class NeighborHeap {
+    private final int k;
+
+    // max-heap on distance over the first heapSize entries
+    private final int[] heapRows;
+    private final double[] heapDistances;
+    private int heapSize;
+
+    // candidates beyond k whose distance equals the top of the heap
+    private int[] tieRows = new int[4];
+    private int tieSize;
+
+    // rows that are never kept, null to keep all rows
+    private IntPredicate excluded;
+
+    /**
+     * @param k the number of neighbors to keep, at least 1
+     */
+    public NeighborHeap(int k) {
+        this.k = Math.max(1, k);
+        this.heapRows = new int[this.k];
+        this.heapDistances = new double[this.k];
+    }
+
+    /**
+     * @return the number of neighbors to keep
+     */
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * Sets the rows that are ignored when offered, e.g. rows removed from the model but still stored.
+     * 
+     * @param excluded tells for every row whether it is ignored, null to keep all rows
+     */
+    public void setExcluded(IntPredicate excluded) {
+        this.excluded = excluded;
+    }
+
+    /**
+     * @return the rows that are ignored when offered, null if all rows are kept
+     */
+    public IntPredicate getExcluded() {
+        return excluded;
+    }
+
+    /**
+     * Removes all candidates so the heap can be reused for the next query.
+     */
+    public void clear() {
+        heapSize = 0;
+        tieSize = 0;
+    }
+
+    /**
+     * The distance a candidate must not exceed to be kept. Infinite until k candidates were offered.
+     * 
+     * @return the current k-th smallest distance
+     */
+    public double threshold() {
+        return heapSize < k ? Double.POSITIVE_INFINITY : heapDistances[0];
+    }
+
+    /**
+     * Offers a candidate. Candidates farther than {@link #threshold()} and excluded rows are ignored. An undefined
+     * (NaN) distance counts as infinitely far.
+     * 
+     * @param row the row of the candidate
+     * @param distance the distance of the candidate to the query
+     */
+    public void offer(int row, double distance) {
+        if (excluded != null && excluded.test(row))
+            return;
+        if (Double.isNaN(distance))
+            distance = Double.POSITIVE_INFINITY;
+        if (heapSize < k) {
+            heapRows[heapSize] = row;
+            heapDistances[heapSize] = distance;
+            siftUp(heapSize++);
+            return;
+        }
+
+        double top = heapDistances[0];
+        if (distance > top)
+            return;
+        if (distance == top) {
+            addTie(row);
+            return;
+        }
+
+        int replaced = heapRows[0];
+        heapRows[0] = row;
+        heapDistances[0] = distance;
+        siftDown(0);
+        if (heapDistances[0] == top) {
+            //the old top is still tied with the new k-th distance
+            addTie(replaced);
+        } else {
+            tieSize = 0;
+        }
+    }
+
+    private void addTie(int row) {
+        if (tieSize == tieRows.length)
+            tieRows = Arrays.copyOf(tieRows, tieSize * 2);
+        tieRows[tieSize++] = row;
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (heapDistances[parent] >= heapDistances[i])
+                break;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int largest = i;
+            int left = 2 * i + 1, right = left + 1;
+            if (left < heapSize && heapDistances[left] > heapDistances[largest])
+                largest = left;
+            if (right < heapSize && heapDistances[right] > heapDistances[largest])
+                largest = right;
+            if (largest == i)
+                return;
+            swap(i, largest);
+            i = largest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int row = heapRows[i];
+        heapRows[i] = heapRows[j];
+        heapRows[j] = row;
+        double distance = heapDistances[i];
+        heapDistances[i] = heapDistances[j];
+        heapDistances[j] = distance;
+    }
+
+    /**
+     * @return the number of kept candidates: k (or fewer if fewer were offered) plus the ties at the boundary
+     */
+    public int size() {
+        return heapSize + tieSize;
+    }
+
+    /**
+     * Returns the kept rows, ordered by distance and, for equal distances, by row.
+     * 
+     * @return the rows of the nearest neighbors
+     */
+    public int[] rows() {
+        Integer[] order = order();
+        int[] rows = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            rows[i] = row(order[i]);
+        }
+        return rows;
+    }
+
+    /**
+     * Returns the distances of the kept rows, in the same order as {@link #rows()}.
+     * 
+     * @return the distances of the nearest neighbors
+     */
+    public double[] distances() {
+        Integer[] order = order();
+        double[] distances = new double[order.length];
+        for (int i = 0; i < order.length; i++) {
+            distances[i] = distance(order[i]);
+        }
+        return distances;
+    }
+
+    private Integer[] order() {
+        Integer[] order = new Integer[size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (x, y) -> {
+            int c = Double.compare(distance(x), distance(y));
+            return c != 0 ? c : Integer.compare(row(x), row(y));
+        });
+        return order;
+    }
+
+    // entries 0..heapSize-1 are heap entries, the rest are ties
+    private int row(int entry) {
+        return entry < heapSize ? heapRows[entry] : tieRows[entry - heapSize];
+    }
+
+    private double distance(int entry) {
+        return entry < heapSize ? heapDistances[entry] : heapDistances[0];
+    }
+}
@@ -0,0 +1,257 @@
+package tud.ke.ml.project.classifier.search;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import tud.ke.ml.project.classifier.store.ColumnarStore;
+import tud.ke.ml.project.classifier.store.EncodedInstance;
+
+/**
+ * Product quantization of the numeric block of a store, an approximate index that needs one byte per row and
+ * subquantizer instead of eight bytes per row and numeric attribute.
+ *
+ * The numeric attributes are split into consecutive groups, one per subquantizer, and every group is replaced by the
+ * nearest of up to 256 centroids learned with k-means. A query computes its distance to every centroid once and then
+ * approximates the distance to a row by summing up the table entries of the row's codes (asymmetric distance
+ * computation); nominal attributes are compared exactly. If a number of candidates to re-rank is given, the rows with
+ * the smallest approximate distances are compared again with the given distance on the original values, otherwise the
+ * approximate distances are the result. Like the VP-tree, the index only answers queries for the metric and
+ * normalization it was built with.
+ */
+public class PQIndex implements SearchIndex {
+    private static final long serialVersionUID = 1L;
+
+    static final int CENTROIDS = 256;
+    // rows used to learn the centroids and k-means iterations
+    private static final int SAMPLE_SIZE = 64 * CENTROIDS;
+    private static final int ITERATIONS = 10;
+
+    private final int metric;
+    private final boolean normalized;
+    private final int size;
+    private final int numNumeric;
+    private final int numNominal;
+    private final int rerank;
+
+    // first numeric column of every subquantizer, followed by numNumeric
+    private final int[] groups;
+    // centroids[s][centroid * width(s) + i]
+    private final double[][] centroids;
+    // codes[row * subquantizers + s]
+    private final byte[] codes;
+    // the nominal block of the store, shared with it
+    private final int[] nominalData;
+
+    /**
+     * Learns the centroids and encodes all rows. The index keeps no reference to the numeric block, so the store can
+     * release it afterwards if no candidates are to be re-ranked.
+     *
+     * @param store the store holding the nominal block
+     * @param numericData the numeric block to quantize, laid out like {@link ColumnarStore#getNumericData()}
+     * @param metric 0 for Manhattan, 1 for Euclidean
+     * @param normalized true if the numeric block is normalized
+     * @param subquantizers the number of subquantizers, 0 for one per two numeric attributes
+     * @param rerank the number of candidates compared again on the original values, 0 to return the approximate distances
+     */
+    public PQIndex(ColumnarStore store, double[] numericData, int metric, boolean normalized, int subquantizers, int rerank) {
+        this.metric = metric;
+        this.normalized = normalized;
+        this.size = store.size();
+        this.numNumeric = store.getNumNumeric();
+        this.numNominal = store.getNumNominal();
+        this.rerank = Math.max(0, rerank);
+        this.nominalData = store.getNominalData();
+
+        int numGroups = subquantizers > 0 ? Math.min(subquantizers, numNumeric) : (numNumeric + 1) / 2;
+        this.groups = new int[numGroups + 1];
+        for (int s = 0; s <= numGroups; s++) {
+            groups[s] = numGroups == 0 ? 0 : s * numNumeric / numGroups;
+        }
+
+        Random random = new Random(size);
+        int[] sample = sample(random);
+        this.centroids = new double[numGroups][];
+        this.codes = new byte[size * numGroups];
+        for (int s = 0; s < numGroups; s++) {
+            centroids[s] = kMeans(s, numericData, sample, random);
+            for (int row = 0; row < size; row++) {
+                codes[row * numGroups + s] = (byte) nearestCentroid(s, numericData, row * numNumeric);
+            }
+        }
+    }
+
+    private PQIndex(int metric, boolean normalized, int size, int numNumeric, int numNominal, int rerank, int[] groups,
+            double[][] centroids, byte[] codes, int[] nominalData) {
+        this.metric = metric;
+        this.normalized = normalized;
+        this.size = size;
+        this.numNumeric = numNumeric;
+        this.numNominal = numNominal;
+        this.rerank = rerank;
+        this.groups = groups;
+        this.centroids = centroids;
+        this.codes = codes;
+        this.nominalData = nominalData;
+    }
+
+    private int[] sample(Random random) {
+        int[] sample = new int[Math.min(size, SAMPLE_SIZE)];
+        for (int i = 0; i < sample.length; i++) {
+            sample[i] = sample.length == size ? i : random.nextInt(size);
+        }
+        return sample;
+    }
+
+    private int width(int s) {
+        return groups[s + 1] - groups[s];
+    }
+
+    /**
+     * Lloyd's algorithm on one group of columns, starting from randomly chosen sample rows.
+     */
+    private double[] kMeans(int s, double[] numericData, int[] sample, Random random) {
+        int width = width(s), from = groups[s];
+        int k = Math.min(CENTROIDS, sample.length);
+        double[] means = new double[k * width];
+        for (int c = 0; c < k; c++) {
+            int row = sample[random.nextInt(sample.length)];
+            System.arraycopy(numericData, row * numNumeric + from, means, c * width, width);
+        }
+
+        double[] sums = new double[k * width];
+        int[] counts = new int[k];
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            Arrays.fill(sums, 0);
+            Arrays.fill(counts, 0);
+            for (int row : sample) {
+                int c = nearest(means, k, width, numericData, row * numNumeric + from);
+                counts[c]++;
+                for (int i = 0; i < width; i++) {
+                    sums[c * width + i] += numericData[row * numNumeric + from + i];
+                }
+            }
+            for (int c = 0; c < k; c++) {
+                //an empty cluster keeps its centroid
+                if (counts[c] == 0)
+                    continue;
+                for (int i = 0; i < width; i++) {
+                    means[c * width + i] = sums[c * width + i] / counts[c];
+                }
+            }
+        }
+        return means;
+    }
+
+    private int nearestCentroid(int s, double[] numeric, int offset) {
+        return nearest(centroids[s], centroids[s].length / Math.max(1, width(s)), width(s), numeric, offset + groups[s]);
+    }
+
+    private static int nearest(double[] means, int k, int width, double[] numeric, int offset) {
+        int best = 0;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for (int c = 0; c < k; c++) {
+            double d = 0;
+            for (int i = 0; i < width; i++) {
+                double diff = means[c * width + i] - numeric[offset + i];
+                d += diff * diff;
+            }
+            if (d < bestDistance) {
+                bestDistance = d;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public boolean supports(int metric, boolean normalized) {
+        return this.metric == metric && this.normalized == normalized;
+    }
+
+    @Override
+    public void search(EncodedInstance query, RowDistance distance, NeighborHeap nearest) {
+        double[] numeric = query.getNumeric();
+        int[] nominal = query.getNominal();
+        int numGroups = centroids.length;
+
+        //distance of the query to every centroid, squared for the Euclidean distance
+        double[][] tables = new double[numGroups][];
+        for (int s = 0; s < numGroups; s++) {
+            int width = width(s), k = centroids[s].length / Math.max(1, width);
+            tables[s] = new double[k];
+            for (int c = 0; c < k; c++) {
+                double d = 0;
+                for (int i = 0; i < width; i++) {
+                    double diff = centroids[s][c * width + i] - numeric[groups[s] + i];
+                    d += metric == 0 ? Math.abs(diff) : diff * diff;
+                }
+                tables[s][c] = d;
+            }
+        }
+
+        NeighborHeap candidates = nearest;
+        if (rerank > 0) {
+            //removed rows must not take the places of the candidates to re-rank
+            candidates = new NeighborHeap(Math.max(rerank, nearest.getK()));
+            candidates.setExcluded(nearest.getExcluded());
+        }
+        for (int row = 0; row < size; row++) {
+            //nominal mismatches add 1 to both the Manhattan distance and the squared Euclidean distance
+            double d = 0;
+            for (int c = 0; c < numNominal; c++) {
+                if (nominalData[row * numNominal + c] != nominal[c])
+                    d++;
+            }
+            for (int s = 0; s < numGroups; s++) {
+                d += tables[s][codes[row * numGroups + s] & 0xFF];
+            }
+            candidates.offer(row, metric == 0 || candidates != nearest ? d : Math.sqrt(d));
+        }
+
+        if (candidates != nearest) {
+            for (int row : candidates.rows()) {
+                nearest.offer(row, distance.distance(row, query, nearest.threshold()));
+            }
+        }
+    }
+
+    @Override
+    public void write(IndexOutput out) throws IOException {
+        out.putInt(metric);
+        out.putInt(normalized ? 1 : 0);
+        out.putInt(size);
+        out.putInt(numNumeric);
+        out.putInt(numNominal);
+        out.putInt(rerank);
+        out.putIntArray(groups);
+        for (double[] groupCentroids : centroids) {
+            out.putDoubleArray(groupCentroids);
+        }
+        out.putByteArray(codes);
+    }
+
+    /**
+     * Reads an index written by {@link #write(IndexOutput)}.
+     *
+     * @param in the snapshot
+     * @param nominalData the nominal block of the store the index was built for
+     * @return the index
+     * @throws IOException if the snapshot cannot be read
+     */
+    public static PQIndex read(IndexInput in, int[] nominalData) throws IOException {
+        int metric = in.getInt();
+        boolean normalized = in.getInt() != 0;
+        int size = in.getInt();
+        int numNumeric = in.getInt();
+        int numNominal = in.getInt();
+        int rerank = in.getInt();
+        int[] groups = in.getIntArray();
+        double[][] centroids = new double[groups.length - 1][];
+        for (int s = 0; s < centroids.length; s++) {
+            centroids[s] = in.getDoubleArray();
+        }
+        byte[] codes = in.getByteArray();
+        return new PQIndex(metric, normalized, size, numNumeric, numNominal, rerank, groups, centroids, codes, nominalData);
+    }
+}
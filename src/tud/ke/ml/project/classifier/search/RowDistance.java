@@ -0,0 +1,45 @@
+package tud.ke.ml.project.classifier.search;
+
+import tud.ke.ml.project.classifier.store.EncodedInstance;
+
+/**
+ * Distance between a stored training instance and an encoded query, as used by the search indexes.
+ */
+public interface RowDistance {
+
+    /**
+     * @return 0 for Manhattan, 1 for Euclidean
+     */
+    int getMetric();
+
+    /**
+     * @param row the row of the stored instance
+     * @param query the encoded query
+     * @return the distance
+     */
+    double distance(int row, EncodedInstance query);
+
+    /**
+     * Computes the distance only as far as needed to compare it with a threshold: once the distance is known to be
+     * greater than the threshold, computation may stop and any value greater than the threshold is returned.
+     * 
+     * @param row the row of the stored instance
+     * @param query the encoded query
+     * @param threshold the distance of the current k-th nearest neighbor
+     * @return the distance, or a value greater than the threshold
+     */
+    double distance(int row, EncodedInstance query, double threshold);
+
+    /**
+     * @param row the row of a stored instance
+     * @return the stored instance encoded like a query
+     */
+    EncodedInstance encode(int row);
+
+    /**
+     * @param row the row of the first stored instance
+     * @param other the row of the second stored instance
+     * @return the distance
+     */
+    double distance(int row, int other);
+}
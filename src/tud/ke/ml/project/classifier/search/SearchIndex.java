@@ -0,0 +1,54 @@
+package tud.ke.ml.project.classifier.search;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+import tud.ke.ml.project.classifier.store.EncodedInstance;
+
+/**
+ * An index over the training instances that answers k nearest neighbor queries without looking at every row. The
+ * answers are exact unless the implementation states otherwise.
+ */
+public interface SearchIndex extends Serializable {
+
+    /**
+     * Determines if the index can answer queries for the given configuration.
+     * 
+     * @param metric 0 for Manhattan, 1 for Euclidean
+     * @param normalized true if the distances are computed on normalized values
+     * @return true if the index can be used
+     */
+    boolean supports(int metric, boolean normalized);
+
+    /**
+     * Offers every row that may be among the nearest neighbors of the query to the heap. Rows are only skipped if their
+     * distance is guaranteed to exceed the threshold of the heap, so ties are preserved.
+     * 
+     * @param query the encoded query
+     * @param distance the distance used to compare rows with the query
+     * @param nearest the heap collecting the nearest neighbors
+     */
+    void search(EncodedInstance query, RowDistance distance, NeighborHeap nearest);
+
+    /**
+     * Like {@link #search(EncodedInstance, RowDistance, NeighborHeap)}, but lets approximate indexes trade recall for
+     * speed. Exact indexes ignore the breadth.
+     * 
+     * @param query the encoded query
+     * @param distance the distance used to compare rows with the query
+     * @param nearest the heap collecting the nearest neighbors
+     * @param breadth the number of candidates an approximate index keeps while searching
+     */
+    default void search(EncodedInstance query, RowDistance distance, NeighborHeap nearest, int breadth) {
+        search(query, distance, nearest);
+    }
+
+    /**
+     * Writes the parameters and arrays of the index to a model snapshot; every implementation reads them back with a
+     * static read method. Blocks of the store the index refers to are not written, they are passed to the read method.
+     * 
+     * @param out the snapshot
+     * @throws IOException if the snapshot cannot be written
+     */
+    void write(IndexOutput out) throws IOException;
+}
@@ -0,0 +1,251 @@
+package tud.ke.ml.project.classifier.search;
+
+import java.io.Serializable;
+
+import tud.ke.ml.project.classifier.store.ColumnarStore;
+import tud.ke.ml.project.classifier.store.EncodedInstance;
+import tud.ke.ml.project.classifier.store.NominalBitset;
+
+/**
+ * Distance kernels over the blocks of a {@link ColumnarStore}.
+ * 
+ * Numeric attributes contribute their absolute difference, nominal attributes 0 if the codes are equal and 1
+ * otherwise. If a {@link NominalBitset} of the store is given, the nominal mismatches of the rows it covers are counted
+ * with a few popcounts on the packed words instead of one comparison per attribute. The numeric values are read from
+ * the given numeric block, which is either the raw block of the store or a normalized copy of it. Given a translation
+ * and scaling, the kernel normalizes the raw block on access as <code>(x - translation) * (1 / scaling)</code> per
+ * numeric column instead, so a changed normalization does not require a new normalized block. Instances are
+ * immutable and can be shared between threads.
+ * 
+ * The thresholded kernels stop accumulating as soon as the partial sum exceeds the distance of the current k-th
+ * neighbor. The Euclidean kernel compares its partial sum of squares with the squared threshold and only takes the
+ * square root of rows that survive.
+ */
+public class StoreDistance implements RowDistance, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // relative tolerance for rounding of the squared threshold
+    protected static final double SLACK = 1e-9;
+
+    protected final ColumnarStore store;
+    protected final double[] numericData;
+    protected final int metric;
+    // null to compare the nominal codes one by one
+    protected final NominalBitset nominalBits;
+    // per numeric column, null to use the values of the block as they are
+    protected final double[] translation;
+    protected final double[] weight;
+
+    /**
+     * @param store the store holding the nominal block
+     * @param numericData the numeric block to compare with, laid out like {@link ColumnarStore#getNumericData()}
+     * @param metric 0 for Manhattan, 1 for Euclidean
+     */
+    public StoreDistance(ColumnarStore store, double[] numericData, int metric) {
+        this(store, numericData, metric, null);
+    }
+
+    /**
+     * @param store the store holding the nominal block
+     * @param numericData the numeric block to compare with, laid out like {@link ColumnarStore#getNumericData()}
+     * @param metric 0 for Manhattan, 1 for Euclidean
+     * @param nominalBits the packed nominal block of the store, or null
+     */
+    public StoreDistance(ColumnarStore store, double[] numericData, int metric, NominalBitset nominalBits) {
+        this(store, numericData, metric, nominalBits, null, null);
+    }
+
+    /**
+     * @param store the store holding the nominal block
+     * @param numericData the numeric block to compare with, laid out like {@link ColumnarStore#getNumericData()}
+     * @param metric 0 for Manhattan, 1 for Euclidean
+     * @param nominalBits the packed nominal block of the store, or null
+     * @param translation the translation per attribute index, null for the values of the block
+     * @param scaling the scaling per attribute index, null for the values of the block
+     */
+    public StoreDistance(ColumnarStore store, double[] numericData, int metric, NominalBitset nominalBits,
+            double[] translation, double[] scaling) {
+        this.store = store;
+        this.numericData = numericData;
+        this.metric = metric;
+        this.nominalBits = nominalBits;
+        if (translation == null) {
+            this.translation = null;
+            this.weight = null;
+        } else {
+            int numNumeric = store.getNumNumeric();
+            this.translation = new double[numNumeric];
+            this.weight = new double[numNumeric];
+            for (int c = 0; c < numNumeric; c++) {
+                this.translation[c] = translation[store.getNumericAttribute(c)];
+                this.weight[c] = 1d / scaling[store.getNumericAttribute(c)];
+            }
+        }
+    }
+
+    @Override
+    public int getMetric() {
+        return metric;
+    }
+
+    @Override
+    public double distance(int row, EncodedInstance query) {
+        if (metric == 0)
+            return manhattan(row, query);
+        else
+            return euclidean(row, query);
+    }
+
+    @Override
+    public double distance(int row, EncodedInstance query, double threshold) {
+        if (metric == 0)
+            return manhattan(row, query, threshold);
+        else
+            return euclidean(row, query, threshold);
+    }
+
+    private double value(int position, int column) {
+        double x = numericData[position];
+        return weight == null ? x : (x - translation[column]) * weight[column];
+    }
+
+    @Override
+    public EncodedInstance encode(int row) {
+        EncodedInstance encoded = store.encode(row, numericData);
+        if (weight != null) {
+            double[] numeric = encoded.getNumeric();
+            for (int c = 0; c < numeric.length; c++) {
+                numeric[c] = (numeric[c] - translation[c]) * weight[c];
+            }
+        }
+        return encoded;
+    }
+
+    @Override
+    public double distance(int row, int other) {
+        return distance(row, encode(other));
+    }
+
+    /**
+     * @param row the row of the stored instance
+     * @param query the encoded query
+     * @return the Manhattan distance
+     */
+    public double manhattan(int row, EncodedInstance query) {
+        double[] numeric = query.getNumeric();
+        int[] nominal = query.getNominal();
+        int[] nominalData = store.getNominalData();
+        int numericOffset = row * numeric.length, nominalOffset = row * nominal.length;
+
+        double sum = 0;
+        for (int c = 0; c < numeric.length; c++) {
+            sum += Math.abs(value(numericOffset + c, c) - numeric[c]);
+        }
+        if (isPacked(row))
+            return sum + nominalBits.mismatches(row, query.getPackedNominal(nominalBits));
+        for (int c = 0; c < nominal.length; c++) {
+            if (nominalData[nominalOffset + c] != nominal[c])
+                sum++;
+        }
+        return sum;
+    }
+
+    /**
+     * @param row the row of the stored instance
+     * @param query the encoded query
+     * @return the Euclidean distance
+     */
+    public double euclidean(int row, EncodedInstance query) {
+        double[] numeric = query.getNumeric();
+        int[] nominal = query.getNominal();
+        int[] nominalData = store.getNominalData();
+        int numericOffset = row * numeric.length, nominalOffset = row * nominal.length;
+
+        double sum = 0;
+        for (int c = 0; c < numeric.length; c++) {
+            double d = value(numericOffset + c, c) - numeric[c];
+            sum += d * d;
+        }
+        if (isPacked(row))
+            return Math.sqrt(sum + nominalBits.mismatches(row, query.getPackedNominal(nominalBits)));
+        for (int c = 0; c < nominal.length; c++) {
+            if (nominalData[nominalOffset + c] != nominal[c])
+                sum++;
+        }
+        return Math.sqrt(sum);
+    }
+
+    /**
+     * @param row the row of the stored instance
+     * @param query the encoded query
+     * @param threshold the distance of the current k-th neighbor
+     * @return the Manhattan distance, or a partial sum greater than the threshold
+     */
+    public double manhattan(int row, EncodedInstance query, double threshold) {
+        double[] numeric = query.getNumeric();
+        int[] nominal = query.getNominal();
+        int[] nominalData = store.getNominalData();
+        int numericOffset = row * numeric.length, nominalOffset = row * nominal.length;
+
+        //the partial sum of non-negative terms never decreases, so it is a lower bound of the distance
+        double sum = 0;
+        for (int c = 0; c < numeric.length; c++) {
+            sum += Math.abs(value(numericOffset + c, c) - numeric[c]);
+            if (sum > threshold)
+                return sum;
+        }
+        if (isPacked(row))
+            return sum + nominalBits.mismatches(row, query.getPackedNominal(nominalBits));
+        for (int c = 0; c < nominal.length; c++) {
+            if (nominalData[nominalOffset + c] != nominal[c]) {
+                sum++;
+                if (sum > threshold)
+                    return sum;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * @param row the row of the stored instance
+     * @param query the encoded query
+     * @param threshold the distance of the current k-th neighbor
+     * @return the Euclidean distance, or a value greater than the threshold
+     */
+    public double euclidean(int row, EncodedInstance query, double threshold) {
+        double[] numeric = query.getNumeric();
+        int[] nominal = query.getNominal();
+        int[] nominalData = store.getNominalData();
+        int numericOffset = row * numeric.length, nominalOffset = row * nominal.length;
+        //slightly enlarged so rounding of the square never drops a row whose root equals the threshold
+        double limit = threshold * threshold * (1 + SLACK);
+
+        double sum = 0;
+        for (int c = 0; c < numeric.length; c++) {
+            double d = value(numericOffset + c, c) - numeric[c];
+            sum += d * d;
+            if (sum > limit)
+                return Double.POSITIVE_INFINITY;
+        }
+        if (isPacked(row)) {
+            sum += nominalBits.mismatches(row, query.getPackedNominal(nominalBits));
+            return sum > limit ? Double.POSITIVE_INFINITY : Math.sqrt(sum);
+        }
+        for (int c = 0; c < nominal.length; c++) {
+            if (nominalData[nominalOffset + c] != nominal[c]) {
+                sum++;
+                if (sum > limit)
+                    return Double.POSITIVE_INFINITY;
+            }
+        }
+        return Math.sqrt(sum);
+    }
+
+    /**
+     * @param row the row of the stored instance
+     * @return true if the nominal mismatches of the row are counted on the packed block
+     */
+    protected boolean isPacked(int row) {
+        return nominalBits != null && row < nominalBits.size();
+    }
+}
@@ -0,0 +1,235 @@
+package tud.ke.ml.project.classifier.search;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import tud.ke.ml.project.classifier.store.EncodedInstance;
+
+/**
+ * Vantage-point tree over the rows of a store, usable for any mix of nominal and numeric attributes.
+ * 
+ * Every inner node picks a vantage point and splits the remaining rows at the median of their distance to it. For
+ * both children the node keeps the smallest and largest distance to the vantage point, so by the triangle inequality
+ * a child can be skipped if the query is too far from that distance band. This relies on the distance being a metric,
+ * which holds for the Manhattan and Euclidean distance with 0/1 differences for nominal attributes. Because the tree
+ * is built with one distance, it only answers queries for the metric and normalization it was built with.
+ */
+public class VPTree implements SearchIndex {
+    private static final long serialVersionUID = 1L;
+
+    static final int LEAF_SIZE = 16;
+
+    // relative tolerance for rounding differences in the triangle inequality
+    private static final double SLACK = 1e-9;
+
+    private static class Node implements java.io.Serializable {
+        private static final long serialVersionUID = 1L;
+
+        int vantagePoint;
+        // distance band of each child to the vantage point
+        double insideMin, insideMax, outsideMin, outsideMax;
+        Node inside, outside;
+        // only set for leaves
+        int[] rows;
+    }
+
+    private final int metric;
+    private final boolean normalized;
+    private final Node root;
+
+    /**
+     * Builds the tree over all rows.
+     * 
+     * @param size the number of rows
+     * @param distance the distance between the rows, defining the metric of the tree
+     * @param normalized true if the distance is computed on normalized values
+     */
+    public VPTree(int size, RowDistance distance, boolean normalized) {
+        this.metric = distance.getMetric();
+        this.normalized = normalized;
+        int[] rows = new int[size];
+        for (int i = 0; i < size; i++) {
+            rows[i] = i;
+        }
+        this.root = build(rows, new double[size], 0, size, distance, new Random(size));
+    }
+
+    private VPTree(int metric, boolean normalized, Node root) {
+        this.metric = metric;
+        this.normalized = normalized;
+        this.root = root;
+    }
+
+    private Node build(int[] rows, double[] distances, int from, int to, RowDistance distance, Random random) {
+        Node node = new Node();
+        if (to - from <= LEAF_SIZE) {
+            node.rows = Arrays.copyOfRange(rows, from, to);
+            return node;
+        }
+
+        //move a random vantage point to the front and sort the others by their distance to it
+        swap(rows, distances, from, from + random.nextInt(to - from));
+        node.vantagePoint = rows[from];
+        EncodedInstance vantagePoint = distance.encode(node.vantagePoint);
+        for (int i = from + 1; i < to; i++) {
+            distances[i] = distance.distance(rows[i], vantagePoint);
+        }
+        int median = (from + 1 + to) / 2;
+        select(rows, distances, from + 1, to - 1, median);
+
+        node.insideMin = min(distances, from + 1, median);
+        node.insideMax = max(distances, from + 1, median);
+        node.outsideMin = min(distances, median, to);
+        node.outsideMax = max(distances, median, to);
+        node.inside = build(rows, distances, from + 1, median, distance, random);
+        node.outside = build(rows, distances, median, to, distance, random);
+        return node;
+    }
+
+    private static double min(double[] distances, int from, int to) {
+        double min = Double.POSITIVE_INFINITY;
+        for (int i = from; i < to; i++) {
+            min = Math.min(min, distances[i]);
+        }
+        return min;
+    }
+
+    private static double max(double[] distances, int from, int to) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = from; i < to; i++) {
+            max = Math.max(max, distances[i]);
+        }
+        return max;
+    }
+
+    /**
+     * Reorders rows[left..right] (and their distances) so position n holds the n-th smallest distance.
+     */
+    private static void select(int[] rows, double[] distances, int left, int right, int n) {
+        while (left < right) {
+            double pivot = distances[(left + right) >>> 1];
+            int i = left, j = right;
+            while (i <= j) {
+                while (distances[i] < pivot)
+                    i++;
+                while (distances[j] > pivot)
+                    j--;
+                if (i <= j)
+                    swap(rows, distances, i++, j--);
+            }
+            if (n <= j)
+                right = j;
+            else if (n >= i)
+                left = i;
+            else
+                return;
+        }
+    }
+
+    private static void swap(int[] rows, double[] distances, int i, int j) {
+        int row = rows[i];
+        rows[i] = rows[j];
+        rows[j] = row;
+        double d = distances[i];
+        distances[i] = distances[j];
+        distances[j] = d;
+    }
+
+    @Override
+    public boolean supports(int metric, boolean normalized) {
+        return this.metric == metric && this.normalized == normalized;
+    }
+
+    @Override
+    public void search(EncodedInstance query, RowDistance distance, NeighborHeap nearest) {
+        search(root, query, distance, nearest);
+    }
+
+    private void search(Node node, EncodedInstance query, RowDistance distance, NeighborHeap nearest) {
+        if (node.rows != null) {
+            for (int row : node.rows) {
+                nearest.offer(row, distance.distance(row, query, nearest.threshold()));
+            }
+            return;
+        }
+
+        double d = distance.distance(node.vantagePoint, query);
+        nearest.offer(node.vantagePoint, d);
+
+        //visit the child whose distance band contains the query first
+        if (d <= node.insideMax) {
+            if (!pruned(d, node.insideMin, node.insideMax, nearest))
+                search(node.inside, query, distance, nearest);
+            if (!pruned(d, node.outsideMin, node.outsideMax, nearest))
+                search(node.outside, query, distance, nearest);
+        } else {
+            if (!pruned(d, node.outsideMin, node.outsideMax, nearest))
+                search(node.outside, query, distance, nearest);
+            if (!pruned(d, node.insideMin, node.insideMax, nearest))
+                search(node.inside, query, distance, nearest);
+        }
+    }
+
+    /**
+     * By the triangle inequality every row of a child with distance band [min, max] to the vantage point has at least
+     * the distance max(d - max, min - d) to the query.
+     */
+    private static boolean pruned(double d, double min, double max, NeighborHeap nearest) {
+        double bound = Math.max(d - max, min - d);
+        return bound - SLACK * (d + max) > nearest.threshold();
+    }
+
+    @Override
+    public void write(IndexOutput out) throws IOException {
+        out.putInt(metric);
+        out.putInt(normalized ? 1 : 0);
+        write(root, out);
+    }
+
+    //the nodes in preorder: -1 and the rows of a leaf, or the vantage point and distance bands followed by the children
+    private static void write(Node node, IndexOutput out) throws IOException {
+        if (node.rows != null) {
+            out.putInt(-1);
+            out.putIntArray(node.rows);
+            return;
+        }
+        out.putInt(node.vantagePoint);
+        out.putDouble(node.insideMin);
+        out.putDouble(node.insideMax);
+        out.putDouble(node.outsideMin);
+        out.putDouble(node.outsideMax);
+        write(node.inside, out);
+        write(node.outside, out);
+    }
+
+    /**
+     * Reads a tree written by {@link #write(IndexOutput)}.
+     * 
+     * @param in the snapshot
+     * @return the tree
+     * @throws IOException if the snapshot cannot be read
+     */
+    public static VPTree read(IndexInput in) throws IOException {
+        int metric = in.getInt();
+        boolean normalized = in.getInt() != 0;
+        return new VPTree(metric, normalized, readNode(in));
+    }
+
+    private static Node readNode(IndexInput in) throws IOException {
+        Node node = new Node();
+        int vantagePoint = in.getInt();
+        if (vantagePoint < 0) {
+            node.rows = in.getIntArray();
+            return node;
+        }
+        node.vantagePoint = vantagePoint;
+        node.insideMin = in.getDouble();
+        node.insideMax = in.getDouble();
+        node.outsideMin = in.getDouble();
+        node.outsideMax = in.getDouble();
+        node.inside = readNode(in);
+        node.outside = readNode(in);
+        return node;
+    }
+}
@@ -0,0 +1,487 @@
+package tud.ke.ml.project.classifier.store;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Primitive storage for the training instances of the nearest neighbor classifier.
+ * 
+ * The attribute values are split by type into three blocks: a <code>double[]</code> block holding the numeric attributes,
+ * an <code>int[]</code> block holding the dictionary codes of the nominal attributes and an <code>int[]</code> column
+ * holding the class codes. Inside a block the values of one instance are stored next to each other, so a distance
+ * computation reads one contiguous range per block.
+ * 
+ * The type of every attribute is taken from the first instance: {@link Double} values are numeric, everything else is
+ * treated as nominal.
+ */
+public class ColumnarStore implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int numAttributes;
+    private final int classAttribute;
+
+    // attribute index -> column in the numeric or nominal block, -1 for the class attribute
+    private final int[] columnOf;
+    private final boolean[] numeric;
+    // column in the numeric or nominal block -> attribute index
+    private final int[] numericAttributes;
+    private final int[] nominalAttributes;
+
+    private final ValueDictionary[] dictionaries;
+    private final ValueDictionary classDictionary;
+
+    private double[] numericData;
+    private int[] nominalData;
+    private int[] classData;
+    private int size;
+    private boolean hasNumericData = true;
+
+    /**
+     * Creates an empty store whose layout is derived from the given prototype instance.
+     * 
+     * @param prototype an instance with {@link Double} values for numeric attributes
+     * @param classAttribute the index of the class attribute
+     */
+    public ColumnarStore(List<Object> prototype, int classAttribute) {
+        this(numericAttributes(prototype, classAttribute), classAttribute);
+    }
+
+    private static boolean[] numericAttributes(List<Object> prototype, int classAttribute) {
+        boolean[] numeric = new boolean[prototype.size()];
+        int index = 0;
+        for (Object o : prototype) {
+            numeric[index] = index != classAttribute && o instanceof Double;
+            index++;
+        }
+        return numeric;
+    }
+
+    /**
+     * Creates an empty store with the given layout.
+     * 
+     * @param numeric true for every numeric non-class attribute
+     * @param classAttribute the index of the class attribute
+     */
+    public ColumnarStore(boolean[] numeric, int classAttribute) {
+        this.numAttributes = numeric.length;
+        this.classAttribute = classAttribute;
+        this.classDictionary = new ValueDictionary();
+        this.columnOf = new int[numAttributes];
+        this.numeric = numeric.clone();
+
+        int numNumeric = 0, numNominal = 0;
+        for (int index = 0; index < numAttributes; index++) {
+            if (index == classAttribute) {
+                this.numeric[index] = false;
+                columnOf[index] = -1;
+            } else if (numeric[index]) {
+                columnOf[index] = numNumeric++;
+            } else {
+                columnOf[index] = numNominal++;
+            }
+        }
+
+        this.numericAttributes = new int[numNumeric];
+        this.nominalAttributes = new int[numNominal];
+        for (int i = 0; i < numAttributes; i++) {
+            if (i == classAttribute)
+                continue;
+            if (numeric[i])
+                numericAttributes[columnOf[i]] = i;
+            else
+                nominalAttributes[columnOf[i]] = i;
+        }
+
+        this.dictionaries = new ValueDictionary[numNominal];
+        for (int i = 0; i < numNominal; i++) {
+            dictionaries[i] = new ValueDictionary();
+        }
+
+        this.numericData = new double[INITIAL_CAPACITY * numNumeric];
+        this.nominalData = new int[INITIAL_CAPACITY * numNominal];
+        this.classData = new int[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Copies the layout, the dictionaries and the nominal and class blocks of another store, which are shared.
+     */
+    private ColumnarStore(ColumnarStore other) {
+        this(other, other.dictionaries, other.classDictionary);
+    }
+
+    private ColumnarStore(ColumnarStore other, ValueDictionary[] dictionaries, ValueDictionary classDictionary) {
+        this.numAttributes = other.numAttributes;
+        this.classAttribute = other.classAttribute;
+        this.columnOf = other.columnOf;
+        this.numeric = other.numeric;
+        this.numericAttributes = other.numericAttributes;
+        this.nominalAttributes = other.nominalAttributes;
+        this.dictionaries = dictionaries;
+        this.classDictionary = classDictionary;
+        this.numericData = other.numericData;
+        this.nominalData = other.nominalData;
+        this.classData = other.classData;
+        this.size = other.size;
+        this.hasNumericData = other.hasNumericData;
+    }
+
+    /**
+     * Creates a store from its blocks, e.g. when loading a saved model. The blocks are used, not copied.
+     * 
+     * @param layout an empty store describing the layout and holding the dictionaries
+     * @param numericData the numeric block, null if it was released (see {@link #withoutNumericData()})
+     * @param nominalData the nominal block
+     * @param classData the class codes
+     * @param size the number of rows in the blocks
+     * @return the store
+     */
+    public static ColumnarStore of(ColumnarStore layout, double[] numericData, int[] nominalData, int[] classData, int size) {
+        ColumnarStore store = new ColumnarStore(layout);
+        store.numericData = numericData == null ? new double[0] : numericData;
+        store.hasNumericData = numericData != null;
+        store.nominalData = nominalData;
+        store.classData = classData;
+        store.size = size;
+        return store;
+    }
+
+    /**
+     * Creates a store holding all the given instances.
+     * 
+     * @param data the training instances, must not be empty
+     * @param classAttribute the index of the class attribute
+     * @return the filled store
+     */
+    public static ColumnarStore of(List<List<Object>> data, int classAttribute) {
+        ColumnarStore store = new ColumnarStore(data.get(0), classAttribute);
+        store.ensureCapacity(data.size());
+        for (List<Object> instance : data) {
+            store.add(instance);
+        }
+        return store;
+    }
+
+    /**
+     * Creates a store holding the instances of a stream, e.g. rows read one by one from a file. The blocks grow by half
+     * their size and are trimmed at the end, so the peak memory stays close to the size of the filled store and no
+     * instance needs to be kept after it was added.
+     * 
+     * @param instances the training instances, must not be empty; they are read once, in order
+     * @param classAttribute the index of the class attribute
+     * @return the filled store
+     */
+    public static ColumnarStore of(Iterator<List<Object>> instances, int classAttribute) {
+        if (!instances.hasNext())
+            throw new IllegalArgumentException("a store needs at least one instance to determine its layout");
+        List<Object> instance = instances.next();
+        ColumnarStore store = new ColumnarStore(instance, classAttribute);
+        store.add(instance);
+        while (instances.hasNext()) {
+            store.add(instances.next());
+        }
+        store.trimToSize();
+        return store;
+    }
+
+    /**
+     * Appends an instance to the store. Not possible for a store returned by {@link #withoutNumericData()}.
+     * 
+     * @param instance the instance, including its class value
+     */
+    public void add(List<Object> instance) {
+        if (!hasNumericData)
+            throw new IllegalStateException("the numeric block of this store was released");
+        ensureCapacity(size + 1);
+        int numNumeric = numericAttributes.length, numNominal = nominalAttributes.length;
+        for (int c = 0; c < numNumeric; c++) {
+            numericData[size * numNumeric + c] = (Double) instance.get(numericAttributes[c]);
+        }
+        for (int c = 0; c < numNominal; c++) {
+            nominalData[size * numNominal + c] = dictionaries[c].encode(instance.get(nominalAttributes[c]));
+        }
+        classData[size] = classDictionary.encode(instance.get(classAttribute));
+        size++;
+    }
+
+    /**
+     * Creates a store holding the rows of this store and one more instance, without modifying this store. The blocks
+     * are shared as long as their capacity suffices: the new row is written behind the rows of this store, where no
+     * reader of this store looks. A dictionary is copied before a new value is added to it. Appending costs amortized
+     * O(1), but only the most recent store of a chain may be appended to, otherwise rows would be overwritten.
+     * 
+     * @param instance the instance, including its class value
+     * @return the store with the appended instance
+     */
+    public ColumnarStore append(List<Object> instance) {
+        ValueDictionary[] appendedDictionaries = dictionaries;
+        for (int c = 0; c < nominalAttributes.length; c++) {
+            if (dictionaries[c].lookup(instance.get(nominalAttributes[c])) == ValueDictionary.UNKNOWN) {
+                if (appendedDictionaries == dictionaries)
+                    appendedDictionaries = dictionaries.clone();
+                appendedDictionaries[c] = new ValueDictionary(dictionaries[c]);
+            }
+        }
+        ValueDictionary appendedClassDictionary = classDictionary;
+        if (classDictionary.lookup(instance.get(classAttribute)) == ValueDictionary.UNKNOWN)
+            appendedClassDictionary = new ValueDictionary(classDictionary);
+        ColumnarStore appended = new ColumnarStore(this, appendedDictionaries, appendedClassDictionary);
+        appended.add(instance);
+        return appended;
+    }
+
+    /**
+     * Creates a store holding only some of the rows of this store, in their order. The dictionaries are shared.
+     * 
+     * @param removed tells for every row whether it is left out
+     * @return the store without the removed rows
+     */
+    public ColumnarStore without(IntPredicate removed) {
+        ColumnarStore kept = new ColumnarStore(this);
+        int numNumeric = numericAttributes.length, numNominal = nominalAttributes.length;
+        kept.numericData = new double[size * numNumeric];
+        kept.nominalData = new int[size * numNominal];
+        kept.classData = new int[size];
+        kept.size = 0;
+        for (int row = 0; row < size; row++) {
+            if (removed.test(row))
+                continue;
+            System.arraycopy(numericData, row * numNumeric, kept.numericData, kept.size * numNumeric, numNumeric);
+            System.arraycopy(nominalData, row * numNominal, kept.nominalData, kept.size * numNominal, numNominal);
+            kept.classData[kept.size++] = classData[row];
+        }
+        kept.trimToSize();
+        return kept;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= classData.length)
+            return;
+        int newCapacity = Math.max(capacity, classData.length + (classData.length >> 1));
+        numericData = Arrays.copyOf(numericData, newCapacity * numericAttributes.length);
+        nominalData = Arrays.copyOf(nominalData, newCapacity * nominalAttributes.length);
+        classData = Arrays.copyOf(classData, newCapacity);
+    }
+
+    private void trimToSize() {
+        numericData = Arrays.copyOf(numericData, size * numericAttributes.length);
+        nominalData = Arrays.copyOf(nominalData, size * nominalAttributes.length);
+        classData = Arrays.copyOf(classData, size);
+    }
+
+    /**
+     * Encodes an instance (usually a test instance) without adding it to the store. The class value is ignored.
+     * 
+     * @param instance the instance to encode
+     * @return the encoded instance
+     */
+    public EncodedInstance encode(List<Object> instance) {
+        double[] numericValues = new double[numericAttributes.length];
+        int[] nominalValues = new int[nominalAttributes.length];
+        for (int c = 0; c < numericValues.length; c++) {
+            numericValues[c] = (Double) instance.get(numericAttributes[c]);
+        }
+        for (int c = 0; c < nominalValues.length; c++) {
+            nominalValues[c] = dictionaries[c].lookup(instance.get(nominalAttributes[c]));
+        }
+        return new EncodedInstance(numericValues, nominalValues);
+    }
+
+    /**
+     * Encodes a stored instance, e.g. to use it as query.
+     * 
+     * @param index the row of the instance
+     * @param numericData the numeric block to read the numeric values from, either {@link #getNumericData()} or a
+     *            scaled copy of it
+     * @return the encoded instance
+     */
+    public EncodedInstance encode(int index, double[] numericData) {
+        int numNumeric = numericAttributes.length, numNominal = nominalAttributes.length;
+        return new EncodedInstance(Arrays.copyOfRange(numericData, index * numNumeric, (index + 1) * numNumeric),
+                Arrays.copyOfRange(nominalData, index * numNominal, (index + 1) * numNominal));
+    }
+
+    /**
+     * Creates a read-only copy of the store without the numeric block, e.g. after the numeric values were compressed.
+     * The numeric values of the copy's rows are {@link Double#NaN}. The other blocks are shared with this store.
+     * 
+     * @return the copy without the numeric block
+     */
+    public ColumnarStore withoutNumericData() {
+        ColumnarStore copy = new ColumnarStore(this);
+        copy.numericData = new double[0];
+        copy.hasNumericData = false;
+        return copy;
+    }
+
+    /**
+     * @return false if the numeric block was released by {@link #withoutNumericData()}
+     */
+    public boolean hasNumericData() {
+        return hasNumericData;
+    }
+
+    /**
+     * Creates a copy of the numeric block with every value translated and scaled: <code>(x - translation) / scaling</code>.
+     * 
+     * @param translation the translation per attribute index
+     * @param scaling the scaling per attribute index
+     * @return the scaled numeric block, laid out like {@link #getNumericData()}
+     */
+    public double[] scaledNumericData(double[] translation, double[] scaling) {
+        int numNumeric = numericAttributes.length;
+        double[] scaled = new double[size * numNumeric];
+        for (int c = 0; c < numNumeric; c++) {
+            double t = translation[numericAttributes[c]];
+            double s = scaling[numericAttributes[c]];
+            for (int i = c; i < scaled.length; i += numNumeric) {
+                scaled[i] = (numericData[i] - t) / s;
+            }
+        }
+        return scaled;
+    }
+
+    /**
+     * Returns a read-only view of a stored instance in the original attribute layout. Values are decoded on access.
+     * 
+     * @param index the row of the instance
+     * @return the instance as list of {@link Double} and nominal values
+     */
+    public List<Object> row(int index) {
+        return new AbstractList<Object>() {
+            @Override
+            public Object get(int attribute) {
+                return value(index, attribute);
+            }
+
+            @Override
+            public int size() {
+                return numAttributes;
+            }
+        };
+    }
+
+    /**
+     * @param index the row of the instance
+     * @param attribute the index of the attribute
+     * @return the decoded value
+     */
+    public Object value(int index, int attribute) {
+        if (attribute == classAttribute)
+            return classDictionary.decode(classData[index]);
+        int column = columnOf[attribute];
+        if (numeric[attribute] && !hasNumericData)
+            return Double.NaN;
+        if (numeric[attribute])
+            return numericData[index * numericAttributes.length + column];
+        return dictionaries[column].decode(nominalData[index * nominalAttributes.length + column]);
+    }
+
+    /**
+     * @return the number of stored instances
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getNumAttributes() {
+        return numAttributes;
+    }
+
+    public int getClassAttribute() {
+        return classAttribute;
+    }
+
+    /**
+     * @return the number of numeric (non-class) attributes, i.e. the row width of the numeric block
+     */
+    public int getNumNumeric() {
+        return numericAttributes.length;
+    }
+
+    /**
+     * @return the number of nominal (non-class) attributes, i.e. the row width of the nominal block
+     */
+    public int getNumNominal() {
+        return nominalAttributes.length;
+    }
+
+    /**
+     * @param column a column of the numeric block
+     * @return the attribute index of the column
+     */
+    public int getNumericAttribute(int column) {
+        return numericAttributes[column];
+    }
+
+    /**
+     * @param column a column of the nominal block
+     * @return the attribute index of the column
+     */
+    public int getNominalAttribute(int column) {
+        return nominalAttributes[column];
+    }
+
+    /**
+     * @param attribute an attribute index
+     * @return the column of the attribute in the numeric or nominal block, -1 for the class attribute
+     */
+    public int getColumn(int attribute) {
+        return columnOf[attribute];
+    }
+
+    /**
+     * @param attribute an attribute index
+     * @return true if the attribute is a numeric non-class attribute
+     */
+    public boolean isNumeric(int attribute) {
+        return numeric[attribute];
+    }
+
+    /**
+     * @return true if the class values are {@link Double} values; false for a store without class values
+     */
+    public boolean isNumericClass() {
+        return classDictionary.size() > 0 && classDictionary.decode(0) instanceof Double;
+    }
+
+    /**
+     * The numeric block: the value of numeric column <code>c</code> of row <code>r</code> is at
+     * <code>r * getNumNumeric() + c</code>. The array may be longer than the stored rows. Must not be modified.
+     * 
+     * @return the numeric block
+     */
+    public double[] getNumericData() {
+        return numericData;
+    }
+
+    /**
+     * The nominal block: the code of nominal column <code>c</code> of row <code>r</code> is at
+     * <code>r * getNumNominal() + c</code>. The array may be longer than the stored rows. Must not be modified.
+     * 
+     * @return the nominal block
+     */
+    public int[] getNominalData() {
+        return nominalData;
+    }
+
+    /**
+     * @return the class codes per row. The array may be longer than the stored rows. Must not be modified.
+     */
+    public int[] getClassData() {
+        return classData;
+    }
+
+    public ValueDictionary getDictionary(int column) {
+        return dictionaries[column];
+    }
+
+    public ValueDictionary getClassDictionary() {
+        return classDictionary;
+    }
+}
@@ -0,0 +1,52 @@
+package tud.ke.ml.project.classifier.store;
+
+/**
+ * An instance in the encoding of a {@link ColumnarStore}: the numeric attribute values in store column order and the
+ * dictionary codes of the nominal attribute values. Nominal values unknown to the store are encoded as
+ * {@link ValueDictionary#UNKNOWN} and never match a training value.
+ *
+ * The nominal codes can also be read packed for a {@link NominalBitset}. The packed form is computed once per bitset
+ * and kept with the instance, so an instance compared with many rows packs its codes only once.
+ */
+public class EncodedInstance {
+    private final double[] numeric;
+    private final int[] nominal;
+    // the nominal codes packed for the bitset asked for last, replaced as a whole so threads never see a mix
+    private Packed packed;
+
+    private static final class Packed {
+        final NominalBitset bitset;
+        final long[] bits;
+
+        Packed(NominalBitset bitset, long[] bits) {
+            this.bitset = bitset;
+            this.bits = bits;
+        }
+    }
+
+    public EncodedInstance(double[] numeric, int[] nominal) {
+        this.numeric = numeric;
+        this.nominal = nominal;
+    }
+
+    public double[] getNumeric() {
+        return numeric;
+    }
+
+    public int[] getNominal() {
+        return nominal;
+    }
+
+    /**
+     * @param bitset the bitset the codes are compared with
+     * @return the nominal codes packed like the rows of the bitset
+     */
+    public long[] getPackedNominal(NominalBitset bitset) {
+        Packed current = packed;
+        if (current == null || current.bitset != bitset) {
+            current = new Packed(bitset, bitset.pack(nominal));
+            packed = current;
+        }
+        return current.bits;
+    }
+}
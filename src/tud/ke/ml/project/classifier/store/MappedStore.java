@@ -0,0 +1,243 @@
+package tud.ke.ml.project.classifier.store;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * File-backed storage for training instances that do not fit into the Java heap.
+ *
+ * Every instance is written to the file as a fixed-size record: the numeric attributes as doubles, followed by the
+ * codes of the nominal attributes and of the class as ints, in the column order of a {@link ColumnarStore}. The file
+ * is read back through read-only {@link java.nio.MappedByteBuffer}s of at most 1 GiB of whole records each, so the
+ * operating system pages the records in on access and a linear scan streams through the file sequentially. Only the
+ * layout, the dictionaries and the range of every numeric column are kept on the heap.
+ *
+ * Serializing the store writes the path of the file, deserializing maps the file again. The store never deletes its
+ * file; it must exist as long as the store is used.
+ */
+public class MappedStore implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final long SEGMENT_BYTES = 1L << 30;
+
+    // a store without rows holding the layout and the dictionaries
+    private final ColumnarStore layout;
+    private final File file;
+    private final int size;
+    private final int recordSize;
+    private final int rowsPerSegment;
+    private final double[] minimum;
+    private final double[] maximum;
+
+    private transient ByteBuffer[] segments;
+
+    private MappedStore(ColumnarStore layout, File file, int size, double[] minimum, double[] maximum) throws IOException {
+        this.layout = layout;
+        this.file = file;
+        this.size = size;
+        this.recordSize = 8 * layout.getNumNumeric() + 4 * layout.getNumNominal() + 4;
+        this.rowsPerSegment = (int) Math.max(1, SEGMENT_BYTES / recordSize);
+        this.minimum = minimum;
+        this.maximum = maximum;
+        map();
+    }
+
+    /**
+     * Writes the instances to a file and maps it. An existing file is overwritten, so it must not belong to a store
+     * that is still in use.
+     *
+     * @param file the file to write
+     * @param instances the training instances, must not be empty; they are read once, in order
+     * @param classAttribute the index of the class attribute
+     * @return the store mapping the file
+     * @throws IOException if the file cannot be written or mapped
+     */
+    public static MappedStore write(File file, Iterable<List<Object>> instances, int classAttribute) throws IOException {
+        Iterator<List<Object>> iterator = instances.iterator();
+        List<Object> instance = iterator.next();
+        ColumnarStore layout = new ColumnarStore(instance, classAttribute);
+        int numNumeric = layout.getNumNumeric(), numNominal = layout.getNumNominal();
+        double[] minimum = new double[numNumeric];
+        double[] maximum = new double[numNumeric];
+        Arrays.fill(minimum, Double.MAX_VALUE);
+        Arrays.fill(maximum, -Double.MAX_VALUE);
+
+        int size = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            while (instance != null) {
+                for (int c = 0; c < numNumeric; c++) {
+                    double value = (Double) instance.get(layout.getNumericAttribute(c));
+                    out.writeDouble(value);
+                    if (value < minimum[c])
+                        minimum[c] = value;
+                    if (value > maximum[c])
+                        maximum[c] = value;
+                }
+                for (int c = 0; c < numNominal; c++) {
+                    out.writeInt(layout.getDictionary(c).encode(instance.get(layout.getNominalAttribute(c))));
+                }
+                out.writeInt(layout.getClassDictionary().encode(instance.get(classAttribute)));
+                size++;
+                instance = iterator.hasNext() ? iterator.next() : null;
+            }
+        }
+        return new MappedStore(layout, file, size, minimum, maximum);
+    }
+
+    /**
+     * Maps a file written by {@link #write(File, Iterable, int)} again, e.g. when loading a saved model.
+     *
+     * @param file the file
+     * @param layout the layout of the store, holding the dictionaries used when writing the file
+     * @param size the number of records in the file
+     * @param minimum the smallest value of every numeric column
+     * @param maximum the largest value of every numeric column
+     * @return the store mapping the file
+     * @throws IOException if the file cannot be mapped
+     */
+    public static MappedStore open(File file, ColumnarStore layout, int size, double[] minimum, double[] maximum) throws IOException {
+        return new MappedStore(layout, file, size, minimum.clone(), maximum.clone());
+    }
+
+    private void map() throws IOException {
+        int numSegments = (size + rowsPerSegment - 1) / rowsPerSegment;
+        segments = new ByteBuffer[numSegments];
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            FileChannel channel = in.getChannel();
+            for (int s = 0; s < numSegments; s++) {
+                long rows = Math.min(rowsPerSegment, size - (long) s * rowsPerSegment);
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, (long) s * rowsPerSegment * recordSize, rows * recordSize);
+            }
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        map();
+    }
+
+    /**
+     * The buffer holding a row. Reading it with absolute gets is safe from any number of threads.
+     *
+     * @param row the row
+     * @return the buffer holding the record of the row at {@link #position(int)}
+     */
+    public ByteBuffer buffer(int row) {
+        return segments[row / rowsPerSegment];
+    }
+
+    /**
+     * @param row the row
+     * @return the position of the record of the row in {@link #buffer(int)}; the nominal codes start
+     *         <code>8 * getNumNumeric()</code> bytes later
+     */
+    public int position(int row) {
+        return (row % rowsPerSegment) * recordSize;
+    }
+
+    /**
+     * @param row the row
+     * @param column a column of the numeric block
+     * @return the numeric value
+     */
+    public double numeric(int row, int column) {
+        return buffer(row).getDouble(position(row) + 8 * column);
+    }
+
+    /**
+     * @param row the row
+     * @param column a column of the nominal block
+     * @return the dictionary code
+     */
+    public int nominal(int row, int column) {
+        return buffer(row).getInt(position(row) + 8 * layout.getNumNumeric() + 4 * column);
+    }
+
+    /**
+     * @param row the row
+     * @return the code of the class value in {@link ColumnarStore#getClassDictionary()} of the layout
+     */
+    public int classCode(int row) {
+        return buffer(row).getInt(position(row) + recordSize - 4);
+    }
+
+    /**
+     * Returns a read-only view of a stored instance in the original attribute layout. Values are read on access.
+     *
+     * @param row the row of the instance
+     * @return the instance as list of {@link Double} and nominal values
+     */
+    public List<Object> row(int row) {
+        return new AbstractList<Object>() {
+            @Override
+            public Object get(int attribute) {
+                return value(row, attribute);
+            }
+
+            @Override
+            public int size() {
+                return layout.getNumAttributes();
+            }
+        };
+    }
+
+    /**
+     * @param row the row of the instance
+     * @param attribute the index of the attribute
+     * @return the decoded value
+     */
+    public Object value(int row, int attribute) {
+        if (attribute == layout.getClassAttribute())
+            return layout.getClassDictionary().decode(classCode(row));
+        int column = layout.getColumn(attribute);
+        if (layout.isNumeric(attribute))
+            return numeric(row, column);
+        return layout.getDictionary(column).decode(nominal(row, column));
+    }
+
+    /**
+     * @return the number of stored instances
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return a store without rows describing the layout and holding the dictionaries, e.g. to encode queries
+     */
+    public ColumnarStore getLayout() {
+        return layout;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @param column a column of the numeric block
+     * @return the smallest value of the column
+     */
+    public double getMinimum(int column) {
+        return minimum[column];
+    }
+
+    /**
+     * @param column a column of the numeric block
+     * @return the largest value of the column
+     */
+    public double getMaximum(int column) {
+        return maximum[column];
+    }
+}
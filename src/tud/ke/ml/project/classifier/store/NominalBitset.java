@@ -0,0 +1,113 @@
+package tud.ke.ml.project.classifier.store;
+
+import java.io.Serializable;
+
+/**
+ * The nominal block of a {@link ColumnarStore} one-hot encoded into packed <code>long</code> words.
+ *
+ * Every nominal column gets one bit per value of its dictionary, and a row sets exactly the bit of its value in every
+ * column. A query is packed the same way, so <code>Long.bitCount(row &amp; query)</code> summed over the words of a row
+ * counts the columns whose values match, and the number of nominal columns minus that count is the number of
+ * mismatches (half the Hamming distance of the bitsets). Query values unknown to the bitset set no bit and never match.
+ *
+ * The bitset covers the rows and dictionary values present when it was built. Rows appended to the store later are
+ * not covered and must be compared by their codes; values added to a dictionary later cannot occur in covered rows,
+ * so a query with such a value is packed like an unknown value.
+ */
+public class NominalBitset implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int numNominal;
+    private final int size;
+    private final int words;
+    // nominal column -> first bit of its values, and the number of its values
+    private final int[] offsets;
+    private final int[] widths;
+    private final long[] bits;
+
+    private NominalBitset(ColumnarStore store, int[] offsets, int[] widths, int words) {
+        this.numNominal = store.getNumNominal();
+        this.size = store.size();
+        this.words = words;
+        this.offsets = offsets;
+        this.widths = widths;
+        this.bits = new long[size * words];
+        int[] nominalData = store.getNominalData();
+        for (int row = 0; row < size; row++) {
+            int base = row * words;
+            for (int c = 0; c < numNominal; c++) {
+                int bit = offsets[c] + nominalData[row * numNominal + c];
+                bits[base + (bit >>> 6)] |= 1L << bit;
+            }
+        }
+    }
+
+    /**
+     * Packs the nominal block of a store, if that is cheaper to compare than the codes: the bitset of a row must not
+     * have more words than the row has nominal codes.
+     *
+     * @param store the store, not modified while the bitset is built
+     * @return the bitset, or null if the store has no nominal columns or too many values per column
+     */
+    public static NominalBitset of(ColumnarStore store) {
+        int numNominal = store.getNumNominal();
+        if (numNominal == 0)
+            return null;
+        int[] offsets = new int[numNominal];
+        int[] widths = new int[numNominal];
+        long width = 0;
+        for (int c = 0; c < numNominal; c++) {
+            offsets[c] = (int) width;
+            widths[c] = store.getDictionary(c).size();
+            width += widths[c];
+        }
+        long words = (width + 63) >>> 6;
+        if (words > numNominal)
+            return null;
+        return new NominalBitset(store, offsets, widths, (int) words);
+    }
+
+    /**
+     * @param nominal the dictionary codes of a query, in store column order
+     * @return the bitset of the query
+     */
+    public long[] pack(int[] nominal) {
+        long[] packed = new long[words];
+        for (int c = 0; c < numNominal; c++) {
+            int code = nominal[c];
+            if (code >= 0 && code < widths[c]) {
+                int bit = offsets[c] + code;
+                packed[bit >>> 6] |= 1L << bit;
+            }
+        }
+        return packed;
+    }
+
+    /**
+     * @param row a row covered by the bitset
+     * @param packed the bitset of the query, see {@link #pack(int[])}
+     * @return the number of nominal columns whose values differ
+     */
+    public int mismatches(int row, long[] packed) {
+        int base = row * words;
+        int matches = 0;
+        for (int w = 0; w < words; w++) {
+            matches += Long.bitCount(bits[base + w] & packed[w]);
+        }
+        return numNominal - matches;
+    }
+
+    /**
+     * @return the number of rows covered
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of words per row
+     */
+    public int getWords() {
+        return words;
+    }
+}
@@ -0,0 +1,187 @@
+package tud.ke.ml.project.classifier.store;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * The minimum and maximum of every numeric column of a {@link ColumnarStore} and the number of rows holding them, kept
+ * up to date while rows are added and removed.
+ *
+ * Adding a row costs O(1) per column. Removing a row costs O(1) per column as long as another row holds the same
+ * extreme value; only when the last row holding the minimum or maximum of a column is removed, the column is scanned
+ * again. A range is never modified: a change returns a new range, or this range if no value or count changed.
+ */
+public final class NumericRange implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final double[] minimum;
+    private final double[] maximum;
+    // number of rows holding the minimum and maximum of a column; 0 if no row holds a given extreme
+    private final int[] minimumCount;
+    private final int[] maximumCount;
+
+    private NumericRange(double[] minimum, double[] maximum, int[] minimumCount, int[] maximumCount) {
+        this.minimum = minimum;
+        this.maximum = maximum;
+        this.minimumCount = minimumCount;
+        this.maximumCount = maximumCount;
+    }
+
+    /**
+     * Computes the range of all rows of a store.
+     *
+     * @param store the store
+     * @return the range
+     */
+    public static NumericRange of(ColumnarStore store) {
+        int numNumeric = store.getNumNumeric();
+        NumericRange range = new NumericRange(new double[numNumeric], new double[numNumeric], new int[numNumeric],
+                new int[numNumeric]);
+        for (int c = 0; c < numNumeric; c++) {
+            range.scan(store, c, row -> false);
+        }
+        return range;
+    }
+
+    /**
+     * Creates a given range, e.g. the range of the full training set for a subset of it, and counts the rows of a
+     * store holding its extremes.
+     *
+     * @param store the store the range is kept for
+     * @param minimum the minimum per numeric column
+     * @param maximum the maximum per numeric column
+     * @return the range
+     */
+    public static NumericRange of(ColumnarStore store, double[] minimum, double[] maximum) {
+        int numNumeric = store.getNumNumeric();
+        int[] minimumCount = new int[numNumeric];
+        int[] maximumCount = new int[numNumeric];
+        double[] numericData = store.getNumericData();
+        for (int row = 0; store.hasNumericData() && row < store.size(); row++) {
+            for (int c = 0; c < numNumeric; c++) {
+                double value = numericData[row * numNumeric + c];
+                if (value == minimum[c])
+                    minimumCount[c]++;
+                if (value == maximum[c])
+                    maximumCount[c]++;
+            }
+        }
+        return new NumericRange(minimum.clone(), maximum.clone(), minimumCount, maximumCount);
+    }
+
+    private void scan(ColumnarStore store, int column, IntPredicate removed) {
+        int numNumeric = store.getNumNumeric();
+        double[] numericData = store.getNumericData();
+        double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+        int minCount = 0, maxCount = 0;
+        for (int row = 0; row < store.size(); row++) {
+            if (removed.test(row))
+                continue;
+            double value = numericData[row * numNumeric + column];
+            if (value < min) {
+                min = value;
+                minCount = 0;
+            }
+            if (value == min)
+                minCount++;
+            if (value > max) {
+                max = value;
+                maxCount = 0;
+            }
+            if (value == max)
+                maxCount++;
+        }
+        minimum[column] = min;
+        maximum[column] = max;
+        minimumCount[column] = minCount;
+        maximumCount[column] = maxCount;
+    }
+
+    private NumericRange copy() {
+        return new NumericRange(minimum.clone(), maximum.clone(), minimumCount.clone(), maximumCount.clone());
+    }
+
+    /**
+     * @param store the store holding the added row
+     * @param row the added row
+     * @return the range including the values of the row
+     */
+    public NumericRange with(ColumnarStore store, int row) {
+        int numNumeric = store.getNumNumeric();
+        double[] numericData = store.getNumericData();
+        NumericRange changed = this;
+        for (int c = 0; c < numNumeric; c++) {
+            double value = numericData[row * numNumeric + c];
+            if (value <= minimum[c] || value >= maximum[c]) {
+                changed = changed == this ? copy() : changed;
+                changed.add(c, value);
+            }
+        }
+        return changed;
+    }
+
+    private void add(int column, double value) {
+        if (value < minimum[column]) {
+            minimum[column] = value;
+            minimumCount[column] = 0;
+        }
+        if (value == minimum[column])
+            minimumCount[column]++;
+        if (value > maximum[column]) {
+            maximum[column] = value;
+            maximumCount[column] = 0;
+        }
+        if (value == maximum[column])
+            maximumCount[column]++;
+    }
+
+    /**
+     * @param store the store holding the removed row
+     * @param row the removed row
+     * @param removed tells for every row of the store whether it is removed, including the given row
+     * @return the range of the remaining rows
+     */
+    public NumericRange without(ColumnarStore store, int row, IntPredicate removed) {
+        int numNumeric = store.getNumNumeric();
+        double[] numericData = store.getNumericData();
+        NumericRange changed = this;
+        for (int c = 0; c < numNumeric; c++) {
+            double value = numericData[row * numNumeric + c];
+            if (value != minimum[c] && value != maximum[c])
+                continue;
+            changed = changed == this ? copy() : changed;
+            if (value == minimum[c] && minimumCount[c] == 1 || value == maximum[c] && maximumCount[c] == 1) {
+                changed.scan(store, c, removed);
+            } else {
+                if (value == minimum[c])
+                    changed.minimumCount[c]--;
+                if (value == maximum[c])
+                    changed.maximumCount[c]--;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @param range another range
+     * @return true if both ranges have the same minimum and maximum in every column, regardless of their counts
+     */
+    public boolean hasSameBounds(NumericRange range) {
+        return range == this || Arrays.equals(minimum, range.minimum) && Arrays.equals(maximum, range.maximum);
+    }
+
+    /**
+     * @return the minimum per numeric column
+     */
+    public double[] getMinimum() {
+        return minimum.clone();
+    }
+
+    /**
+     * @return the maximum per numeric column
+     */
+    public double[] getMaximum() {
+        return maximum.clone();
+    }
+}
@@ -0,0 +1,138 @@
+package tud.ke.ml.project.classifier.store;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Hash table from the values of the rows of a {@link ColumnarStore} to their row numbers, to find the row holding a
+ * given instance without comparing it with every row.
+ *
+ * The buckets are chained through two arrays: per bucket the last row added to it and per row the row added to the
+ * same bucket before it. Like the blocks of the store, the arrays are shared by the tables derived with
+ * {@link #append(ColumnarStore)}: a new row only writes its own link and the head of its bucket, and a table skips
+ * the rows behind its own size, so it still sees exactly its own rows. Only the most recent table of a chain may be
+ * appended to. The table is rebuilt with twice the buckets once it holds as many rows as buckets, so appending costs
+ * amortized O(1).
+ */
+public final class RowLookup implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private static final int MIN_BUCKETS = 16;
+
+    // bucket -> last row added to it + 1, 0 if empty
+    private final int[] heads;
+    // row -> row added to the same bucket before it + 1, 0 at the end of the chain
+    private final int[] previous;
+    private final int size;
+
+    private RowLookup(int[] heads, int[] previous, int size) {
+        this.heads = heads;
+        this.previous = previous;
+        this.size = size;
+    }
+
+    /**
+     * Builds the table of all rows of a store.
+     *
+     * @param store the store, not compressed
+     * @return the table
+     */
+    public static RowLookup of(ColumnarStore store) {
+        int buckets = MIN_BUCKETS;
+        while (buckets <= store.size()) {
+            buckets <<= 1;
+        }
+        int[] heads = new int[buckets];
+        int[] previous = new int[buckets];
+        for (int row = 0; row < store.size(); row++) {
+            link(heads, previous, row, hash(store, row));
+        }
+        return new RowLookup(heads, previous, store.size());
+    }
+
+    /**
+     * Creates the table of a store holding the rows of this table and one more, see
+     * {@link ColumnarStore#append(List)}. This table is not changed.
+     *
+     * @param store the appended store
+     * @return the table including the appended row
+     */
+    public RowLookup append(ColumnarStore store) {
+        if (size == heads.length)
+            return of(store);
+        link(heads, previous, size, hash(store, size));
+        return new RowLookup(heads, previous, size + 1);
+    }
+
+    private static void link(int[] heads, int[] previous, int row, int hash) {
+        int bucket = hash & (heads.length - 1);
+        previous[row] = heads[bucket];
+        heads[bucket] = row + 1;
+    }
+
+    /**
+     * Finds a row holding exactly the values of an instance.
+     *
+     * @param store the store of this table or one appended to it
+     * @param instance the instance, including its class value
+     * @param removed tells for every row whether it is skipped
+     * @return the last added row holding the instance that is not skipped, -1 if there is none
+     */
+    public int find(ColumnarStore store, List<Object> instance, IntPredicate removed) {
+        int classCode = store.getClassDictionary().lookup(instance.get(store.getClassAttribute()));
+        if (classCode == ValueDictionary.UNKNOWN)
+            return -1;
+        EncodedInstance encoded = store.encode(instance);
+        for (int code : encoded.getNominal()) {
+            if (code == ValueDictionary.UNKNOWN)
+                return -1;
+        }
+        double[] numeric = encoded.getNumeric();
+        int[] nominal = encoded.getNominal();
+        int hash = hash(numeric, 0, numeric.length, nominal, 0, nominal.length, classCode);
+        for (int entry = heads[hash & (heads.length - 1)]; entry != 0; entry = previous[entry - 1]) {
+            int row = entry - 1;
+            if (row < size && !removed.test(row) && matches(store, row, numeric, nominal, classCode))
+                return row;
+        }
+        return -1;
+    }
+
+    private static boolean matches(ColumnarStore store, int row, double[] numeric, int[] nominal, int classCode) {
+        if (store.getClassData()[row] != classCode)
+            return false;
+        double[] numericData = store.getNumericData();
+        int[] nominalData = store.getNominalData();
+        for (int c = 0; c < numeric.length; c++) {
+            //compared like Double#equals, as the values of the rows are
+            if (Double.doubleToLongBits(numericData[row * numeric.length + c]) != Double.doubleToLongBits(numeric[c]))
+                return false;
+        }
+        for (int c = 0; c < nominal.length; c++) {
+            if (nominalData[row * nominal.length + c] != nominal[c])
+                return false;
+        }
+        return true;
+    }
+
+    private static int hash(ColumnarStore store, int row) {
+        int numNumeric = store.getNumNumeric(), numNominal = store.getNumNominal();
+        return hash(store.getNumericData(), row * numNumeric, numNumeric, store.getNominalData(), row * numNominal,
+                numNominal, store.getClassData()[row]);
+    }
+
+    private static int hash(double[] numeric, int numericOffset, int numNumeric, int[] nominal, int nominalOffset,
+            int numNominal, int classCode) {
+        //small integral values differ only in the high bits of their doubles, so every value is multiplied into the
+        //high bits of the hash, which are then moved to the low bits that select the bucket
+        long hash = classCode;
+        for (int c = 0; c < numNumeric; c++) {
+            hash = (hash + Double.doubleToLongBits(numeric[numericOffset + c])) * 0x9E3779B97F4A7C15L;
+        }
+        for (int c = 0; c < numNominal; c++) {
+            hash = (hash + nominal[nominalOffset + c]) * 0x9E3779B97F4A7C15L;
+        }
+        return (int) (hash >>> 32);
+    }
+}
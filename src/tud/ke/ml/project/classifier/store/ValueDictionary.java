@@ -0,0 +1,78 @@
+package tud.ke.ml.project.classifier.store;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps the values of one nominal attribute (or of the class attribute) to dense integer codes.
+ * Codes are assigned in order of first appearance, starting at 0.
+ */
+public class ValueDictionary implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Code returned by {@link #lookup(Object)} for values that have never been added.
+     */
+    public static final int UNKNOWN = -1;
+
+    private final Map<Object, Integer> codes = new HashMap<>();
+    private final List<Object> values = new ArrayList<>();
+
+    public ValueDictionary() {
+    }
+
+    /**
+     * Creates a copy of a dictionary that can be extended without affecting the original.
+     *
+     * @param other the dictionary to copy
+     */
+    public ValueDictionary(ValueDictionary other) {
+        this.codes.putAll(other.codes);
+        this.values.addAll(other.values);
+    }
+
+    /**
+     * Returns the code of the given value, assigning a new one if the value is not yet known.
+     *
+     * @param value the value to encode
+     * @return the code of the value
+     */
+    public int encode(Object value) {
+        Integer code = this.codes.get(value);
+        if (code == null) {
+            code = this.values.size();
+            this.codes.put(value, code);
+            this.values.add(value);
+        }
+        return code;
+    }
+
+    /**
+     * Returns the code of the given value without modifying the dictionary.
+     *
+     * @param value the value to look up
+     * @return the code of the value or {@link #UNKNOWN}
+     */
+    public int lookup(Object value) {
+        Integer code = this.codes.get(value);
+        return code == null ? UNKNOWN : code;
+    }
+
+    /**
+     * @param code a code previously returned by {@link #encode(Object)}
+     * @return the original value
+     */
+    public Object decode(int code) {
+        return this.values.get(code);
+    }
+
+    /**
+     * @return the number of distinct values
+     */
+    public int size() {
+        return this.values.size();
+    }
+}
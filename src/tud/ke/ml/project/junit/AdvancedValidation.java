@@ -1,15 +1,25 @@
 package tud.ke.ml.project.junit;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
 import org.junit.Test;
 
+import tud.ke.ml.project.classifier.Condensation;
+import tud.ke.ml.project.classifier.NearestNeighbor;
+import tud.ke.ml.project.classifier.NeighborEvaluation;
+import tud.ke.ml.project.classifier.ParameterSweep;
+import tud.ke.ml.project.util.SyntheticData;
 import weka.classifiers.lazy.IBk;
 import weka.classifiers.lazy.keNN;
 import weka.core.EuclideanDistance;
@@ -44,6 +54,21 @@ public class AdvancedValidation {
 		data.add(instances);
 	}
 
+	/**
+	 * Converts an instance to the format learned by {@link NearestNeighbor}: {@link Double} values for numeric
+	 * attributes and the value names for nominal attributes
+	 * 
+	 * @param instance the instance
+	 * @return the values of the instance, including its class value
+	 */
+	public static List<Object> convert(Instance instance) {
+		List<Object> values = new ArrayList<Object>();
+		for (int i = 0; i < instance.numAttributes(); i++) {
+			values.add(instance.attribute(i).isNumeric() ? (Object) instance.value(i) : instance.stringValue(i));
+		}
+		return values;
+	}
+
 	RemovePercentage filterTrain;
 	RemovePercentage filterTest;
 	public static final int testSplitPercentage = 33;
@@ -127,6 +152,510 @@ public class AdvancedValidation {
 		}
 	}
 
+	/**
+	 * This test validates that the parallel batch classification predicts the same classes, in the same order, as
+	 * classifying one instance after the other.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testBatchClassification() throws Exception {
+		keNN classifier = new keNN();
+		List<Instances> data = new LinkedList<Instances>();
+
+		setUpSplittingFilter();
+		init(data);
+
+		classifier.setkNearest(7);
+		classifier.setMetric(new SelectedTag(1, keNN.TAGS_DISTANCE));
+		classifier.setDistanceWeighting(new SelectedTag(1, keNN.TAGS_WEIGHTING));
+		classifier.setNormalization(new SelectedTag(1, keNN.TAGS_NORM));
+		classifier.setParallelism(4);
+
+		for (Instances instances : data) {
+			filterTrain.setInputFormat(instances);
+			filterTest.setInputFormat(instances);
+			classifier.buildClassifier(Filter.useFilter(instances, filterTrain));
+			Instances test = Filter.useFilter(instances, filterTest);
+			double[] expected = new double[test.numInstances()];
+			for (int i = 0; i < expected.length; i++) {
+				expected[i] = classifier.classifyInstance(test.instance(i));
+			}
+			assertArrayEquals(expected, classifier.classifyInstances(test), 0);
+		}
+	}
+
+	/**
+	 * This test validates that the cache-blocked batch classification predicts the same classes as classifying one
+	 * instance after the other.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testBlockedBatchClassification() throws Exception {
+		keNN classifier = new keNN();
+		List<Instances> data = new LinkedList<Instances>();
+
+		setUpSplittingFilter();
+		init(data);
+
+		classifier.setkNearest(5);
+		classifier.setMetric(new SelectedTag(0, keNN.TAGS_DISTANCE));
+		classifier.setNormalization(new SelectedTag(1, keNN.TAGS_NORM));
+		classifier.setBlocked(true);
+
+		for (Instances instances : data) {
+			filterTrain.setInputFormat(instances);
+			filterTest.setInputFormat(instances);
+			classifier.buildClassifier(Filter.useFilter(instances, filterTrain));
+			Instances test = Filter.useFilter(instances, filterTest);
+			double[] expected = new double[test.numInstances()];
+			for (int i = 0; i < expected.length; i++) {
+				expected[i] = classifier.classifyInstance(test.instance(i));
+			}
+			assertArrayEquals(expected, classifier.classifyInstances(test), 0);
+		}
+	}
+
+	/**
+	 * This test validates that a model learned into a memory-mapped file predicts the same classes as a model held on
+	 * the heap
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testMappedModel() throws Exception {
+		keNN classifier = new keNN();
+		keNN mappedClassifier = new keNN();
+		List<Instances> data = new LinkedList<Instances>();
+		File directory = Files.createTempDirectory("keNN").toFile();
+
+		setUpSplittingFilter();
+		init(data);
+
+		for (keNN c : new keNN[] { classifier, mappedClassifier }) {
+			c.setkNearest(7);
+			c.setMetric(new SelectedTag(0, keNN.TAGS_DISTANCE));
+			c.setDistanceWeighting(new SelectedTag(1, keNN.TAGS_WEIGHTING));
+			c.setNormalization(new SelectedTag(1, keNN.TAGS_NORM));
+		}
+		mappedClassifier.setStoreDirectory(directory);
+
+		try {
+			for (Instances instances : data) {
+				filterTrain.setInputFormat(instances);
+				filterTest.setInputFormat(instances);
+				Instances train = Filter.useFilter(instances, filterTrain);
+				classifier.buildClassifier(train);
+				mappedClassifier.buildClassifier(train);
+				Instances test = Filter.useFilter(instances, filterTest);
+				assertArrayEquals(classifier.classifyInstances(test), mappedClassifier.classifyInstances(test), 0);
+			}
+		}
+		finally {
+			for (File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+
+	/**
+	 * This test validates that a model saved as binary snapshot and loaded into a new classifier predicts the same
+	 * classes, for a model on the heap, a compressed model, a model in a memory-mapped file and a model with each index
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testSnapshotRoundTrip() throws Exception {
+		List<Instances> data = new LinkedList<Instances>();
+		File directory = Files.createTempDirectory("keNN").toFile();
+		File file = new File(directory, "snapshot.bin");
+
+		setUpSplittingFilter();
+		init(data);
+
+		try {
+			int[] searchMethods = { keNN.SEARCH_KDTREE, keNN.SEARCH_VPTREE, keNN.SEARCH_LSH, keNN.SEARCH_HNSW, keNN.SEARCH_PQ, keNN.SEARCH_CLUSTER };
+			for (int variant = 0; variant < 3 + 2 * searchMethods.length; variant++) {
+				keNN classifier = new keNN();
+				keNN loadedClassifier = new keNN();
+				for (keNN c : new keNN[] { classifier, loadedClassifier }) {
+					c.setkNearest(7);
+					c.setMetric(new SelectedTag(1, keNN.TAGS_DISTANCE));
+					c.setDistanceWeighting(new SelectedTag(1, keNN.TAGS_WEIGHTING));
+					// every index is saved once built on the raw and once on the normalized values
+					c.setNormalization(new SelectedTag(variant < 3 + searchMethods.length ? 0 : 1, keNN.TAGS_NORM));
+				}
+				int searchMethod = variant >= 3 ? searchMethods[(variant - 3) % searchMethods.length] : keNN.SEARCH_LINEAR;
+				if (variant >= 3) {
+					classifier.setSearchMethod(new SelectedTag(searchMethod, keNN.TAGS_SEARCH));
+				}
+				else if (variant == 1) {
+					classifier.setSearchMethod(new SelectedTag(keNN.SEARCH_PQ, keNN.TAGS_SEARCH));
+					classifier.setCompressed(true);
+				}
+				else if (variant == 2) {
+					classifier.setStoreDirectory(directory);
+				}
+				for (Instances instances : data) {
+					if (searchMethod == keNN.SEARCH_KDTREE) {
+						// the KD-tree is only built without nominal attributes
+						NominalToBinary nomToBin = new NominalToBinary();
+						nomToBin.setInputFormat(instances);
+						instances = Filter.useFilter(instances, nomToBin);
+					}
+					filterTrain.setInputFormat(instances);
+					filterTest.setInputFormat(instances);
+					classifier.buildClassifier(Filter.useFilter(instances, filterTrain));
+					classifier.saveModel(file);
+					loadedClassifier.loadModel(file);
+					Instances test = Filter.useFilter(instances, filterTest);
+					assertArrayEquals(classifier.classifyInstances(test), loadedClassifier.classifyInstances(test), 0);
+				}
+			}
+		}
+		finally {
+			for (File f : directory.listFiles()) {
+				f.delete();
+			}
+			directory.delete();
+		}
+	}
+
+	/**
+	 * This test validates that saving a classifier without a model fails with a clear exception
+	 * 
+	 * @throws Exception
+	 */
+	@Test(expected = IllegalStateException.class)
+	public void testSaveWithoutModel() throws Exception {
+		File file = File.createTempFile("snapshot", ".bin");
+		try {
+			new keNN().saveModel(file);
+		}
+		finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * This test validates that a model streamed from an ARFF file predicts the same classes as a model built from the
+	 * loaded instances, on the heap and in a memory-mapped file, and that an ARFF file without instances gives an empty
+	 * model
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testStreamingArff() throws Exception {
+		List<Instances> data = new LinkedList<Instances>();
+		File directory = Files.createTempDirectory("keNN").toFile();
+
+		init(data);
+
+		try {
+			for (boolean mapped : new boolean[] { false, true }) {
+				keNN classifier = new keNN();
+				keNN streamedClassifier = new keNN();
+				for (keNN c : new keNN[] { classifier, streamedClassifier }) {
+					c.setkNearest(5);
+					c.setMetric(new SelectedTag(1, keNN.TAGS_DISTANCE));
+					c.setNormalization(new SelectedTag(0, keNN.TAGS_NORM));
+				}
+				if (mapped) {
+					streamedClassifier.setStoreDirectory(directory);
+				}
+				for (Instances instances : data) {
+					classifier.buildClassifier(instances);
+					streamedClassifier.buildClassifier(new File("data/credit-g.arff"));
+					assertArrayEquals(classifier.classifyInstances(instances), streamedClassifier.classifyInstances(instances), 0);
+
+					File empty = new File(directory, "empty.arff");
+					Files.write(empty.toPath(), new Instances(instances, 0).toString().getBytes(StandardCharsets.UTF_8));
+					streamedClassifier.buildClassifier(empty);
+					if (!mapped) {
+						// the empty model is filled by adding the instances one by one
+						for (Instance instance : instances) {
+							streamedClassifier.updateClassifier(instance);
+						}
+						assertArrayEquals(classifier.classifyInstances(instances), streamedClassifier.classifyInstances(instances), 0);
+					}
+				}
+			}
+		}
+		finally {
+			for (File f : directory.listFiles()) {
+				f.delete();
+			}
+			directory.delete();
+		}
+	}
+
+	/**
+	 * This test validates that a model updated by adding and removing instances predicts the same classes as a model
+	 * built from the remaining instances, searched linearly and with an index
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testIncrementalUpdates() throws Exception {
+		List<Instances> data = new LinkedList<Instances>();
+
+		init(data);
+
+		for (int variant = 0; variant < 4; variant++) {
+			int searchMethod = variant % 2 == 0 ? keNN.SEARCH_LINEAR : keNN.SEARCH_VPTREE;
+			keNN classifier = new keNN();
+			keNN updatedClassifier = new keNN();
+			for (keNN c : new keNN[] { classifier, updatedClassifier }) {
+				c.setkNearest(5);
+				c.setMetric(new SelectedTag(0, keNN.TAGS_DISTANCE));
+				// the instances added and removed extend and shrink the range of the numeric attributes
+				c.setNormalization(new SelectedTag(variant < 2 ? 0 : 1, keNN.TAGS_NORM));
+				c.setSearchMethod(new SelectedTag(searchMethod, keNN.TAGS_SEARCH));
+			}
+			for (Instances instances : data) {
+				Instances initial = new Instances(instances, 0, 300);
+				Instances remaining = new Instances(instances, 0, 0);
+				updatedClassifier.buildClassifier(initial);
+				for (int i = 300; i < instances.numInstances(); i++) {
+					updatedClassifier.updateClassifier(instances.instance(i));
+				}
+				for (int i = 0; i < instances.numInstances(); i++) {
+					if (i % 5 == 0)
+						assertTrue(updatedClassifier.removeInstance(instances.instance(i)));
+					else
+						remaining.add(instances.instance(i));
+				}
+				classifier.buildClassifier(remaining);
+				assertArrayEquals(classifier.classifyInstances(instances), updatedClassifier.classifyInstances(instances), 0);
+			}
+		}
+	}
+
+	/**
+	 * This test validates that a sliding window keeps exactly the latest instances of a stream and a reservoir keeps
+	 * an equal share of every class within the window
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testStreamWindows() throws Exception {
+		List<Instances> data = new LinkedList<Instances>();
+
+		init(data);
+
+		for (Instances instances : data) {
+			keNN classifier = new keNN();
+			keNN windowedClassifier = new keNN();
+			for (keNN c : new keNN[] { classifier, windowedClassifier }) {
+				c.setkNearest(5);
+				c.setSearchMethod(new SelectedTag(keNN.SEARCH_VPTREE, keNN.TAGS_SEARCH));
+			}
+			windowedClassifier.setWindowSize(200);
+			windowedClassifier.buildClassifier(new Instances(instances, 0));
+			for (Instance instance : instances) {
+				windowedClassifier.updateClassifier(instance);
+			}
+			classifier.buildClassifier(new Instances(instances, instances.numInstances() - 200, 200));
+			assertArrayEquals(classifier.classifyInstances(instances), windowedClassifier.classifyInstances(instances), 0);
+
+			NearestNeighbor reservoir = new NearestNeighbor();
+			reservoir.setWindowSize(200);
+			reservoir.setWindowPolicy(NearestNeighbor.WINDOW_RESERVOIR);
+			for (Instance instance : instances) {
+				reservoir.addInstance(convert(instance), instance.classIndex());
+			}
+			assertEquals(200, reservoir.getSnapshot().remaining());
+			for (Integer count : reservoir.getSnapshot().getClassCounts().values()) {
+				assertEquals(100, count.intValue());
+			}
+		}
+	}
+
+	/**
+	 * This test validates that prototype selection shrinks the model and that Condensed NN keeps a subset that
+	 * classifies the whole training set correctly with the nearest neighbor rule
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testCondensation() throws Exception {
+		List<Instances> data = new LinkedList<Instances>();
+
+		init(data);
+
+		for (Instances instances : data) {
+			for (int condensation : new int[] { keNN.CONDENSE_CNN, keNN.CONDENSE_ENN, keNN.CONDENSE_ICF }) {
+				NearestNeighbor classifier = new NearestNeighbor();
+				classifier.setkNearest(1);
+				classifier.setNormalizing(true);
+				classifier.setSearchMethod(NearestNeighbor.SEARCH_VPTREE);
+				classifier.setCondensation(condensation);
+				List<List<Object>> rows = new ArrayList<List<Object>>();
+				for (Instance instance : instances) {
+					rows.add(convert(instance));
+				}
+				classifier.learnModel(rows, instances.classIndex());
+
+				Condensation report = classifier.getCondensationReport();
+				assertEquals(instances.numInstances(), report.getOriginalSize());
+				assertEquals(classifier.getSnapshot().size(), report.getCondensedSize());
+				assertTrue(report.getReductionRatio() > 0);
+				if (condensation == keNN.CONDENSE_CNN) {
+					for (List<Object> row : rows) {
+						assertEquals(row.get(instances.classIndex()), classifier.classifyInstance(row, instances.classIndex()));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * This test validates the all-k leave-one-out evaluation against retraining the classifier without every instance
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testNeighborEvaluation() throws Exception {
+		List<Instances> data = new LinkedList<Instances>();
+
+		init(data);
+
+		int maxK = 5;
+		for (Instances instances : data) {
+			List<List<Object>> rows = new ArrayList<List<Object>>();
+			for (Instance instance : instances) {
+				rows.add(convert(instance));
+			}
+			rows = rows.subList(0, 100);
+			NearestNeighbor classifier = new NearestNeighbor();
+			classifier.setMetric(keNN.DIST_EUCLIDEAN);
+			classifier.learnModel(rows, instances.classIndex());
+			NeighborEvaluation evaluation = NeighborEvaluation.leaveOneOut(classifier, maxK);
+			assertEquals(rows.size(), evaluation.getSize());
+
+			for (boolean weighted : new boolean[] { false, true }) {
+				for (int k = 1; k <= maxK; k++) {
+					NearestNeighbor heldOut = new NearestNeighbor();
+					heldOut.setMetric(keNN.DIST_EUCLIDEAN);
+					heldOut.setkNearest(k);
+					heldOut.setInverseWeighting(weighted);
+					int correct = 0;
+					for (int i = 0; i < rows.size(); i++) {
+						List<List<Object>> training = new ArrayList<List<Object>>(rows);
+						List<Object> test = training.remove(i);
+						heldOut.learnModel(training, instances.classIndex());
+						if (test.get(instances.classIndex()).equals(heldOut.classifyInstance(test, instances.classIndex())))
+							correct++;
+					}
+					assertEquals((double) correct / rows.size(), evaluation.getAccuracy(k, weighted), 1e-12);
+				}
+			}
+
+			NeighborEvaluation crossValidation = NeighborEvaluation.crossValidate(classifier, maxK, 10, 1);
+			assertEquals(rows.size(), crossValidation.getSize());
+			assertTrue(crossValidation.getAccuracy(crossValidation.getBestK(false), false) > 0.5);
+		}
+	}
+
+	/**
+	 * This test validates the parameter sweep against a separate leave-one-out evaluation of every metric and
+	 * normalization
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testParameterSweep() throws Exception {
+		List<Instances> data = new LinkedList<Instances>();
+
+		init(data);
+
+		int maxK = 10;
+		for (Instances instances : data) {
+			keNN classifier = new keNN();
+			classifier.buildClassifier(instances);
+			ParameterSweep sweep = classifier.sweepParameters(maxK);
+
+			NearestNeighbor separate = new NearestNeighbor();
+			List<List<Object>> rows = new ArrayList<List<Object>>();
+			for (Instance instance : instances) {
+				rows.add(convert(instance));
+			}
+			separate.learnModel(rows, instances.classIndex());
+			for (int metric : new int[] { keNN.DIST_MANHATTAN, keNN.DIST_EUCLIDEAN }) {
+				for (boolean normalize : new boolean[] { false, true }) {
+					separate.setMetric(metric);
+					separate.setNormalizing(normalize);
+					NeighborEvaluation evaluation = NeighborEvaluation.leaveOneOut(separate, maxK);
+					for (int k = 1; k <= maxK; k++) {
+						assertEquals(evaluation.getAccuracy(k, false), sweep.getAccuracy(metric, normalize, k, false), 0);
+						assertEquals(evaluation.getAccuracy(k, true), sweep.getAccuracy(metric, normalize, k, true), 0);
+					}
+				}
+			}
+			assertTrue(sweep.getElapsedNanos() > 0);
+			assertTrue(sweep.getEstimatedSeparateNanos() > 0);
+		}
+	}
+
+	/**
+	 * This test validates that the synthetic data keeps the header and the class balance of the data set, is the same
+	 * for the same seed, and that a snapshot learned from it predicts the same classes as a model built from its ARFF
+	 * file
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testSyntheticData() throws Exception {
+		List<Instances> data = new LinkedList<Instances>();
+		File directory = Files.createTempDirectory("keNN").toFile();
+		File arff = new File(directory, "synthetic.arff");
+		File other = new File(directory, "other.arff");
+		File snapshot = new File(directory, "synthetic.bin");
+
+		init(data);
+
+		int count = 5000;
+		try {
+			for (Instances instances : data) {
+				for (boolean classConditional : new boolean[] { false, true }) {
+					SyntheticData generator = new SyntheticData(instances, classConditional);
+					generator.writeArff(arff, count, 7);
+					ArffLoader loader = new ArffLoader();
+					loader.setFile(arff);
+					Instances synthetic = loader.getDataSet();
+					synthetic.setClassIndex(synthetic.numAttributes() - 1);
+					assertEquals(null, instances.equalHeadersMsg(synthetic));
+					assertEquals(count, synthetic.numInstances());
+					int[] expected = instances.attributeStats(instances.classIndex()).nominalCounts;
+					int[] actual = synthetic.attributeStats(synthetic.classIndex()).nominalCounts;
+					for (int c = 0; c < expected.length; c++) {
+						assertEquals((double) expected[c] / instances.numInstances(), (double) actual[c] / count, 0.03);
+					}
+
+					generator.writeArff(other, count, 7);
+					assertArrayEquals(Files.readAllBytes(arff.toPath()), Files.readAllBytes(other.toPath()));
+					generator.writeArff(other, count, 8);
+					assertTrue(!Arrays.equals(Files.readAllBytes(arff.toPath()), Files.readAllBytes(other.toPath())));
+
+					generator.writeSnapshot(new NearestNeighbor(), snapshot, count, 7);
+					keNN classifier = new keNN();
+					keNN loadedClassifier = new keNN();
+					classifier.buildClassifier(arff);
+					loadedClassifier.loadModel(snapshot);
+					assertArrayEquals(classifier.classifyInstances(instances), loadedClassifier.classifyInstances(instances), 0);
+				}
+			}
+		}
+		finally {
+			for (File f : directory.listFiles()) {
+				f.delete();
+			}
+			directory.delete();
+		}
+	}
+
 	/**
 	 * This test the correctness of the unweighted Manhattan distance implementation
 	 * 
@@ -0,0 +1,361 @@
+package tud.ke.ml.project.junit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.junit.Test;
+
+import tud.ke.ml.project.classifier.ModelSnapshot;
+import tud.ke.ml.project.classifier.NearestNeighbor;
+import tud.ke.ml.project.classifier.search.NeighborHeap;
+import tud.ke.ml.project.classifier.search.RowDistance;
+import tud.ke.ml.project.classifier.store.EncodedInstance;
+import weka.classifiers.lazy.IBk;
+import weka.classifiers.lazy.keNN;
+import weka.core.EuclideanDistance;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.ManhattanDistance;
+import weka.core.NormalizableDistance;
+import weka.core.SelectedTag;
+import weka.core.neighboursearch.LinearNNSearch;
+import weka.core.neighboursearch.NearestNeighbourSearch;
+import weka.filters.Filter;
+import weka.filters.unsupervised.attribute.NominalToBinary;
+import weka.filters.unsupervised.instance.RemovePercentage;
+
+public class SearchValidation {
+
+	RemovePercentage filterTrain;
+	RemovePercentage filterTest;
+
+	private void setUpSplittingFilter() {
+		filterTrain = new RemovePercentage();
+		filterTrain.setPercentage(AdvancedValidation.testSplitPercentage);
+		filterTest = new RemovePercentage();
+		filterTest.setPercentage(AdvancedValidation.testSplitPercentage);
+		filterTest.setInvertSelection(true);
+	}
+
+	/**
+	 * Compares the predictions of the classifier using the given search method with a linear Weka reference classifier
+	 * 
+	 * @param searchMethod the search method of the implemented classifier
+	 * @param k amount of nearest neighbors
+	 * @param metric the distance metric
+	 * @param normalize true if the attributes are normalized
+	 * @param numericOnly true if nominal attributes are converted to binary numeric attributes
+	 * @param vectorized true if the vectorized distance kernels are used
+	 * @throws Exception
+	 */
+	private void compareWithLinearSearch(int searchMethod, int k, int metric, boolean normalize, boolean numericOnly, boolean vectorized) throws Exception {
+		keNN classifier = new keNN();
+		IBk wekaClassifier = new IBk();
+		List<Instances> data = new LinkedList<Instances>();
+
+		setUpSplittingFilter();
+		AdvancedValidation.init(data);
+
+		classifier.setkNearest(k);
+		classifier.setMetric(new SelectedTag(metric, keNN.TAGS_DISTANCE));
+		classifier.setDistanceWeighting(new SelectedTag(keNN.WEIGHT_NONE, keNN.TAGS_WEIGHTING));
+		classifier.setNormalization(new SelectedTag(normalize ? 1 : 0, keNN.TAGS_NORM));
+		classifier.setSearchMethod(new SelectedTag(searchMethod, keNN.TAGS_SEARCH));
+		classifier.setVectorizedKernel(vectorized);
+
+		wekaClassifier.setKNN(k);
+		NearestNeighbourSearch search = new LinearNNSearch();
+		NormalizableDistance df = metric == keNN.DIST_MANHATTAN ? new ManhattanDistance() : new EuclideanDistance();
+		df.setDontNormalize(!normalize);
+		search.setDistanceFunction(df);
+		search.setMeasurePerformance(false);
+		wekaClassifier.setNearestNeighbourSearchAlgorithm(search);
+		wekaClassifier.setDistanceWeighting(new SelectedTag(IBk.WEIGHT_NONE, IBk.TAGS_WEIGHTING));
+
+		for (Instances instances : data) {
+			if (numericOnly) {
+				NominalToBinary nomToBin = new NominalToBinary();
+				nomToBin.setInputFormat(instances);
+				instances = Filter.useFilter(instances, nomToBin);
+			}
+			filterTrain.setInputFormat(instances);
+			filterTest.setInputFormat(instances);
+			Instances train = Filter.useFilter(instances, filterTrain);
+			classifier.buildClassifier(train);
+			wekaClassifier.buildClassifier(train);
+			Instances test = Filter.useFilter(instances, filterTest);
+			for (Instance instance : test) {
+				AdvancedValidation.comparePredictions(classifier, wekaClassifier, instance);
+			}
+		}
+	}
+
+	/**
+	 * This test validates the KD-tree search with the Manhattan distance
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testKDTreeManhattank5() throws Exception {
+		compareWithLinearSearch(keNN.SEARCH_KDTREE, 5, keNN.DIST_MANHATTAN, false, true, false);
+	}
+
+	/**
+	 * This test validates the KD-tree search with the normalized Euclidean distance
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testKDTreeEuclideank10Normalized() throws Exception {
+		compareWithLinearSearch(keNN.SEARCH_KDTREE, 10, keNN.DIST_EUCLIDEAN, true, true, false);
+	}
+
+	/**
+	 * This test validates the VP-tree search on mixed nominal and numeric attributes with the Manhattan distance
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testVPTreeNominalManhattank5() throws Exception {
+		compareWithLinearSearch(keNN.SEARCH_VPTREE, 5, keNN.DIST_MANHATTAN, false, false, false);
+	}
+
+	/**
+	 * This test validates the VP-tree search on mixed nominal and numeric attributes with the normalized Euclidean distance
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testVPTreeNominalEuclideank10Normalized() throws Exception {
+		compareWithLinearSearch(keNN.SEARCH_VPTREE, 10, keNN.DIST_EUCLIDEAN, true, false, false);
+	}
+
+	/**
+	 * This test validates the cluster-pruned search on mixed nominal and numeric attributes with the Manhattan distance
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testClusterNominalManhattank5() throws Exception {
+		compareWithLinearSearch(keNN.SEARCH_CLUSTER, 5, keNN.DIST_MANHATTAN, false, false, false);
+	}
+
+	/**
+	 * This test validates the cluster-pruned search on mixed nominal and numeric attributes with the normalized Euclidean distance
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testClusterNominalEuclideank10Normalized() throws Exception {
+		compareWithLinearSearch(keNN.SEARCH_CLUSTER, 10, keNN.DIST_EUCLIDEAN, true, false, false);
+	}
+
+	/**
+	 * This test validates the vectorized distance kernels on mixed attributes with the normalized Manhattan distance
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testVectorizedKernelManhattank10Normalized() throws Exception {
+		compareWithLinearSearch(keNN.SEARCH_LINEAR, 10, keNN.DIST_MANHATTAN, true, false, true);
+	}
+
+	/**
+	 * This test validates the vectorized distance kernels within the KD-tree search with the Euclidean distance
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testVectorizedKernelKDTreeEuclideank5() throws Exception {
+		compareWithLinearSearch(keNN.SEARCH_KDTREE, 5, keNN.DIST_EUCLIDEAN, false, true, true);
+	}
+
+	/**
+	 * Asserts that the vectorized and the scalar kernel compute the same distances up to rounding
+	 * 
+	 * @param model the model whose rows are compared
+	 * @param queries the queries
+	 */
+	private void assertKernelsAgree(ModelSnapshot model, List<List<Object>> queries) {
+		for (int metric = 0; metric < 2; metric++) {
+			for (boolean normalize : new boolean[] { false, true }) {
+				RowDistance scalar = model.distance(metric, normalize, NearestNeighbor.KERNEL_SCALAR);
+				RowDistance vectorized = model.distance(metric, normalize, NearestNeighbor.KERNEL_VECTORIZED);
+				for (List<Object> query : queries) {
+					EncodedInstance encoded = model.encode(query, normalize);
+					for (int row = 0; row < model.size(); row++) {
+						double expected = scalar.distance(row, encoded);
+						assertEquals(expected, vectorized.distance(row, encoded), 1e-9 * Math.max(1, expected));
+						assertEquals(expected, vectorized.distance(row, encoded, Double.POSITIVE_INFINITY), 1e-9 * Math.max(1, expected));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * This test validates that the vectorized distance kernels agree with the scalar kernels within rounding, on the
+	 * normalized block and on the raw block normalized by the kernel after an update changed the range. Without the
+	 * Vector API on the class path both paths use the scalar kernel.
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testVectorizedKernelAgreesWithScalarKernel() throws Exception {
+		List<Instances> data = new LinkedList<Instances>();
+
+		setUpSplittingFilter();
+		AdvancedValidation.init(data);
+
+		for (Instances instances : data) {
+			filterTrain.setInputFormat(instances);
+			filterTest.setInputFormat(instances);
+			List<List<Object>> train = new ArrayList<List<Object>>();
+			for (Instance instance : Filter.useFilter(instances, filterTrain)) {
+				train.add(AdvancedValidation.convert(instance));
+			}
+			List<List<Object>> test = new ArrayList<List<Object>>();
+			for (Instance instance : Filter.useFilter(instances, filterTest)) {
+				test.add(AdvancedValidation.convert(instance));
+			}
+
+			NearestNeighbor classifier = new NearestNeighbor();
+			classifier.learnModel(train, instances.classIndex());
+			assertKernelsAgree(classifier.getSnapshot(), test);
+
+			// the test instances extend the range, so the kernels normalize the raw block
+			for (List<Object> instance : test) {
+				classifier.addInstance(instance, instances.classIndex());
+			}
+			assertKernelsAgree(classifier.getSnapshot(), test);
+		}
+	}
+
+	/**
+	 * Asserts that an approximate search predicts at least 80% of the classes the linear search predicts
+	 * 
+	 * @param classifier the classifier configured with the approximate search method
+	 * @param metric the distance metric
+	 * @throws Exception
+	 */
+	private void assertAgreesWithLinearSearch(keNN classifier, int metric) throws Exception {
+		keNN linearClassifier = new keNN();
+		List<Instances> data = new LinkedList<Instances>();
+
+		setUpSplittingFilter();
+		AdvancedValidation.init(data);
+
+		for (keNN c : new keNN[] { classifier, linearClassifier }) {
+			c.setkNearest(5);
+			c.setMetric(new SelectedTag(metric, keNN.TAGS_DISTANCE));
+			c.setNormalization(new SelectedTag(1, keNN.TAGS_NORM));
+		}
+
+		for (Instances instances : data) {
+			filterTrain.setInputFormat(instances);
+			filterTest.setInputFormat(instances);
+			Instances train = Filter.useFilter(instances, filterTrain);
+			classifier.buildClassifier(train);
+			linearClassifier.buildClassifier(train);
+			Instances test = Filter.useFilter(instances, filterTest);
+			int agreements = 0;
+			for (Instance instance : test) {
+				if (classifier.classifyInstance(instance) == linearClassifier.classifyInstance(instance))
+					agreements++;
+			}
+			assertTrue(agreements >= 0.8 * test.numInstances());
+		}
+	}
+
+	/**
+	 * This test validates that the approximate locality-sensitive hashing search predicts almost the same classes as the
+	 * linear search
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testLSHAgreesWithLinearSearch() throws Exception {
+		keNN classifier = new keNN();
+		classifier.setSearchMethod(new SelectedTag(keNN.SEARCH_LSH, keNN.TAGS_SEARCH));
+		classifier.setHashTables(20);
+		classifier.setProbes(4);
+		assertAgreesWithLinearSearch(classifier, keNN.DIST_EUCLIDEAN);
+	}
+
+	/**
+	 * This test validates that the approximate HNSW search predicts almost the same classes as the linear search
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testHNSWAgreesWithLinearSearch() throws Exception {
+		keNN classifier = new keNN();
+		classifier.setSearchMethod(new SelectedTag(keNN.SEARCH_HNSW, keNN.TAGS_SEARCH));
+		classifier.setEfSearch(100);
+		assertAgreesWithLinearSearch(classifier, keNN.DIST_MANHATTAN);
+	}
+
+	/**
+	 * This test validates that the HNSW search still finds k neighbors after rows were removed, none of them removed,
+	 * even if it keeps only k candidates
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testHNSWSkipsRemovedRows() throws Exception {
+		List<Instances> data = new LinkedList<Instances>();
+
+		setUpSplittingFilter();
+		AdvancedValidation.init(data);
+
+		int k = 5;
+		for (Instances instances : data) {
+			filterTrain.setInputFormat(instances);
+			filterTest.setInputFormat(instances);
+			List<List<Object>> train = new ArrayList<List<Object>>();
+			for (Instance instance : Filter.useFilter(instances, filterTrain)) {
+				train.add(AdvancedValidation.convert(instance));
+			}
+			if (train.size() < 2 * k)
+				continue;
+
+			NearestNeighbor classifier = new NearestNeighbor();
+			classifier.setSearchMethod(NearestNeighbor.SEARCH_HNSW);
+			classifier.setEfSearch(k);
+			classifier.learnModel(train, instances.classIndex());
+			for (int i = 0; i < train.size(); i += 2) {
+				assertTrue(classifier.removeInstance(train.get(i)));
+			}
+			ModelSnapshot model = classifier.getSnapshot();
+			assertTrue(model.isIndexed(keNN.DIST_MANHATTAN, false));
+
+			for (Instance instance : Filter.useFilter(instances, filterTest)) {
+				NeighborHeap nearest = new NeighborHeap(k);
+				model.search(model.encode(AdvancedValidation.convert(instance), false), keNN.DIST_MANHATTAN, false,
+						NearestNeighbor.KERNEL_SCALAR, k, nearest);
+				assertEquals(k, nearest.size());
+				for (int row : nearest.rows()) {
+					assertFalse(model.isRemoved(row));
+				}
+			}
+		}
+	}
+
+	/**
+	 * This test validates that a compressed product-quantized model predicts almost the same classes as the linear search
+	 * 
+	 * @throws Exception
+	 */
+	@Test
+	public void testCompressedPQAgreesWithLinearSearch() throws Exception {
+		keNN classifier = new keNN();
+		classifier.setSearchMethod(new SelectedTag(keNN.SEARCH_PQ, keNN.TAGS_SEARCH));
+		classifier.setCompressed(true);
+		assertAgreesWithLinearSearch(classifier, keNN.DIST_EUCLIDEAN);
+	}
+}
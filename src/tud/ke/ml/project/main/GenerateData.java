@@ -0,0 +1,45 @@
+package tud.ke.ml.project.main;
+
+import java.io.File;
+
+import tud.ke.ml.project.classifier.NearestNeighbor;
+import tud.ke.ml.project.util.SyntheticData;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.ArffLoader;
+
+/**
+ * Writes a synthetic data set with the schema of an ARFF file, see {@link SyntheticData}.
+ * 
+ * Options: -i the ARFF file to learn from (default data/credit-g.arff), -n the number of instances (default 1000000),
+ * -o the file to write, as ARFF if its name ends with .arff and as model snapshot otherwise, -s the seed (default 42)
+ * and -c to learn the marginals per class value. The class is the last attribute.
+ */
+public class GenerateData {
+
+	public static void main(String[] args) throws Exception {
+		String input = Utils.getOption('i', args);
+		String count = Utils.getOption('n', args);
+		String output = Utils.getOption('o', args);
+		String seed = Utils.getOption('s', args);
+		boolean classConditional = Utils.getFlag('c', args);
+		if (output.isEmpty()) {
+			System.err.println("Usage: GenerateData [-i <ARFF file>] [-n <instances>] -o <ARFF or snapshot file> [-s <seed>] [-c]");
+			System.exit(1);
+		}
+
+		ArffLoader loader = new ArffLoader();
+		loader.setFile(new File(input.isEmpty() ? "data/credit-g.arff" : input));
+		Instances data = loader.getDataSet();
+		data.setClassIndex(data.numAttributes() - 1);
+
+		SyntheticData generator = new SyntheticData(data, classConditional);
+		long n = count.isEmpty() ? 1000000 : Long.parseLong(count);
+		long s = seed.isEmpty() ? 42 : Long.parseLong(seed);
+		File file = new File(output);
+		if (output.endsWith(".arff"))
+			generator.writeArff(file, n, s);
+		else
+			generator.writeSnapshot(new NearestNeighbor(), file, n, s);
+	}
+}
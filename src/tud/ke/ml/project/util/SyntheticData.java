@@ -0,0 +1,288 @@
+package tud.ke.ml.project.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import tud.ke.ml.project.classifier.NearestNeighbor;
+import weka.core.Attribute;
+import weka.core.DenseInstance;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Generator of synthetic data sets with the schema of a given data set, e.g. to benchmark the classifier on millions
+ * of instances shaped like credit-g.
+ *
+ * The generator learns the marginal distribution of every attribute from the given instances, optionally separately
+ * for every class value: the frequencies of the values of a nominal attribute and the sorted observed values of a
+ * numeric attribute. A synthetic instance draws its class value with the class frequencies of the data set and every
+ * other value independently from the marginal of its attribute, so the attribute types, the nominal cardinalities and
+ * the class balance are kept, but dependencies between attributes are not. Numeric values are drawn from the empirical
+ * distribution, interpolating linearly between neighboring observed values, and rounded if all observed values are
+ * integers. Missing values are ignored when learning and never generated.
+ *
+ * Instances are generated one at a time from a seed, so any number of them can be streamed to a file, and the same
+ * seed always gives the same instances.
+ */
+public class SyntheticData {
+	private final Instances header;
+	private final int classIndex;
+	private final boolean classConditional;
+
+	private final double[] classFrequencies;
+	// [class value or 0][attribute]: cumulative value frequencies of a nominal attribute, sorted values of a numeric one
+	private final double[][][] marginals;
+	private final boolean[] integral;
+
+	/**
+	 * Learns the marginals of a data set.
+	 *
+	 * @param data the data set, with a nominal class attribute; every other attribute must be numeric or nominal
+	 * @param classConditional true to learn the marginals separately for every class value
+	 */
+	public SyntheticData(Instances data, boolean classConditional) {
+		if (data.classIndex() < 0 || !data.classAttribute().isNominal())
+			throw new IllegalArgumentException("the data set needs a nominal class attribute");
+		this.header = new Instances(data, 0);
+		this.classIndex = data.classIndex();
+		this.classConditional = classConditional;
+		this.classFrequencies = nominalMarginal(data, classIndex, -1);
+		if (classFrequencies == null)
+			throw new IllegalArgumentException("the data set has no instances with a class value");
+
+		int numAttributes = data.numAttributes();
+		this.marginals = new double[classConditional ? data.numClasses() : 1][numAttributes][];
+		this.integral = new boolean[numAttributes];
+		for (int attribute = 0; attribute < numAttributes; attribute++) {
+			Attribute type = data.attribute(attribute);
+			if (attribute == classIndex)
+				continue;
+			if (!type.isNumeric() && !type.isNominal())
+				throw new IllegalArgumentException("attribute " + type.name() + " is neither numeric nor nominal");
+			double[] all = marginal(data, attribute, -1);
+			if (all == null)
+				throw new IllegalArgumentException("attribute " + type.name() + " has no values");
+			for (int group = 0; group < marginals.length; group++) {
+				double[] marginal = classConditional ? marginal(data, attribute, group) : all;
+				// a class without values of the attribute falls back to the values of all classes
+				marginals[group][attribute] = marginal == null ? all : marginal;
+			}
+			integral[attribute] = type.isNumeric() && isIntegral(all);
+		}
+	}
+
+	private static double[] marginal(Instances data, int attribute, int classValue) {
+		return data.attribute(attribute).isNumeric() ? numericMarginal(data, attribute, classValue) : nominalMarginal(data, attribute, classValue);
+	}
+
+	/**
+	 * @return the cumulative frequencies of the values, null if no instance has a value
+	 */
+	private static double[] nominalMarginal(Instances data, int attribute, int classValue) {
+		double[] cumulative = new double[data.attribute(attribute).numValues()];
+		boolean found = false;
+		for (Instance instance : data) {
+			if (instance.isMissing(attribute) || classValue >= 0 && (instance.classIsMissing() || (int) instance.classValue() != classValue))
+				continue;
+			cumulative[(int) instance.value(attribute)]++;
+			found = true;
+		}
+		for (int value = 1; value < cumulative.length; value++) {
+			cumulative[value] += cumulative[value - 1];
+		}
+		return found ? cumulative : null;
+	}
+
+	/**
+	 * @return the sorted values, null if no instance has a value
+	 */
+	private static double[] numericMarginal(Instances data, int attribute, int classValue) {
+		double[] values = new double[data.numInstances()];
+		int size = 0;
+		for (Instance instance : data) {
+			if (instance.isMissing(attribute) || classValue >= 0 && (instance.classIsMissing() || (int) instance.classValue() != classValue))
+				continue;
+			values[size++] = instance.value(attribute);
+		}
+		if (size == 0)
+			return null;
+		values = Arrays.copyOf(values, size);
+		Arrays.sort(values);
+		return values;
+	}
+
+	private static boolean isIntegral(double[] values) {
+		for (double value : values) {
+			if (value != Math.rint(value))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the header of the learned data set, without instances
+	 */
+	public Instances getHeader() {
+		return new Instances(header, 0);
+	}
+
+	/**
+	 * @return true if the marginals were learned separately for every class value
+	 */
+	public boolean isClassConditional() {
+		return classConditional;
+	}
+
+	/**
+	 * Generates the values of one instance in the internal format of WEKA.
+	 */
+	private double[] nextValues(Random random) {
+		int classValue = draw(classFrequencies, random);
+		double[][] group = marginals[classConditional ? classValue : 0];
+		double[] values = new double[group.length];
+		for (int attribute = 0; attribute < values.length; attribute++) {
+			if (attribute == classIndex)
+				values[attribute] = classValue;
+			else if (header.attribute(attribute).isNumeric())
+				values[attribute] = drawNumeric(group[attribute], integral[attribute], random);
+			else
+				values[attribute] = draw(group[attribute], random);
+		}
+		return values;
+	}
+
+	private static int draw(double[] cumulative, Random random) {
+		double position = random.nextDouble() * cumulative[cumulative.length - 1];
+		int value = 0;
+		// values without instances have the same cumulative frequency as their predecessor and are never drawn
+		while (value < cumulative.length - 1 && position >= cumulative[value]) {
+			value++;
+		}
+		return value;
+	}
+
+	private static double drawNumeric(double[] sorted, boolean integral, Random random) {
+		double position = random.nextDouble() * (sorted.length - 1);
+		int index = (int) position;
+		double value = sorted[index];
+		if (index + 1 < sorted.length)
+			value += (position - index) * (sorted[index + 1] - sorted[index]);
+		return integral ? Math.rint(value) : value;
+	}
+
+	/**
+	 * Generates instances with the header of the learned data set.
+	 *
+	 * @param count the number of instances
+	 * @param seed the seed of the random numbers
+	 * @return the instances, generated one at a time while iterating
+	 */
+	public Iterator<Instance> instances(long count, long seed) {
+		Instances dataset = getHeader();
+		Random random = new Random(seed);
+		return new Generator<Instance>(count) {
+			@Override
+			Instance generate() {
+				Instance instance = new DenseInstance(1, nextValues(random));
+				instance.setDataset(dataset);
+				return instance;
+			}
+		};
+	}
+
+	/**
+	 * Generates instances in the format learned by {@link NearestNeighbor}: {@link Double} values for numeric
+	 * attributes and the value names for nominal attributes. The same seed gives the same instances as
+	 * {@link #instances(long, long)}.
+	 *
+	 * @param count the number of instances
+	 * @param seed the seed of the random numbers
+	 * @return the instances, generated one at a time while iterating
+	 */
+	public Iterator<List<Object>> rows(long count, long seed) {
+		Random random = new Random(seed);
+		return new Generator<List<Object>>(count) {
+			@Override
+			List<Object> generate() {
+				double[] values = nextValues(random);
+				List<Object> row = new ArrayList<Object>(values.length);
+				for (int attribute = 0; attribute < values.length; attribute++) {
+					Attribute type = header.attribute(attribute);
+					row.add(type.isNumeric() ? (Object) values[attribute] : type.value((int) values[attribute]));
+				}
+				return row;
+			}
+		};
+	}
+
+	/**
+	 * Writes generated instances to an ARFF file with the header of the learned data set, one instance at a time.
+	 *
+	 * @param file the file to write, replacing its content
+	 * @param count the number of instances
+	 * @param seed the seed of the random numbers
+	 * @throws IOException if the file cannot be written
+	 */
+	public void writeArff(File file, long count, long seed) throws IOException {
+		try (Writer out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+			out.write(header.toString());
+			for (Iterator<Instance> instances = instances(count, seed); instances.hasNext();) {
+				out.write(instances.next().toString());
+				out.write('\n');
+			}
+		}
+	}
+
+	/**
+	 * Learns a model from generated instances and writes it in the binary snapshot format, see
+	 * {@link NearestNeighbor#saveSnapshot(File)}. The instances are added to the model as they are generated, so with
+	 * a store directory (see {@link NearestNeighbor#setStoreDirectory(File)}) they are never held on the heap.
+	 *
+	 * @param classifier the classifier whose settings, e.g. the search method, are used to build the model
+	 * @param file the file to write, replacing its content
+	 * @param count the number of instances, at least 1
+	 * @param seed the seed of the random numbers
+	 * @throws IOException if the file cannot be written
+	 */
+	public void writeSnapshot(NearestNeighbor classifier, File file, long count, long seed) throws IOException {
+		if (count < 1)
+			throw new IllegalArgumentException("a model needs at least one instance");
+		classifier.learnModel(rows(count, seed), classIndex);
+		classifier.saveSnapshot(file);
+	}
+
+	/**
+	 * Iterator over a fixed number of generated elements.
+	 */
+	private abstract static class Generator<T> implements Iterator<T> {
+		private long remaining;
+
+		Generator(long count) {
+			this.remaining = count;
+		}
+
+		abstract T generate();
+
+		@Override
+		public boolean hasNext() {
+			return remaining > 0;
+		}
+
+		@Override
+		public T next() {
+			if (remaining <= 0)
+				throw new NoSuchElementException();
+			remaining--;
+			return generate();
+		}
+	}
+}
@@ -1,13 +1,22 @@
 package weka.classifiers.lazy;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Vector;
 
 import tud.ke.ml.project.classifier.NearestNeighbor;
+import tud.ke.ml.project.classifier.ParameterSweep;
+import tud.ke.ml.project.classifier.store.ColumnarStore;
 import weka.classifiers.AbstractClassifier;
+import weka.classifiers.UpdateableClassifier;
 import weka.core.Capabilities;
 import weka.core.Capabilities.Capability;
 import weka.core.Instance;
@@ -17,12 +26,13 @@ import weka.core.OptionHandler;
 import weka.core.SelectedTag;
 import weka.core.Tag;
 import weka.core.Utils;
+import weka.core.converters.ArffLoader;
 
 /**
  * WEKA Wrapper class. Do not modify.
  * 
  */
-public class keNN extends AbstractClassifier implements OptionHandler {
+public class keNN extends AbstractClassifier implements OptionHandler, UpdateableClassifier {
 
 	private static final long serialVersionUID = 923612147248506865L;
 
@@ -38,21 +48,115 @@ public class keNN extends AbstractClassifier implements OptionHandler {
 	public static final int NORM_FALSE = 1;
 	public static final Tag[] TAGS_NORM = { new Tag(NORM_FALSE, "No normalization"), new Tag(NORM_TRUE, "Normalize variables"), };
 
+	public static final int SEARCH_LINEAR = NearestNeighbor.SEARCH_LINEAR;
+	public static final int SEARCH_KDTREE = NearestNeighbor.SEARCH_KDTREE;
+	public static final int SEARCH_VPTREE = NearestNeighbor.SEARCH_VPTREE;
+	public static final int SEARCH_LSH = NearestNeighbor.SEARCH_LSH;
+	public static final int SEARCH_HNSW = NearestNeighbor.SEARCH_HNSW;
+	public static final int SEARCH_PQ = NearestNeighbor.SEARCH_PQ;
+	public static final int SEARCH_CLUSTER = NearestNeighbor.SEARCH_CLUSTER;
+	public static final Tag[] TAGS_SEARCH = { new Tag(SEARCH_LINEAR, "Linear scan"), new Tag(SEARCH_KDTREE, "KD-tree (numeric attributes only)"), new Tag(SEARCH_VPTREE, "VP-tree"), new Tag(SEARCH_LSH, "Locality-sensitive hashing (approximate)"), new Tag(SEARCH_HNSW, "HNSW graph (approximate)"), new Tag(SEARCH_PQ, "Product quantization (approximate)"), new Tag(SEARCH_CLUSTER, "Cluster pruning"), };
+
+	public static final int CONDENSE_NONE = NearestNeighbor.CONDENSE_NONE;
+	public static final int CONDENSE_CNN = NearestNeighbor.CONDENSE_CNN;
+	public static final int CONDENSE_ENN = NearestNeighbor.CONDENSE_ENN;
+	public static final int CONDENSE_ICF = NearestNeighbor.CONDENSE_ICF;
+	public static final Tag[] TAGS_CONDENSATION = { new Tag(CONDENSE_NONE, "No prototype selection"), new Tag(CONDENSE_CNN, "Condensed NN"), new Tag(CONDENSE_ENN, "Edited NN"), new Tag(CONDENSE_ICF, "Iterative Case Filtering"), };
+
+	public static final int WINDOW_SLIDING = NearestNeighbor.WINDOW_SLIDING;
+	public static final int WINDOW_RESERVOIR = NearestNeighbor.WINDOW_RESERVOIR;
+	public static final Tag[] TAGS_WINDOW = { new Tag(WINDOW_SLIDING, "Sliding window of the latest instances"), new Tag(WINDOW_RESERVOIR, "Reservoir sample per class"), };
+
 	private NearestNeighbor classifier = new NearestNeighbor();
 
 	private boolean[] isNumeric;
 
 	@Override
 	public void buildClassifier(Instances instances) throws Exception {
-		List<List<Object>> data = new LinkedList<List<Object>>();
 		int classAttribute = instances.classAttribute().index();
 		determineNumericAttributes(instances);
-		for (Instance inst : instances) {
-			data.add(convert(inst));
-		}
+		// instances are converted one at a time while the model reads them, not copied up front
+		List<List<Object>> data = new AbstractList<List<Object>>() {
+			@Override
+			public List<Object> get(int index) {
+				return convert(instances.instance(index));
+			}
+
+			@Override
+			public int size() {
+				return instances.numInstances();
+			}
+		};
 		classifier.learnModel(data, classAttribute);
 	}
 
+	/**
+	 * Builds the classifier from an ARFF file without loading it into {@link Instances} first. The rows are read one
+	 * at a time by an incremental {@link ArffLoader} and added to the model as they are read, so the peak memory is
+	 * about the size of the model. The class is the last attribute. A file without instances gives an empty model, like
+	 * {@link #buildClassifier(Instances)} with no instances.
+	 * 
+	 * @param arff the ARFF file holding the training instances
+	 * @throws Exception if the file cannot be read
+	 */
+	public void buildClassifier(File arff) throws Exception {
+		ArffLoader loader = new ArffLoader();
+		loader.setFile(arff);
+		Instances structure = loader.getStructure();
+		structure.setClassIndex(structure.numAttributes() - 1);
+		determineNumericAttributes(structure);
+		Iterator<List<Object>> data = new Iterator<List<Object>>() {
+			private Instance next = loader.getNextInstance(structure);
+
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+
+			@Override
+			public List<Object> next() {
+				if (next == null)
+					throw new NoSuchElementException();
+				List<Object> instance = convert(next);
+				try {
+					next = loader.getNextInstance(structure);
+				}
+				catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				return instance;
+			}
+		};
+		try {
+			classifier.learnModel(data, structure.classIndex());
+		}
+		catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Adds a training instance to the model without building it again, see
+	 * {@link NearestNeighbor#addInstance(List, int)}.
+	 * 
+	 * @param instance the instance, with the header of the training data
+	 */
+	@Override
+	public void updateClassifier(Instance instance) {
+		classifier.addInstance(convert(instance), instance.classIndex());
+	}
+
+	/**
+	 * Removes a training instance from the model without building it again, see
+	 * {@link NearestNeighbor#removeInstance(List)}.
+	 * 
+	 * @param instance the instance, with the header of the training data
+	 * @return true if the instance was found and removed
+	 */
+	public boolean removeInstance(Instance instance) {
+		return classifier.removeInstance(convert(instance));
+	}
+
 	@Override
 	public double classifyInstance(Instance instance) {
 		int classAttribute = instance.classAttribute().index();
@@ -60,6 +164,96 @@ public class keNN extends AbstractClassifier implements OptionHandler {
 		return instance.classAttribute().indexOfValue(classValue.toString());
 	}
 
+	/**
+	 * Classifies all given instances in parallel, using {@link #getParallelism()} threads.
+	 * 
+	 * @param instances the instances to classify
+	 * @return the predicted class index of every instance, in the order of the instances
+	 */
+	public double[] classifyInstances(Instances instances) {
+		List<List<Object>> data = new ArrayList<List<Object>>(instances.numInstances());
+		for (Instance inst : instances) {
+			data.add(convert(inst));
+		}
+		List<Object> classValues = classifier.classifyInstances(data);
+		double[] result = new double[classValues.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = instances.classAttribute().indexOfValue(classValues.get(i).toString());
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the learned model in the binary snapshot format, see {@link NearestNeighbor#saveSnapshot(File)}.
+	 * 
+	 * @param file the file to write
+	 * @throws IOException if the file cannot be written
+	 */
+	public void saveModel(File file) throws IOException {
+		classifier.saveSnapshot(file);
+	}
+
+	/**
+	 * Replaces the model with one written by {@link #saveModel(File)}, without building the classifier again. The
+	 * instances to classify must have the header of the training data.
+	 * 
+	 * @param file the file to read
+	 * @throws IOException if the file cannot be read or is not a snapshot
+	 */
+	public void loadModel(File file) throws IOException {
+		classifier.loadSnapshot(file);
+		// the snapshot stores the attribute types and the typed class values, so the instances to classify need no
+		// dataset
+		ColumnarStore store = classifier.getSnapshot().getStore();
+		isNumeric = new boolean[store.getNumAttributes()];
+		for (int i = 0; i < isNumeric.length; i++) {
+			isNumeric[i] = i == store.getClassAttribute() ? store.isNumericClass() : store.isNumeric(i);
+		}
+	}
+
+	/**
+	 * Evaluates every combination of metric, normalization, k up to a maximum and distance weighting by leave-one-out
+	 * on the training data, see {@link ParameterSweep}. The options of the classifier are not changed.
+	 * 
+	 * @param maxK the largest number of neighbours to evaluate
+	 * @return the accuracy of every combination
+	 */
+	public ParameterSweep sweepParameters(int maxK) {
+		return ParameterSweep.run(classifier, maxK);
+	}
+
+	@Override
+	public boolean implementsMoreEfficientBatchPrediction() {
+		return true;
+	}
+
+	@Override
+	public double[][] distributionsForInstances(Instances instances) throws Exception {
+		double[] classes = classifyInstances(instances);
+		double[][] distributions = new double[classes.length][instances.numClasses()];
+		for (int i = 0; i < classes.length; i++) {
+			if (instances.classAttribute().isNumeric()) {
+				distributions[i][0] = classes[i];
+			}
+			else if (classes[i] >= 0) {
+				distributions[i][(int) classes[i]] = 1;
+			}
+		}
+		return distributions;
+	}
+
+	@Override
+	public String toString() {
+		if (classifier.getSnapshot() == null) {
+			return "keNN: no model built yet.";
+		}
+		String result = "keNN: " + classifier.getSnapshot().remaining() + " training instances";
+		if (classifier.getCondensationReport() != null) {
+			result += "\n" + classifier.getCondensationReport();
+		}
+		return result;
+	}
+
 	public String globalInfo() {
 		return "KE Project Nearest Neighbour Classifier";
 	}
@@ -75,7 +269,7 @@ public class keNN extends AbstractClassifier implements OptionHandler {
 	}
 
 	private List<Object> convert(Instance instance) {
-		List<Object> data = new LinkedList<Object>();
+		List<Object> data = new ArrayList<Object>(isNumeric.length);
 		for (int i = 0; i < isNumeric.length; i++) {
 			if (isNumeric[i]) {
 				data.add(instance.value(i));
@@ -94,6 +288,23 @@ public class keNN extends AbstractClassifier implements OptionHandler {
 		newVector.addElement(new Option("\tNumber of nearest neighbours (k) used in classification.\n" + "\t(Default = 1)", "K", 1, "-K <number of neighbors>"));
 		newVector.addElement(new Option("\tUse weighted voting by the inverse of their distance\n" + "\t(use when k > 1)", "I", 0, "-I"));
 		newVector.addElement(new Option("\tUse euclidean distance instead of manhattan.\n", "E", 0, "-E "));
+		newVector.addElement(new Option("\tUse the Vector API distance kernels if they are available (may differ from the scalar kernels by rounding).\n", "V", 0, "-V"));
+		newVector.addElement(new Option("\tCompare tiles of test and training instances in batch classification.\n", "T", 0, "-T"));
+		newVector.addElement(new Option("\tNumber of threads used for batch classification.\n" + "\t(Default = 0, one per available processor)", "P", 1, "-P <number of threads>"));
+		newVector.addElement(new Option("\tNearest neighbour search method: 0 = linear scan, 1 = KD-tree, 2 = VP-tree, 3 = LSH, 4 = HNSW, 5 = PQ, 6 = cluster pruning.\n" + "\t(Default = 0)", "S", 1, "-S <search method>"));
+		newVector.addElement(new Option("\tNumber of hash tables of the locality-sensitive hashing search.\n" + "\t(Default = 10)", "L", 1, "-L <number of tables>"));
+		newVector.addElement(new Option("\tNumber of neighbouring buckets probed per hash table.\n" + "\t(Default = 2)", "Q", 1, "-Q <number of probes>"));
+		newVector.addElement(new Option("\tNumber of links per node of the HNSW graph (M).\n" + "\t(Default = 16)", "M", 1, "-M <number of links>"));
+		newVector.addElement(new Option("\tNumber of candidates kept while building the HNSW graph (efConstruction).\n" + "\t(Default = 100)", "C", 1, "-C <number of candidates>"));
+		newVector.addElement(new Option("\tNumber of candidates kept while searching the HNSW graph (efSearch).\n" + "\t(Default = 50)", "W", 1, "-W <number of candidates>"));
+		newVector.addElement(new Option("\tNumber of subquantizers of the product quantization.\n" + "\t(Default = 0, one per two numeric attributes)", "U", 1, "-U <number of subquantizers>"));
+		newVector.addElement(new Option("\tNumber of product quantization candidates re-ranked on the original values.\n" + "\t(Default = 100)", "R", 1, "-R <number of candidates>"));
+		newVector.addElement(new Option("\tNumber of cells of the cluster-pruned search.\n" + "\t(Default = 0, square root of the number of training instances)", "G", 1, "-G <number of cells>"));
+		newVector.addElement(new Option("\tDrop the original numeric values of a product-quantized model.\n", "Z", 0, "-Z"));
+		newVector.addElement(new Option("\tDirectory to write memory-mapped model files to.\n" + "\t(Default = none, the model is held on the heap)", "F", 1, "-F <directory>"));
+		newVector.addElement(new Option("\tPrototype selection before building the model: 0 = none, 1 = Condensed NN, 2 = Edited NN, 3 = Iterative Case Filtering.\n" + "\t(Default = 0)", "D", 1, "-D <condensation method>"));
+		newVector.addElement(new Option("\tLargest number of training instances kept when updating the classifier.\n" + "\t(Default = 0, no limit)", "N", 1, "-N <window size>"));
+		newVector.addElement(new Option("\tInstances kept in the window: 0 = latest instances, 1 = reservoir sample per class.\n" + "\t(Default = 0)", "O", 1, "-O <window policy>"));
 		newVector.addAll(Collections.list(super.listOptions()));
 
 		return newVector.elements();
@@ -123,6 +334,129 @@ public class keNN extends AbstractClassifier implements OptionHandler {
 		else {
 			classifier.setMetric(0);
 		}
+
+		if (Utils.getFlag('V', options)) {
+			classifier.setKernel(NearestNeighbor.KERNEL_VECTORIZED);
+		}
+		else {
+			classifier.setKernel(NearestNeighbor.KERNEL_SCALAR);
+		}
+
+		classifier.setBlocked(Utils.getFlag('T', options));
+
+		String parallelismString = Utils.getOption('P', options);
+		if (parallelismString.length() != 0) {
+			classifier.setParallelism(Integer.parseInt(parallelismString));
+		}
+		else {
+			classifier.setParallelism(0);
+		}
+
+		String searchString = Utils.getOption('S', options);
+		if (searchString.length() != 0) {
+			classifier.setSearchMethod(Integer.parseInt(searchString));
+		}
+		else {
+			classifier.setSearchMethod(SEARCH_LINEAR);
+		}
+
+		String tablesString = Utils.getOption('L', options);
+		if (tablesString.length() != 0) {
+			classifier.setHashTables(Integer.parseInt(tablesString));
+		}
+		else {
+			classifier.setHashTables(10);
+		}
+
+		String probesString = Utils.getOption('Q', options);
+		if (probesString.length() != 0) {
+			classifier.setProbes(Integer.parseInt(probesString));
+		}
+		else {
+			classifier.setProbes(2);
+		}
+
+		String linksString = Utils.getOption('M', options);
+		if (linksString.length() != 0) {
+			classifier.setMaxLinks(Integer.parseInt(linksString));
+		}
+		else {
+			classifier.setMaxLinks(16);
+		}
+
+		String efConstructionString = Utils.getOption('C', options);
+		if (efConstructionString.length() != 0) {
+			classifier.setEfConstruction(Integer.parseInt(efConstructionString));
+		}
+		else {
+			classifier.setEfConstruction(100);
+		}
+
+		String efSearchString = Utils.getOption('W', options);
+		if (efSearchString.length() != 0) {
+			classifier.setEfSearch(Integer.parseInt(efSearchString));
+		}
+		else {
+			classifier.setEfSearch(50);
+		}
+
+		String subquantizersString = Utils.getOption('U', options);
+		if (subquantizersString.length() != 0) {
+			classifier.setSubquantizers(Integer.parseInt(subquantizersString));
+		}
+		else {
+			classifier.setSubquantizers(0);
+		}
+
+		String rerankString = Utils.getOption('R', options);
+		if (rerankString.length() != 0) {
+			classifier.setRerank(Integer.parseInt(rerankString));
+		}
+		else {
+			classifier.setRerank(100);
+		}
+
+		String clustersString = Utils.getOption('G', options);
+		if (clustersString.length() != 0) {
+			classifier.setClusters(Integer.parseInt(clustersString));
+		}
+		else {
+			classifier.setClusters(0);
+		}
+
+		classifier.setCompressed(Utils.getFlag('Z', options));
+
+		String directoryString = Utils.getOption('F', options);
+		if (directoryString.length() != 0) {
+			classifier.setStoreDirectory(new File(directoryString));
+		}
+		else {
+			classifier.setStoreDirectory(null);
+		}
+
+		String condensationString = Utils.getOption('D', options);
+		if (condensationString.length() != 0) {
+			classifier.setCondensation(Integer.parseInt(condensationString));
+		}
+		else {
+			classifier.setCondensation(CONDENSE_NONE);
+		}
+
+		String windowSizeString = Utils.getOption('N', options);
+		if (windowSizeString.length() != 0) {
+			classifier.setWindowSize(Integer.parseInt(windowSizeString));
+		}
+		else {
+			classifier.setWindowSize(0);
+		}
+
+		String windowPolicyString = Utils.getOption('O', options);
+		if (windowPolicyString.length() != 0) {
+			classifier.setWindowPolicy(Integer.parseInt(windowPolicyString));
+		}
+		else {
+			classifier.setWindowPolicy(WINDOW_SLIDING);
+		}
 	}
 
 	@Override
@@ -139,6 +473,62 @@ public class keNN extends AbstractClassifier implements OptionHandler {
 			options.add("-E");
 		}
 
+		if (classifier.getKernel() == NearestNeighbor.KERNEL_VECTORIZED) {
+			options.add("-V");
+		}
+
+		if (classifier.isBlocked()) {
+			options.add("-T");
+		}
+
+		options.add("-P");
+		options.add("" + classifier.getParallelism());
+
+		options.add("-S");
+		options.add("" + classifier.getSearchMethod());
+
+		options.add("-L");
+		options.add("" + classifier.getHashTables());
+
+		options.add("-Q");
+		options.add("" + classifier.getProbes());
+
+		options.add("-M");
+		options.add("" + classifier.getMaxLinks());
+
+		options.add("-C");
+		options.add("" + classifier.getEfConstruction());
+
+		options.add("-W");
+		options.add("" + classifier.getEfSearch());
+
+		options.add("-U");
+		options.add("" + classifier.getSubquantizers());
+
+		options.add("-R");
+		options.add("" + classifier.getRerank());
+
+		options.add("-G");
+		options.add("" + classifier.getClusters());
+
+		if (classifier.isCompressed()) {
+			options.add("-Z");
+		}
+
+		if (classifier.getStoreDirectory() != null) {
+			options.add("-F");
+			options.add(classifier.getStoreDirectory().getPath());
+		}
+
+		options.add("-D");
+		options.add("" + classifier.getCondensation());
+
+		options.add("-N");
+		options.add("" + classifier.getWindowSize());
+
+		options.add("-O");
+		options.add("" + classifier.getWindowPolicy());
+
 		Collections.addAll(options, super.getOptions());
 
 		return options.toArray(new String[0]);
@@ -158,7 +548,7 @@ public class keNN extends AbstractClassifier implements OptionHandler {
 		result.enable(Capability.NUMERIC_CLASS);
 
 		// instances
-		result.setMinimumNumberInstances(1);
+		result.setMinimumNumberInstances(0);
 
 		return result;
 	}
@@ -220,4 +610,222 @@ public class keNN extends AbstractClassifier implements OptionHandler {
 			classifier.setNormalizing(newMethod.getSelectedTag().getID() == 0 ? false : true);
 		}
 	}
+
+	public void setVectorizedKernel(boolean vectorized) {
+		classifier.setKernel(vectorized ? NearestNeighbor.KERNEL_VECTORIZED : NearestNeighbor.KERNEL_SCALAR);
+	}
+
+	public boolean getVectorizedKernel() {
+		return classifier.getKernel() == NearestNeighbor.KERNEL_VECTORIZED;
+	}
+
+	public String vectorizedKernelTipText() {
+		return "Use the Vector API distance kernels if they are available, which may differ from the scalar kernels by rounding";
+	}
+
+	public void setBlocked(boolean blocked) {
+		classifier.setBlocked(blocked);
+	}
+
+	public boolean getBlocked() {
+		return classifier.isBlocked();
+	}
+
+	public String blockedTipText() {
+		return "Compare tiles of test instances with tiles of training instances in batch classification";
+	}
+
+	public void setParallelism(int parallelism) {
+		classifier.setParallelism(parallelism);
+	}
+
+	public int getParallelism() {
+		return classifier.getParallelism();
+	}
+
+	public String parallelismTipText() {
+		return "Number of threads used for batch classification (0 = one per available processor)";
+	}
+
+	public String searchMethodTipText() {
+
+		return "The method used to search the nearest neighbours.";
+	}
+
+	public SelectedTag getSearchMethod() {
+
+		return new SelectedTag(classifier.getSearchMethod(), TAGS_SEARCH);
+	}
+
+	public void setSearchMethod(SelectedTag newMethod) {
+
+		if (newMethod.getTags() == TAGS_SEARCH) {
+			classifier.setSearchMethod(newMethod.getSelectedTag().getID());
+		}
+	}
+
+	public void setHashTables(int hashTables) {
+		classifier.setHashTables(hashTables);
+	}
+
+	public int getHashTables() {
+		return classifier.getHashTables();
+	}
+
+	public String hashTablesTipText() {
+		return "Number of hash tables of the locality-sensitive hashing search (more tables give a higher recall)";
+	}
+
+	public void setProbes(int probes) {
+		classifier.setProbes(probes);
+	}
+
+	public int getProbes() {
+		return classifier.getProbes();
+	}
+
+	public String probesTipText() {
+		return "Number of neighbouring buckets probed per hash table by the locality-sensitive hashing search";
+	}
+
+	public void setMaxLinks(int maxLinks) {
+		classifier.setMaxLinks(maxLinks);
+	}
+
+	public int getMaxLinks() {
+		return classifier.getMaxLinks();
+	}
+
+	public String maxLinksTipText() {
+		return "Number of links per node and level of the HNSW graph (M)";
+	}
+
+	public void setEfConstruction(int efConstruction) {
+		classifier.setEfConstruction(efConstruction);
+	}
+
+	public int getEfConstruction() {
+		return classifier.getEfConstruction();
+	}
+
+	public String efConstructionTipText() {
+		return "Number of candidates kept while building the HNSW graph (higher builds a better graph more slowly)";
+	}
+
+	public void setEfSearch(int efSearch) {
+		classifier.setEfSearch(efSearch);
+	}
+
+	public int getEfSearch() {
+		return classifier.getEfSearch();
+	}
+
+	public String efSearchTipText() {
+		return "Number of candidates kept while searching the HNSW graph (higher finds more of the true neighbours)";
+	}
+
+	public void setSubquantizers(int subquantizers) {
+		classifier.setSubquantizers(subquantizers);
+	}
+
+	public int getSubquantizers() {
+		return classifier.getSubquantizers();
+	}
+
+	public String subquantizersTipText() {
+		return "Number of subquantizers of the product quantization (0 = one per two numeric attributes)";
+	}
+
+	public void setRerank(int rerank) {
+		classifier.setRerank(rerank);
+	}
+
+	public int getRerank() {
+		return classifier.getRerank();
+	}
+
+	public String rerankTipText() {
+		return "Number of product quantization candidates re-ranked on the original values (0 = use the approximate distances)";
+	}
+
+	public void setClusters(int clusters) {
+		classifier.setClusters(clusters);
+	}
+
+	public int getClusters() {
+		return classifier.getClusters();
+	}
+
+	public String clustersTipText() {
+		return "Number of cells of the cluster-pruned search (0 = square root of the number of training instances)";
+	}
+
+	public void setCompressed(boolean compressed) {
+		classifier.setCompressed(compressed);
+	}
+
+	public boolean getCompressed() {
+		return classifier.isCompressed();
+	}
+
+	public void setStoreDirectory(File storeDirectory) {
+		if (storeDirectory == null || storeDirectory.getPath().isEmpty()) {
+			classifier.setStoreDirectory(null);
+		}
+		else {
+			classifier.setStoreDirectory(storeDirectory);
+		}
+	}
+
+	public File getStoreDirectory() {
+		return classifier.getStoreDirectory() == null ? new File("") : classifier.getStoreDirectory();
+	}
+
+	public String storeDirectoryTipText() {
+		return "Directory to write memory-mapped model files to, so the training set does not have to fit into the heap (empty = hold the model on the heap)";
+	}
+
+	public String condensationTipText() {
+		return "The prototype selection applied to the training set before the model is built.";
+	}
+
+	public SelectedTag getCondensation() {
+		return new SelectedTag(classifier.getCondensation(), TAGS_CONDENSATION);
+	}
+
+	public void setCondensation(SelectedTag newMethod) {
+		if (newMethod.getTags() == TAGS_CONDENSATION) {
+			classifier.setCondensation(newMethod.getSelectedTag().getID());
+		}
+	}
+
+	public void setWindowSize(int windowSize) {
+		classifier.setWindowSize(windowSize);
+	}
+
+	public int getWindowSize() {
+		return classifier.getWindowSize();
+	}
+
+	public String windowSizeTipText() {
+		return "Largest number of training instances kept when the classifier is updated with a stream (0 = no limit)";
+	}
+
+	public String windowPolicyTipText() {
+		return "The instances kept in the window when the classifier is updated with a stream.";
+	}
+
+	public SelectedTag getWindowPolicy() {
+		return new SelectedTag(classifier.getWindowPolicy(), TAGS_WINDOW);
+	}
+
+	public void setWindowPolicy(SelectedTag newPolicy) {
+		if (newPolicy.getTags() == TAGS_WINDOW) {
+			classifier.setWindowPolicy(newPolicy.getSelectedTag().getID());
+		}
+	}
+
+	public String compressedTipText() {
+		return "Drop the original numeric values of a product-quantized model to save memory (distances become approximate)";
+	}
 }
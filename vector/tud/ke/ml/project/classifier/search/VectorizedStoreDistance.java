@@ -0,0 +1,143 @@
+package tud.ke.ml.project.classifier.search;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import tud.ke.ml.project.classifier.store.ColumnarStore;
+import tud.ke.ml.project.classifier.store.EncodedInstance;
+import tud.ke.ml.project.classifier.store.NominalBitset;
+
+/**
+ * The distances of {@link StoreDistance} computed with the Vector API: the numeric block is compared in vectors of the
+ * preferred width of the processor and the nominal codes are compared vector by vector, counting the mismatching lanes.
+ *
+ * The class needs the incubator module <code>jdk.incubator.vector</code> (JDK 16 or later), so it is not part of the
+ * Java 8 sources but compiled from the optional <code>vector</code> source folder. The model loads it by reflection if
+ * it is on the class path and the module is added with <code>--add-modules jdk.incubator.vector</code>, and uses
+ * {@link StoreDistance} otherwise.
+ *
+ * Because the lanes are summed in a different order, distances may differ from {@link StoreDistance} in the last bits.
+ * The early-abandoning variants compare the partial sum with the threshold once every {@link #CHECK_INTERVAL} vectors,
+ * since every check reduces the lanes.
+ */
+public class VectorizedStoreDistance extends StoreDistance {
+    private static final long serialVersionUID = 1L;
+
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    // number of vectors between two threshold checks
+    static final int CHECK_INTERVAL = 4;
+
+    /**
+     * @param store the store holding the nominal block
+     * @param numericData the numeric block to compare with, laid out like {@link ColumnarStore#getNumericData()}
+     * @param metric 0 for Manhattan, 1 for Euclidean
+     * @param nominalBits the packed nominal block of the store, or null
+     * @param translation the translation per attribute index, null for the values of the block
+     * @param scaling the scaling per attribute index, null for the values of the block
+     */
+    public VectorizedStoreDistance(ColumnarStore store, double[] numericData, int metric, NominalBitset nominalBits,
+            double[] translation, double[] scaling) {
+        super(store, numericData, metric, nominalBits, translation, scaling);
+    }
+
+    @Override
+    public double manhattan(int row, EncodedInstance query) {
+        return manhattan(row, query, Double.POSITIVE_INFINITY);
+    }
+
+    @Override
+    public double euclidean(int row, EncodedInstance query) {
+        return euclidean(row, query, Double.POSITIVE_INFINITY);
+    }
+
+    @Override
+    public double manhattan(int row, EncodedInstance query, double threshold) {
+        double[] numeric = query.getNumeric();
+        int n = numeric.length;
+        int offset = row * n;
+
+        DoubleVector sums = DoubleVector.zero(DOUBLES);
+        int c = 0, bound = DOUBLES.loopBound(n), vectors = 0;
+        for (; c < bound; c += DOUBLES.length()) {
+            sums = sums.add(values(offset, c).sub(DoubleVector.fromArray(DOUBLES, numeric, c)).abs());
+            if (++vectors % CHECK_INTERVAL == 0) {
+                double sum = sums.reduceLanes(VectorOperators.ADD);
+                if (sum > threshold)
+                    return sum;
+            }
+        }
+        double sum = sums.reduceLanes(VectorOperators.ADD);
+        for (; c < n; c++) {
+            sum += Math.abs(value(offset + c, c) - numeric[c]);
+        }
+        if (sum > threshold)
+            return sum;
+        return sum + mismatches(row, query);
+    }
+
+    @Override
+    public double euclidean(int row, EncodedInstance query, double threshold) {
+        double[] numeric = query.getNumeric();
+        int n = numeric.length;
+        int offset = row * n;
+        double limit = threshold * threshold * (1 + SLACK);
+
+        DoubleVector sums = DoubleVector.zero(DOUBLES);
+        int c = 0, bound = DOUBLES.loopBound(n), vectors = 0;
+        for (; c < bound; c += DOUBLES.length()) {
+            DoubleVector d = values(offset, c).sub(DoubleVector.fromArray(DOUBLES, numeric, c));
+            sums = sums.add(d.mul(d));
+            if (++vectors % CHECK_INTERVAL == 0 && sums.reduceLanes(VectorOperators.ADD) > limit)
+                return Double.POSITIVE_INFINITY;
+        }
+        double sum = sums.reduceLanes(VectorOperators.ADD);
+        for (; c < n; c++) {
+            double d = value(offset + c, c) - numeric[c];
+            sum += d * d;
+        }
+        if (sum > limit)
+            return Double.POSITIVE_INFINITY;
+        sum += mismatches(row, query);
+        return sum > limit ? Double.POSITIVE_INFINITY : Math.sqrt(sum);
+    }
+
+    /**
+     * Loads one vector of numeric values of a row, normalized if a translation and scaling were given.
+     */
+    private DoubleVector values(int offset, int column) {
+        DoubleVector x = DoubleVector.fromArray(DOUBLES, numericData, offset + column);
+        if (weight == null)
+            return x;
+        return x.sub(DoubleVector.fromArray(DOUBLES, translation, column)).mul(DoubleVector.fromArray(DOUBLES, weight, column));
+    }
+
+    private double value(int position, int column) {
+        double x = numericData[position];
+        return weight == null ? x : (x - translation[column]) * weight[column];
+    }
+
+    /**
+     * Counts the nominal attributes whose codes differ, on the packed block or one vector of codes at a time.
+     */
+    private int mismatches(int row, EncodedInstance query) {
+        if (isPacked(row))
+            return nominalBits.mismatches(row, query.getPackedNominal(nominalBits));
+        int[] nominal = query.getNominal();
+        int[] nominalData = store.getNominalData();
+        int offset = row * nominal.length;
+
+        int count = 0;
+        int c = 0, bound = INTS.loopBound(nominal.length);
+        for (; c < bound; c += INTS.length()) {
+            IntVector codes = IntVector.fromArray(INTS, nominalData, offset + c);
+            count += codes.compare(VectorOperators.NE, IntVector.fromArray(INTS, nominal, c)).trueCount();
+        }
+        for (; c < nominal.length; c++) {
+            if (nominalData[offset + c] != nominal[c])
+                count++;
+        }
+        return count;
+    }
+}